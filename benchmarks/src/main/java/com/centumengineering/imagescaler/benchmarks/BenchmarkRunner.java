@@ -0,0 +1,81 @@
+package com.centumengineering.imagescaler.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the whole suite and writes every result into one JSON file so runs can
+ * be compared between builds. The single threaded decode, resize and encode
+ * benchmarks run once, and the end-to-end ScaleTask benchmark runs at 1, 2, 4,
+ * ... threads up to the given maximum.
+ *
+ * Usage: java -jar benchmarks.jar [result file] [max threads] [include regex]
+ *
+ * Individual benchmarks can also be run with the regular JMH launcher:
+ * java -cp benchmarks.jar org.openjdk.jmh.Main ResizeBenchmark -rf json
+ *
+ * @author Phani Gaddipati
+ */
+public class BenchmarkRunner {
+
+    private static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws RunnerException {
+        String resultFile = args.length > 0 ? args[0] : DEFAULT_RESULT_FILE;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        String include = args.length > 2 ? args[2] : ".*";
+
+        List<RunResult> results = new ArrayList<>();
+        Options components = new OptionsBuilder()
+                .include("(" + DecodeBenchmark.class.getSimpleName()
+                        + "|" + ResizeBenchmark.class.getSimpleName()
+                        + "|" + ResampleBenchmark.class.getSimpleName()
+                        + "|" + EncodeBenchmark.class.getSimpleName() + ")\\..*" + include)
+                .build();
+        results.addAll(run(components));
+
+        for (int threads : threadCounts(maxThreads)) {
+            Options endToEnd = new OptionsBuilder()
+                    .include(ScaleTaskBenchmark.class.getSimpleName() + "\\..*" + include)
+                    .threads(threads)
+                    .build();
+            results.addAll(run(endToEnd));
+        }
+
+        ResultFormatFactory.getInstance(ResultFormatType.JSON, resultFile).writeOut(results);
+        System.out.println("Wrote " + results.size() + " results to " + resultFile);
+    }
+
+    private static Collection<RunResult> run(Options options) throws RunnerException {
+        try {
+            return new Runner(options).run();
+        } catch (RunnerException ex) {
+            // Nothing matched the include pattern
+            if (ex.getMessage() != null && ex.getMessage().contains("No matching benchmarks")) {
+                return new ArrayList<>();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * @return 1, 2, 4, ... up to and including max
+     */
+    private static List<Integer> threadCounts(int max) {
+        List<Integer> counts = new ArrayList<>();
+        for (int t = 1; t < max; t *= 2) {
+            counts.add(t);
+        }
+        counts.add(max);
+        return counts;
+    }
+}
@@ -0,0 +1,78 @@
+package com.centumengineering.imagescaler.benchmarks;
+
+import com.centumengineering.imagescaler.scaling.DecodedImage;
+import com.centumengineering.imagescaler.scaling.ImageDecoder;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures decoding source images, from memory and from disk, with and
+ * without the subsampled decode ScaleTask uses.
+ *
+ * @author Phani Gaddipati
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({"jpg", "png", "gif", "bmp"})
+    public String format;
+
+    @Param({"640x480", "1920x1080", "4000x3000"})
+    public String resolution;
+
+    private byte[] encoded;
+    private File dir;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BufferedImage img = SyntheticImages.create(resolution);
+        encoded = SyntheticImages.encode(img, format);
+        dir = Files.createTempDirectory("decode-bench").toFile();
+        file = SyntheticImages.write(img, format, dir, "source");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Benchmark
+    public BufferedImage decodeMemory() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(encoded));
+    }
+
+    @Benchmark
+    public BufferedImage decodeFile() throws IOException {
+        return ImageIO.read(file);
+    }
+
+    @Benchmark
+    public DecodedImage decodeSubsampled() throws IOException {
+        return ImageDecoder.decode(file, ScaleTaskBenchmark.FULL_WIDTH, true);
+    }
+}
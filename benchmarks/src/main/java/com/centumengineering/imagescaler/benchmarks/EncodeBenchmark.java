@@ -0,0 +1,58 @@
+package com.centumengineering.imagescaler.benchmarks;
+
+import com.centumengineering.imagescaler.scaling.EncoderSettings;
+import com.centumengineering.imagescaler.scaling.ImageEncoder;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures encoding scaled images at typical output sizes, through ImageIO.write
+ * and through the pooled writers of {@link ImageEncoder}.
+ *
+ * @author Phani Gaddipati
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodeBenchmark {
+
+    @Param({"jpg", "png", "gif", "bmp"})
+    public String format;
+
+    @Param({"150x100", "400x300", "1920x1080"})
+    public String resolution;
+
+    private BufferedImage img;
+    private final EncoderSettings settings = new EncoderSettings();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        img = SyntheticImages.create(resolution);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return SyntheticImages.encode(img, format);
+    }
+
+    @Benchmark
+    public byte[] encodePooled() throws IOException {
+        return ImageEncoder.encode(img, format, settings);
+    }
+}
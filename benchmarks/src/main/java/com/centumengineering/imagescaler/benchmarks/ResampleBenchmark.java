@@ -0,0 +1,60 @@
+package com.centumengineering.imagescaler.benchmarks;
+
+import com.centumengineering.imagescaler.scaling.Resampler;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the resampling engines across reduction ratios and the source
+ * image types decoders return.
+ *
+ * @author Phani Gaddipati
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResampleBenchmark {
+
+    @Param({"scalr", "lanczos", "bicubic"})
+    public String engine;
+
+    @Param({"2", "4"})
+    public int ratio;
+
+    @Param({"1920x1080", "4000x3000"})
+    public String resolution;
+
+    @Param({"INT_RGB", "3BYTE_BGR", "INT_ARGB", "BYTE_INDEXED"})
+    public String imageType;
+
+    private BufferedImage src;
+    private Resampler resampler;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        src = SyntheticImages.create(resolution, ResizeBenchmark.toImageType(imageType));
+        resampler = Resampler.forName(engine);
+    }
+
+    @Benchmark
+    public BufferedImage resize() {
+        BufferedImage out = resampler.resize(src, src.getWidth() / ratio, src.getHeight() / ratio);
+        out.flush();
+        return out;
+    }
+}
@@ -0,0 +1,76 @@
+package com.centumengineering.imagescaler.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.imgscalr.Scalr;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures Scalr.resize across scaling methods, reduction ratios and source
+ * image types. Decoders return a variety of types, e.g. indexed images for
+ * GIFs, which take different Java2D paths.
+ *
+ * @author Phani Gaddipati
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResizeBenchmark {
+
+    @Param({"SPEED", "BALANCED", "QUALITY", "ULTRA_QUALITY"})
+    public String method;
+
+    @Param({"2", "4", "8"})
+    public int ratio;
+
+    @Param({"1920x1080", "4000x3000"})
+    public String resolution;
+
+    @Param({"INT_RGB", "3BYTE_BGR", "INT_ARGB", "BYTE_INDEXED"})
+    public String imageType;
+
+    private BufferedImage src;
+    private Scalr.Method scalrMethod;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        src = SyntheticImages.create(resolution, toImageType(imageType));
+        scalrMethod = Scalr.Method.valueOf(method);
+    }
+
+    @Benchmark
+    public BufferedImage resize() {
+        BufferedImage out = Scalr.resize(src, scalrMethod, src.getWidth() / ratio, src.getHeight() / ratio);
+        out.flush();
+        return out;
+    }
+
+    static int toImageType(String name) {
+        switch (name) {
+            case "INT_RGB":
+                return BufferedImage.TYPE_INT_RGB;
+            case "3BYTE_BGR":
+                return BufferedImage.TYPE_3BYTE_BGR;
+            case "INT_ARGB":
+                return BufferedImage.TYPE_INT_ARGB;
+            case "BYTE_INDEXED":
+                return BufferedImage.TYPE_BYTE_INDEXED;
+            default:
+                throw new IllegalArgumentException("Unknown image type " + name);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.centumengineering.imagescaler.benchmarks;
+
+import com.centumengineering.imagescaler.scaling.ScaleOptions;
+import com.centumengineering.imagescaler.scaling.ScaleResult;
+import com.centumengineering.imagescaler.scaling.ScaleTask;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures end-to-end ScaleTask throughput: decode, both resizes and both
+ * encodes including the disk writes. Each benchmark thread works on its own
+ * copy of the source and its own output directories, so running with more
+ * threads (JMH -t, or BenchmarkRunner) shows how throughput scales with
+ * cores.
+ *
+ * @author Phani Gaddipati
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScaleTaskBenchmark {
+
+    static final int THUMB_WIDTH = 150;
+    static final int FULL_WIDTH = 400;
+
+    @Param({"jpg", "png"})
+    public String format;
+
+    @Param({"1920x1080", "4000x3000"})
+    public String resolution;
+
+    @Param({"false", "true"})
+    public boolean cascade;
+
+    private File dir;
+    private ScaleTask task;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("scale-bench").toFile();
+        File source = SyntheticImages.write(SyntheticImages.create(resolution), format, dir, "source");
+        File thumbDir = new File(dir, "thumb");
+        File fullDir = new File(dir, "full");
+        thumbDir.mkdirs();
+        fullDir.mkdirs();
+        task = new ScaleTask(source, THUMB_WIDTH, FULL_WIDTH, thumbDir, fullDir,
+                new ScaleOptions().setCascade(cascade));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Benchmark
+    public ScaleResult run() {
+        return task.run();
+    }
+}
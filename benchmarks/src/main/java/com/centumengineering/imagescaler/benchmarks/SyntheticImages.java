@@ -0,0 +1,110 @@
+package com.centumengineering.imagescaler.benchmarks;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * Generates benchmark input images so the suite runs without any sample
+ * files or network access. The images mix smooth gradients, hard edges and
+ * noise so that codecs and filters do representative work.
+ *
+ * @author Phani Gaddipati
+ */
+public class SyntheticImages {
+
+    private static final long SEED = 42;
+
+    private SyntheticImages() {
+    }
+
+    /**
+     * Creates an RGB image of the given resolution.
+     *
+     * @param resolution The resolution as WIDTHxHEIGHT, e.g. 1920x1080
+     * @return The generated image
+     */
+    public static BufferedImage create(String resolution) {
+        return create(resolution, BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Creates an image of the given resolution and BufferedImage type.
+     *
+     * @param resolution The resolution as WIDTHxHEIGHT, e.g. 1920x1080
+     * @param type The BufferedImage type, e.g. BufferedImage.TYPE_INT_RGB
+     * @return The generated image
+     */
+    public static BufferedImage create(String resolution, int type) {
+        String[] dims = resolution.toLowerCase().split("x");
+        int w = Integer.parseInt(dims[0]);
+        int h = Integer.parseInt(dims[1]);
+        Random random = new Random(SEED);
+
+        BufferedImage img = new BufferedImage(w, h, type);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setPaint(new GradientPaint(0, 0, new Color(200, 40, 40), w, h, new Color(30, 60, 220)));
+        g.fillRect(0, 0, w, h);
+        g.setStroke(new BasicStroke(Math.max(1, w / 400f)));
+        for (int i = 0; i < 200; i++) {
+            g.setColor(new Color(random.nextInt(0xFFFFFF)));
+            int x = random.nextInt(w);
+            int y = random.nextInt(h);
+            if (i % 2 == 0) {
+                g.drawLine(x, y, random.nextInt(w), random.nextInt(h));
+            } else {
+                g.fillOval(x, y, random.nextInt(w / 8 + 1), random.nextInt(h / 8 + 1));
+            }
+        }
+        g.dispose();
+
+        // Sprinkle some noise so the image isn't trivially compressible
+        for (int i = 0; i < w * h / 50; i++) {
+            img.setRGB(random.nextInt(w), random.nextInt(h), random.nextInt(0xFFFFFF));
+        }
+        return img;
+    }
+
+    /**
+     * Encodes the image in the given format.
+     *
+     * @param img The image
+     * @param format The format name, e.g. jpg
+     * @return The encoded bytes
+     * @throws IOException
+     */
+    public static byte[] encode(BufferedImage img, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(img, format, out)) {
+            throw new IOException("No writer for " + format);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the image to a file in the given directory.
+     *
+     * @param img The image
+     * @param format The format name, also used as the extension
+     * @param dir The directory to write to
+     * @param name The file name without extension
+     * @return The written file
+     * @throws IOException
+     */
+    public static File write(BufferedImage img, String format, File dir, String name) throws IOException {
+        File file = new File(dir, name + "." + format);
+        if (!ImageIO.write(img, format, file)) {
+            throw new IOException("No writer for " + format);
+        }
+        return file;
+    }
+}
@@ -1,5 +1,8 @@
 package com.centumengineering.imagescaler;
 
+import com.centumengineering.imagescaler.scaling.ScaleOptions;
+import com.centumengineering.imagescaler.utils.DownloadCache;
+import com.centumengineering.imagescaler.utils.ProcessingManifest;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 
@@ -12,11 +15,30 @@ import org.apache.commons.cli.Options;
 public class CLIOptions {
 
     public static final String OPTION_IN_FILE = "in-file";
-    public static final String OPTION_IN_FILE_NET = "online";    
+    public static final String OPTION_IN_FILE_NET = "online";
+
+    public static final String OPTION_CONNECTIONS = "connections";
+    public static final int DEFAULT_CONNECTIONS = 8;
+
+    public static final String OPTION_TIMEOUT = "timeout";
+    public static final int DEFAULT_TIMEOUT = 30;
+
+    public static final String OPTION_NET_CACHE = "net-cache";
+    public static final String OPTION_NET_CACHE_SIZE = "net-cache-size";
+    public static final int DEFAULT_NET_CACHE_SIZE = 1024;
+    public static final String OPTION_NET_CACHE_AGE = "net-cache-age";
+    public static final int DEFAULT_NET_CACHE_AGE = 30;
+    public static final String OPTION_NET_MEMORY = "net-memory";
 
     public static final String OPTION_IN_DIR = "in-dir";
     public static final String OPTION_DIR_RECURSIVE = "recursive";
 
+    public static final String OPTION_PROFILE = "profile";
+    public static final String OPTION_ENCODER = "encoder";
+    public static final String OPTION_PACK = "pack";
+    public static final String OPTION_DEDUP = "dedup";
+    public static final String OPTION_DEDUP_INDEX = "dedup-index";
+
     public static final String OPTION_THUMB_OUT = "thumb-out";
     public static final String OPTION_FULL_OUT = "full-out";    
 
@@ -26,6 +48,52 @@ public class CLIOptions {
     public static final String OPTION_FULL_WIDTH = "full-width";
     public static final int DEFAULT_FULL_WIDTH = 400;
 
+    public static final String OPTION_CASCADE = "cascade";
+    public static final String OPTION_CASCADE_MIN_RATIO = "cascade-min-ratio";
+
+    public static final String OPTION_NO_SUBSAMPLE = "no-subsample";
+    public static final String OPTION_ENGINE = "engine";
+    public static final String DEFAULT_ENGINE = "scalr";
+    public static final String OPTION_EMBEDDED_THUMBNAILS = "embedded-thumbnails";
+
+    public static final String OPTION_STREAM_THRESHOLD = "stream-threshold";
+
+    public static final String OPTION_MEMORY_BUDGET = "memory-budget";
+    public static final int DEFAULT_MEMORY_BUDGET = (int) (Runtime.getRuntime().maxMemory() / 2 / (1024 * 1024));
+    public static final String OPTION_POOL_SIZE = "pool-size";
+    public static final int DEFAULT_POOL_SIZE = (int) (Runtime.getRuntime().maxMemory() / 8 / (1024 * 1024));
+
+    public static final String OPTION_INCREMENTAL = "incremental";
+    public static final String OPTION_MANIFEST = "manifest";
+    public static final String OPTION_MANIFEST_HASH = "manifest-hash";
+
+    public static final String OPTION_REPORT = "report";
+    public static final String OPTION_PROGRESS = "progress";
+    public static final String OPTION_QUIET = "quiet";
+
+    public static final String OPTION_SHARD = "shard";
+    public static final String OPTION_WORK_QUEUE = "work-queue";
+    public static final String OPTION_BATCH_SIZE = "batch-size";
+    public static final int DEFAULT_BATCH_SIZE = 16;
+    public static final String OPTION_MERGE_REPORTS = "merge-reports";
+    public static final String METRICS_EXTENSION = ".metrics";
+
+    public static final String OPTION_SERVER = "server";
+    public static final String OPTION_CACHE_SIZE = "cache-size";
+    public static final int DEFAULT_CACHE_SIZE = 64;
+
+    public static final String OPTION_THREADS = "threads";
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+    public static final String OPTION_QUEUE_DEPTH = "queue-depth";
+    public static final int DEFAULT_QUEUE_DEPTH = 2 * DEFAULT_THREADS;
+
+    public static final String OPTION_ORDER = "order";
+    public static final String DEFAULT_ORDER = "input";
+    public static final String OPTION_ORDER_WINDOW = "order-window";
+    public static final int DEFAULT_ORDER_WINDOW = 1000;
+    public static final String OPTION_SPLIT = "split";
+
     public static Options createImageScalerOptions() {
         Options options = new Options();
 
@@ -54,7 +122,7 @@ public class CLIOptions {
                 .desc("File containing paths of images to process, separated by newline."
                         + " By default, the paths will be treated as local paths."
                         + " Use the --" + OPTION_IN_FILE_NET
-                        + " switch if the paths are to be downloaded to the working directory first."
+                        + " switch if the paths are to be downloaded to the download cache first."
                         + " Only this or " + OPTION_IN_DIR + " should be provided, not both.")
                 .hasArg()
                 .numberOfArgs(1)
@@ -63,7 +131,8 @@ public class CLIOptions {
 
         options.addOption(Option.builder("d")
                 .longOpt(OPTION_IN_DIR)
-                .desc("Directory containing images to process. "
+                .desc("Directory, or ZIP or TAR archive, containing images to process. Archives are read"
+                        + " without unpacking them, and every image in them is processed. "
                         + " Only this or " + OPTION_IN_FILE + " should be provided, not both.")
                 .hasArg()
                 .numberOfArgs(1)
@@ -82,12 +151,317 @@ public class CLIOptions {
                 .required(false)
                 .build());
 
+        options.addOption(Option.builder("c")
+                .longOpt(OPTION_CASCADE)
+                .desc("Scale the largest output from the original image, and derive smaller"
+                        + " outputs from it rather than from the original. Default is false.")
+                .required(false)
+                .build());
+
+        options.addOption(Option.builder("cr")
+                .longOpt(OPTION_CASCADE_MIN_RATIO)
+                .desc("When using --" + OPTION_CASCADE + ", the smallest width ratio between"
+                        + " outputs for the smaller one to be derived from the larger one."
+                        + " Outputs closer in size are scaled from the original. Default: "
+                        + ScaleOptions.DEFAULT_MIN_CASCADE_RATIO)
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .type(Double.TYPE)
+                .build());
+
+        options.addOption(Option.builder("ns")
+                .longOpt(OPTION_NO_SUBSAMPLE)
+                .desc("Always decode every pixel of the source. By default, sources much larger"
+                        + " than the largest output are decoded with subsampling to save time and memory.")
+                .required(false)
+                .build());
+
+        options.addOption(Option.builder("en")
+                .longOpt(OPTION_ENGINE)
+                .desc("The resampling engine: scalr (Java2D), or lanczos or bicubic, which filter packed"
+                        + " pixels directly and split the rows of large images across threads."
+                        + " Default: " + DEFAULT_ENGINE)
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .build());
+
+        options.addOption(Option.builder("et")
+                .longOpt(OPTION_EMBEDDED_THUMBNAILS)
+                .desc("Scale outputs from the thumbnail embedded in a source, such as the EXIF thumbnail of"
+                        + " a camera JPEG, when it is at least as large as the output and has the same aspect"
+                        + " ratio. The image itself is only decoded for the outputs the thumbnail is too"
+                        + " small for.")
+                .required(false)
+                .build());
+
+        options.addOption(Option.builder("inc")
+                .longOpt(OPTION_INCREMENTAL)
+                .desc("Skip files that were already scaled with the same outputs and are unchanged"
+                        + " since, as recorded in a manifest. Default is false.")
+                .required(false)
+                .build());
+
+        options.addOption(Option.builder("m")
+                .longOpt(OPTION_MANIFEST)
+                .desc("When using --" + OPTION_INCREMENTAL + ", the manifest file to use. Default: "
+                        + ProcessingManifest.DEFAULT_FILE_NAME + " in the first output directory, the thumbnail directory if given")
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .build());
+
+        options.addOption(Option.builder("mh")
+                .longOpt(OPTION_MANIFEST_HASH)
+                .desc("When using --" + OPTION_INCREMENTAL + ", also record a hash of each file's contents"
+                        + " so files that were touched but not changed are still skipped.")
+                .required(false)
+                .build());
+
+        options.addOption(Option.builder("rp")
+                .longOpt(OPTION_REPORT)
+                .desc("File to write a report of the run to, with throughput, per-stage latency"
+                        + " percentiles and peak heap use. Written as CSV if the file ends in .csv,"
+                        + " otherwise JSON.")
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .build());
+
+        options.addOption(Option.builder("pg")
+                .longOpt(OPTION_PROGRESS)
+                .desc("Print a progress snapshot every given number of seconds. Snapshots are"
+                        + " also included in the --" + OPTION_REPORT + ". Default is none.")
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .type(Integer.TYPE)
+                .build());
+
+        options.addOption(Option.builder("sh")
+                .longOpt(OPTION_SHARD)
+                .desc("Only process shard i of N of the inputs, given as i/N with i from 0, e.g. 0/4."
+                        + " Inputs are assigned by a hash of their path relative to the --" + OPTION_IN_DIR
+                        + " or their line in the --" + OPTION_IN_FILE + ", so N processes given the same"
+                        + " inputs split them without overlap. The --" + OPTION_REPORT + " is also saved"
+                        + " as a " + METRICS_EXTENSION + " file for --" + OPTION_MERGE_REPORTS + ".")
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .build());
+
+        options.addOption(Option.builder("wq")
+                .longOpt(OPTION_WORK_QUEUE)
+                .desc("A queue file shared by several worker processes. The first worker fills it with"
+                        + " the inputs, then every worker claims --" + OPTION_BATCH_SIZE + " inputs at a"
+                        + " time until it is empty, so faster workers process more. The --" + OPTION_REPORT
+                        + " is also saved as a " + METRICS_EXTENSION + " file for --" + OPTION_MERGE_REPORTS + ".")
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .build());
+
+        options.addOption(Option.builder("bs")
+                .longOpt(OPTION_BATCH_SIZE)
+                .desc("The number of inputs claimed at a time from the --" + OPTION_WORK_QUEUE
+                        + ". Default: " + DEFAULT_BATCH_SIZE)
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .type(Integer.TYPE)
+                .build());
+
+        options.addOption(Option.builder("mr")
+                .longOpt(OPTION_MERGE_REPORTS)
+                .desc("Instead of processing, merge the " + METRICS_EXTENSION + " files saved by shards or"
+                        + " workers, given as the remaining arguments, into one report written to the given"
+                        + " file, e.g. --" + OPTION_MERGE_REPORTS + " all.json r0.json" + METRICS_EXTENSION
+                        + " r1.json" + METRICS_EXTENSION + ".")
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .build());
+
+        options.addOption(Option.builder("sv")
+                .longOpt(OPTION_SERVER)
+                .desc("Instead of processing a batch, serve resize requests on the given local port,"
+                        + " e.g. GET /resize?src=a.jpg&width=300&format=png. src is a path in the --"
+                        + OPTION_IN_DIR + " (default: the working directory) or an http(s) url. Optional"
+                        + " height, format and quality are also accepted. GET /stats returns counters.")
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .type(Integer.TYPE)
+                .build());
+
+        options.addOption(Option.builder("cs")
+                .longOpt(OPTION_CACHE_SIZE)
+                .desc("When using --" + OPTION_SERVER + ", the megabytes of rendered outputs to keep"
+                        + " in memory. Default: " + DEFAULT_CACHE_SIZE)
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .type(Integer.TYPE)
+                .build());
+
+        options.addOption(Option.builder("qt")
+                .longOpt(OPTION_QUIET)
+                .desc("Don't print a summary line for every processed file.")
+                .required(false)
+                .build());
+
+        options.addOption(Option.builder("w")
+                .longOpt(OPTION_THREADS)
+                .desc("The number of worker threads used for scaling. Default: "
+                        + DEFAULT_THREADS + " (available processors)")
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .type(Integer.TYPE)
+                .build());
+
+        options.addOption(Option.builder("st")
+                .longOpt(OPTION_STREAM_THRESHOLD)
+                .desc("The size in megapixels, after any subsampling, above which an image is decoded"
+                        + " and downscaled in strips instead of being decoded whole, so memory depends"
+                        + " on its width rather than its area. 0 to never stream. Default: "
+                        + ScaleOptions.DEFAULT_STREAM_THRESHOLD / 1000000)
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .type(Integer.TYPE)
+                .build());
+
+        options.addOption(Option.builder("mb")
+                .longOpt(OPTION_MEMORY_BUDGET)
+                .desc("The megabytes decoded images may take at once, estimated from each image's"
+                        + " header before it is decoded. Images wait until they fit, and an image larger"
+                        + " than the whole budget runs alone, decoded with as much subsampling as its"
+                        + " outputs allow. Default: " + DEFAULT_MEMORY_BUDGET + " (half the maximum heap)")
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .type(Integer.TYPE)
+                .build());
+
+        options.addOption(Option.builder("ps")
+                .longOpt(OPTION_POOL_SIZE)
+                .desc("The memory in megabytes the workers keep in images they are done with, so later"
+                        + " decodes and resizes of the same size reuse them instead of allocating. On top of"
+                        + " the --" + OPTION_MEMORY_BUDGET + ". 0 to not reuse images. Default: "
+                        + DEFAULT_POOL_SIZE + " (1/8 of the max heap)")
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .type(Integer.TYPE)
+                .build());
+
+        options.addOption(Option.builder("q")
+                .longOpt(OPTION_QUEUE_DEPTH)
+                .desc("The number of files that may wait for a free worker before"
+                        + " reading further input blocks. Bounds how many images are in memory at once."
+                        + " Default: " + DEFAULT_QUEUE_DEPTH)
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .type(Integer.TYPE)
+                .build());
+
+        options.addOption(Option.builder("or")
+                .longOpt(OPTION_ORDER)
+                .desc("The order files are scaled in: input, or largest first by file size (size) or by"
+                        + " the pixel count in the image header (pixels), so the largest images don't"
+                        + " finish last on a single core. Default: " + DEFAULT_ORDER)
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .build());
+
+        options.addOption(Option.builder("ow")
+                .longOpt(OPTION_ORDER_WINDOW)
+                .desc("When using --" + OPTION_ORDER + ", the number of files read ahead and ordered at"
+                        + " a time. Default: " + DEFAULT_ORDER_WINDOW)
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .type(Integer.TYPE)
+                .build());
+
+        options.addOption(Option.builder("sp")
+                .longOpt(OPTION_SPLIT)
+                .desc("The size in megapixels from which the outputs of an image are produced in"
+                        + " parallel on several workers instead of one after another. Default is to"
+                        + " never split.")
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .type(Integer.TYPE)
+                .build());
+
+        options.addOption(Option.builder("n")
+                .longOpt(OPTION_CONNECTIONS)
+                .desc("When using --" + OPTION_IN_FILE_NET + ", the number of concurrent downloads."
+                        + " Files are scaled as soon as they are downloaded. Default: " + DEFAULT_CONNECTIONS)
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .type(Integer.TYPE)
+                .build());
+
+        options.addOption(Option.builder("tm")
+                .longOpt(OPTION_TIMEOUT)
+                .desc("When using --" + OPTION_IN_FILE_NET + ", the connect and read timeout in seconds"
+                        + " of each download, 0 for none. Default: " + DEFAULT_TIMEOUT + "s")
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .type(Integer.TYPE)
+                .build());
+
+        options.addOption(Option.builder("nc")
+                .longOpt(OPTION_NET_CACHE)
+                .desc("When using --" + OPTION_IN_FILE_NET + ", the directory to cache downloads in, keyed by"
+                        + " url. Cached files are revalidated with the server on later runs and only"
+                        + " downloaded again if they changed. Default: " + DownloadCache.DEFAULT_DIR)
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .build());
+
+        options.addOption(Option.builder("ncs")
+                .longOpt(OPTION_NET_CACHE_SIZE)
+                .desc("The megabytes of downloads to keep in the download cache, evicting the least"
+                        + " recently used first, 0 for no limit. Default: " + DEFAULT_NET_CACHE_SIZE)
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .type(Integer.TYPE)
+                .build());
+
+        options.addOption(Option.builder("nca")
+                .longOpt(OPTION_NET_CACHE_AGE)
+                .desc("The days to keep a download in the download cache after it was last used, 0 for"
+                        + " no limit. Default: " + DEFAULT_NET_CACHE_AGE)
+                .required(false)
+                .hasArg()
+                .numberOfArgs(1)
+                .type(Integer.TYPE)
+                .build());
+
+        options.addOption(Option.builder("nm")
+                .longOpt(OPTION_NET_MEMORY)
+                .desc("When using --" + OPTION_IN_FILE_NET + ", download into memory and scale from there,"
+                        + " without writing the downloads to disk or using the download cache.")
+                .required(false)
+                .build());
+
         options.addOption(Option.builder("to")
                 .longOpt(OPTION_THUMB_OUT)
                 .desc("Directory to write the thumbnails")
                 .hasArg()
                 .numberOfArgs(1)
-                .required(true)
+                .required(false)
                 .build());
 
         options.addOption(Option.builder("fo")
@@ -95,7 +469,58 @@ public class CLIOptions {
                 .desc("Directory to write the full images")
                 .hasArg()
                 .numberOfArgs(1)
-                .required(true)
+                .required(false)
+                .build());
+
+        options.addOption(Option.builder("p")
+                .longOpt(OPTION_PROFILE)
+                .desc("An additional output to produce from every image, as comma separated"
+                        + " key=value pairs: name, size (a width, or WIDTHxHEIGHT to fit in a box),"
+                        + " out (the output directory), and optionally format and the --" + OPTION_ENCODER
+                        + " settings. E.g. name=small,size=128,out=small or"
+                        + " size=1600x1200,out=large,format=jpg,quality=0.85."
+                        + " May be given multiple times. Every output is produced from a single decode.")
+                .hasArg()
+                .numberOfArgs(1)
+                .required(false)
+                .build());
+
+        options.addOption(Option.builder("e")
+                .longOpt(OPTION_ENCODER)
+                .desc("Default encoder settings for every output, as comma separated key=value pairs:"
+                        + " quality (0 to 1, for lossy formats such as JPEG), progressive (true or false)"
+                        + " and compression (0 fastest to 9 smallest, for lossless formats such as PNG)."
+                        + " E.g. quality=0.85,progressive=true. Settings given in a --" + OPTION_PROFILE
+                        + " take precedence.")
+                .hasArg()
+                .numberOfArgs(1)
+                .required(false)
+                .build());
+
+        options.addOption(Option.builder("pk")
+                .longOpt(OPTION_PACK)
+                .desc("Append the outputs to a pack in each output directory, a few large segment files"
+                        + " and an index, instead of writing a file per output. Default is false.")
+                .required(false)
+                .build());
+
+        options.addOption(Option.builder("dd")
+                .longOpt(OPTION_DEDUP)
+                .desc("Hash every input before decoding it and scale byte-identical inputs only once. Later"
+                        + " copies get the outputs of the first as hard links (link) or copies (copy),"
+                        + " or as aliases in the pack with --" + OPTION_PACK + ".")
+                .hasArg()
+                .numberOfArgs(1)
+                .required(false)
+                .build());
+
+        options.addOption(Option.builder("di")
+                .longOpt(OPTION_DEDUP_INDEX)
+                .desc("When using --" + OPTION_DEDUP + ", a file to keep the hashes of scaled inputs in, so"
+                        + " inputs identical to those of earlier runs are also reused.")
+                .hasArg()
+                .numberOfArgs(1)
+                .required(false)
                 .build());
 
         return options;
@@ -1,23 +1,61 @@
 package com.centumengineering.imagescaler;
 
+import com.centumengineering.imagescaler.metrics.ProgressMonitor;
+import com.centumengineering.imagescaler.pack.PackSink;
+import com.centumengineering.imagescaler.metrics.RunMetrics;
+import com.centumengineering.imagescaler.metrics.RunReport;
+import com.centumengineering.imagescaler.scaling.EncoderSettings;
+import com.centumengineering.imagescaler.scaling.ImagePool;
+import com.centumengineering.imagescaler.scaling.ImageSource;
+import com.centumengineering.imagescaler.scaling.LargestFirstQueue;
+import com.centumengineering.imagescaler.scaling.MemoryBudget;
+import com.centumengineering.imagescaler.scaling.OutputProfile;
+import com.centumengineering.imagescaler.scaling.OutputSink;
+import com.centumengineering.imagescaler.scaling.Resampler;
+import com.centumengineering.imagescaler.scaling.ScaleExecutor;
+import com.centumengineering.imagescaler.scaling.ScaleOptions;
 import com.centumengineering.imagescaler.scaling.ScaleResult;
 import com.centumengineering.imagescaler.scaling.ScaleTask;
+import com.centumengineering.imagescaler.server.ResizeServer;
+import com.centumengineering.imagescaler.utils.ArchiveReader;
+import com.centumengineering.imagescaler.utils.DedupIndex;
+import com.centumengineering.imagescaler.utils.Deduplicator;
+import com.centumengineering.imagescaler.utils.DownloadCache;
 import com.centumengineering.imagescaler.utils.NetworkUtils;
+import com.centumengineering.imagescaler.utils.ProcessingManifest;
+import com.centumengineering.imagescaler.utils.Shard;
+import com.centumengineering.imagescaler.utils.WorkQueue;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.LinkedList;
+import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
-import org.apache.commons.io.FileUtils;
 
 /**
  * A simple utility class to scale images. This utility reads images, either
@@ -44,29 +82,51 @@ public class ImageScaler {
             try {
                 CommandLine opts = parser.parse(CLI_OPTIONS, args);
                 // Succesfully parsed args, do some extra arg validation
-                if (validateArgs(opts)) {
+                if (opts.hasOption(CLIOptions.OPTION_MERGE_REPORTS)) {
+                    mergeReports(opts);
+                } else if (opts.hasOption(CLIOptions.OPTION_SERVER)) {
+                    if (validateServerArgs(opts)) {
+                        runServer(opts);
+                    }
+                } else if (validateArgs(opts)) {
                     // We can start the processing. Get all of the params from the
                     // CLI args and start
-                    int thumbW = CLIOptions.DEFAULT_THUMB_WIDTH;
-                    if (opts.hasOption(CLIOptions.OPTION_THUMB_WIDTH)) {
-                        thumbW = Integer.parseInt(opts.getOptionValue(CLIOptions.OPTION_THUMB_WIDTH));
-                    }
-                    int fullW = CLIOptions.DEFAULT_FULL_WIDTH;
-                    if (opts.hasOption(CLIOptions.OPTION_FULL_WIDTH)) {
-                        fullW = Integer.parseInt(opts.getOptionValue(CLIOptions.OPTION_FULL_WIDTH));
-                    }
+                    List<OutputProfile> profiles = getProfiles(opts);
+                    int threads = getIntOption(opts, CLIOptions.OPTION_THREADS, CLIOptions.DEFAULT_THREADS);
+                    int queueDepth = getIntOption(opts, CLIOptions.OPTION_QUEUE_DEPTH, CLIOptions.DEFAULT_QUEUE_DEPTH);
+                    ScaleOptions scaleOptions = getScaleOptions(opts);
+                    ImagePool.setCapacity(getPoolCapacity(opts));
 
-                    File thumbFile = new File(opts.getOptionValue(CLIOptions.OPTION_THUMB_OUT));
-                    File fullFile = new File(opts.getOptionValue(CLIOptions.OPTION_FULL_OUT));
-                    File[] files = getFilesToProcess(opts);
+                    // Downloaded files stay cached until every task that may
+                    // read them has finished
+                    try (DownloadCache downloads = openDownloadCache(opts)) {
+                        SourceProducer files = getFilesToProcess(opts, downloads);
 
-                    if (files == null || files.length == 0) {
-                        System.out.println("No files to process.");
-                    } else {
-                        try {                            
-                            processFiles(files, thumbW, fullW, thumbFile, fullFile);
-                        } catch (ExecutionException | InterruptedException ex) {
-                            System.out.println("Processing was interrupted! " + ex.getMessage());
+                        if (files != null) {
+                            files = inOrder(files, opts);
+                            RunMetrics metrics = new RunMetrics(scaleOptions.getMemoryBudget());
+                            ProgressMonitor monitor = new ProgressMonitor(metrics,
+                                    getIntOption(opts, CLIOptions.OPTION_PROGRESS, 0));
+                            try (PackSink packs = opts.hasOption(CLIOptions.OPTION_PACK)
+                                    ? new PackSink(profiles) : null;
+                                    ProcessingManifest manifest = openManifest(opts, profiles.get(0).getOutputDir());
+                                    DedupIndex dedupIndex = openDedupIndex(opts)) {
+                                monitor.start();
+                                Deduplicator.Mode dedupMode = dedupIndex == null ? null
+                                        : Deduplicator.Mode.valueOf(opts.getOptionValue(CLIOptions.OPTION_DEDUP)
+                                                .toUpperCase(Locale.ROOT));
+                                processFiles(files, profiles, scaleOptions, threads, queueDepth, manifest, packs,
+                                        dedupIndex, dedupMode, metrics, opts.hasOption(CLIOptions.OPTION_QUIET));
+                            } catch (InterruptedException ex) {
+                                System.out.println("Processing was interrupted! " + ex.getMessage());
+                            } catch (IOException ex) {
+                                System.err.println("Failed to use the manifest, the packs or the dedup index. "
+                                        + ex.getMessage());
+                            } finally {
+                                monitor.close();
+                            }
+                            metrics.finish();
+                            writeReport(opts, metrics);
                         }
                     }
                 }
@@ -78,109 +138,651 @@ public class ImageScaler {
         }
     }
 
+    /**
+     * Runs the resize server until the process is stopped.
+     *
+     * @param opts The CLI arguments
+     */
+    private void runServer(CommandLine opts) {
+        int port = getIntOption(opts, CLIOptions.OPTION_SERVER, 0);
+        int threads = getIntOption(opts, CLIOptions.OPTION_THREADS, CLIOptions.DEFAULT_THREADS);
+        int queueDepth = getIntOption(opts, CLIOptions.OPTION_QUEUE_DEPTH, CLIOptions.DEFAULT_QUEUE_DEPTH);
+        long cacheBytes = 1024L * 1024L * getIntOption(opts, CLIOptions.OPTION_CACHE_SIZE, CLIOptions.DEFAULT_CACHE_SIZE);
+        int timeout = getIntOption(opts, CLIOptions.OPTION_TIMEOUT, CLIOptions.DEFAULT_TIMEOUT);
+        File root = new File(opts.hasOption(CLIOptions.OPTION_IN_DIR)
+                ? opts.getOptionValue(CLIOptions.OPTION_IN_DIR) : ".");
+        ScaleOptions scaleOptions = getScaleOptions(opts);
+        ImagePool.setCapacity(getPoolCapacity(opts));
+        RunMetrics metrics = new RunMetrics(scaleOptions.getMemoryBudget());
+
+        ResizeServer server;
+        try {
+            server = new ResizeServer(port, root, scaleOptions, threads, queueDepth,
+                    cacheBytes, timeout * 1000, metrics);
+        } catch (IOException ex) {
+            System.err.println("Failed to start the server. " + ex.getMessage());
+            return;
+        }
+        // Only the shutdown hook closes the server, as the JVM doesn't wait
+        // for this thread once it is shutting down
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            stopped.countDown();
+        }));
+        server.start();
+        System.out.println("Serving " + root.getAbsolutePath() + " on http://"
+                + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getPort()
+                + "/resize?src=...&width=...");
+        System.out.println("Workers: " + threads + ", Queue Depth: " + queueDepth
+                + ", Cache: " + cacheBytes / (1024 * 1024) + " MB"
+                + ", Image Pool: " + ImagePool.getCapacity() / (1024 * 1024) + " MB");
+        try {
+            stopped.await();
+        } catch (InterruptedException ex) {
+            System.out.println("Server was interrupted! " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Gets the capacity of the image pools from the arguments.
+     *
+     * @param opts The parsed arguments
+     * @return The capacity in bytes, 0 to not pool images
+     */
+    private long getPoolCapacity(CommandLine opts) {
+        return 1024L * 1024L * getIntOption(opts, CLIOptions.OPTION_POOL_SIZE, CLIOptions.DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Merges the metrics saved by several shards or workers into one report.
+     *
+     * @param opts The CLI arguments, whose remaining arguments are the saved
+     * metrics
+     */
+    private void mergeReports(CommandLine opts) {
+        if (opts.getArgList().isEmpty()) {
+            System.err.println("No " + CLIOptions.METRICS_EXTENSION + " files were given to merge.");
+            return;
+        }
+        List<RunMetrics> runs = new ArrayList<>();
+        for (String path : opts.getArgList()) {
+            // Accept the report itself as well as its saved metrics
+            File file = new File(path.endsWith(CLIOptions.METRICS_EXTENSION)
+                    ? path : path + CLIOptions.METRICS_EXTENSION);
+            try {
+                runs.add(RunMetrics.readState(file));
+            } catch (IOException ex) {
+                System.err.println("Failed to read " + file.getPath() + ". " + ex.getMessage());
+                return;
+            }
+        }
+        RunMetrics merged = RunMetrics.merge(runs);
+        System.out.println("Merged " + runs.size() + " reports");
+        RunReport.printSummary(merged, System.out);
+        File reportFile = new File(opts.getOptionValue(CLIOptions.OPTION_MERGE_REPORTS));
+        try {
+            RunReport.write(merged, reportFile);
+            System.out.println("Wrote report to " + reportFile.getAbsolutePath());
+        } catch (IOException ex) {
+            System.err.println("Failed to write the report. " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Prints the summary of the run and writes the report file if one was
+     * requested. Shards and work queue workers also save their metrics next
+     * to the report, to be merged with the other processes of the job.
+     *
+     * @param opts The CLI arguments
+     * @param metrics The metrics of the run
+     */
+    private void writeReport(CommandLine opts, RunMetrics metrics) {
+        System.out.println();
+        RunReport.printSummary(metrics, System.out);
+        if (opts.hasOption(CLIOptions.OPTION_REPORT)) {
+            File reportFile = new File(opts.getOptionValue(CLIOptions.OPTION_REPORT));
+            try {
+                RunReport.write(metrics, reportFile);
+                System.out.println("Wrote report to " + reportFile.getAbsolutePath());
+                if (opts.hasOption(CLIOptions.OPTION_SHARD) || opts.hasOption(CLIOptions.OPTION_WORK_QUEUE)) {
+                    File metricsFile = new File(reportFile.getPath() + CLIOptions.METRICS_EXTENSION);
+                    metrics.writeState(metricsFile);
+                    System.out.println("Saved metrics to " + metricsFile.getAbsolutePath());
+                }
+            } catch (IOException ex) {
+                System.err.println("Failed to write the report. " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Builds the list of outputs from the CLI args: the thumbnail and
+     * full-size outputs if their directories were given, followed by every
+     * --profile, each with the --encoder settings as defaults.
+     *
+     * @param opts The CLI arguments
+     * @return The output profiles
+     * @throws IllegalArgumentException If a profile is invalid
+     */
+    private List<OutputProfile> getProfiles(CommandLine opts) {
+        List<OutputProfile> profiles = new ArrayList<>();
+        if (opts.hasOption(CLIOptions.OPTION_THUMB_OUT)) {
+            profiles.add(new OutputProfile("thumb",
+                    getIntOption(opts, CLIOptions.OPTION_THUMB_WIDTH, CLIOptions.DEFAULT_THUMB_WIDTH),
+                    new File(opts.getOptionValue(CLIOptions.OPTION_THUMB_OUT))));
+        }
+        if (opts.hasOption(CLIOptions.OPTION_FULL_OUT)) {
+            profiles.add(new OutputProfile("full",
+                    getIntOption(opts, CLIOptions.OPTION_FULL_WIDTH, CLIOptions.DEFAULT_FULL_WIDTH),
+                    new File(opts.getOptionValue(CLIOptions.OPTION_FULL_OUT))));
+        }
+        if (opts.hasOption(CLIOptions.OPTION_PROFILE)) {
+            for (String spec : opts.getOptionValues(CLIOptions.OPTION_PROFILE)) {
+                profiles.add(OutputProfile.parse(spec));
+            }
+        }
+        if (opts.hasOption(CLIOptions.OPTION_ENCODER)) {
+            EncoderSettings defaults = EncoderSettings.parse(opts.getOptionValue(CLIOptions.OPTION_ENCODER));
+            for (int i = 0; i < profiles.size(); i++) {
+                profiles.set(i, profiles.get(i).withEncoderDefaults(defaults));
+            }
+        }
+        return profiles;
+    }
+
+    /**
+     * Builds the scaling options from the CLI args.
+     *
+     * @param opts The CLI arguments
+     * @return The scaling options
+     */
+    private ScaleOptions getScaleOptions(CommandLine opts) {
+        ScaleOptions scaleOptions = new ScaleOptions()
+                .setCascade(opts.hasOption(CLIOptions.OPTION_CASCADE))
+                .setSubsample(!opts.hasOption(CLIOptions.OPTION_NO_SUBSAMPLE))
+                .setEmbeddedThumbnails(opts.hasOption(CLIOptions.OPTION_EMBEDDED_THUMBNAILS))
+                .setResampler(Resampler.forName(opts.getOptionValue(CLIOptions.OPTION_ENGINE,
+                        CLIOptions.DEFAULT_ENGINE)))
+                .setMemoryBudget(new MemoryBudget(1024L * 1024L
+                        * getIntOption(opts, CLIOptions.OPTION_MEMORY_BUDGET, CLIOptions.DEFAULT_MEMORY_BUDGET)));
+        if (opts.hasOption(CLIOptions.OPTION_STREAM_THRESHOLD)) {
+            scaleOptions.setStreamThreshold(1000000L * getIntOption(opts, CLIOptions.OPTION_STREAM_THRESHOLD, 0));
+        }
+        if (opts.hasOption(CLIOptions.OPTION_SPLIT)) {
+            scaleOptions.setSplitThreshold(1000000L * getIntOption(opts, CLIOptions.OPTION_SPLIT, 0));
+        }
+        if (opts.hasOption(CLIOptions.OPTION_CASCADE_MIN_RATIO)) {
+            scaleOptions.setMinCascadeRatio(Double.parseDouble(opts.getOptionValue(CLIOptions.OPTION_CASCADE_MIN_RATIO)));
+        }
+        return scaleOptions;
+    }
+
+    /**
+     * Opens the processing manifest if running incrementally.
+     *
+     * @param opts The CLI arguments
+     * @param outputDir The first output directory, which holds the manifest
+     * by default
+     * @return The manifest, or null if not running incrementally
+     * @throws IOException If the manifest can't be opened
+     */
+    private ProcessingManifest openManifest(CommandLine opts, File outputDir) throws IOException {
+        if (!opts.hasOption(CLIOptions.OPTION_INCREMENTAL)) {
+            return null;
+        }
+        File manifestFile = opts.hasOption(CLIOptions.OPTION_MANIFEST)
+                ? new File(opts.getOptionValue(CLIOptions.OPTION_MANIFEST))
+                : new File(outputDir, ProcessingManifest.DEFAULT_FILE_NAME);
+        ProcessingManifest manifest = new ProcessingManifest(manifestFile,
+                opts.hasOption(CLIOptions.OPTION_MANIFEST_HASH));
+        System.out.println("Using manifest " + manifestFile.getAbsolutePath()
+                + " with " + manifest.size() + " entries");
+        return manifest;
+    }
+
+    /**
+     * Opens the index of scaled inputs if deduplicating.
+     *
+     * @param opts The CLI arguments
+     * @return The index, persisted if --dedup-index was given, or null if not
+     * deduplicating
+     * @throws IOException If the index can't be opened
+     */
+    private DedupIndex openDedupIndex(CommandLine opts) throws IOException {
+        if (!opts.hasOption(CLIOptions.OPTION_DEDUP)) {
+            return null;
+        }
+        if (!opts.hasOption(CLIOptions.OPTION_DEDUP_INDEX)) {
+            return new DedupIndex();
+        }
+        File indexFile = new File(opts.getOptionValue(CLIOptions.OPTION_DEDUP_INDEX));
+        DedupIndex index = new DedupIndex(indexFile);
+        System.out.println("Using dedup index " + indexFile.getAbsolutePath()
+                + " with " + index.size() + " entries");
+        return index;
+    }
+
     /**
      * Loads the list of files to process from the CLI args. If it is a
-     * directory, the files are enumerated. If it's a file, then the file is
-     * loaded and files downloaded if necessary.
+     * directory, the files are enumerated, and if it is an archive, its
+     * entries are read into memory. If it's a file, then the file is
+     * read and files downloaded if necessary. Either way, files are produced
+     * lazily as they are found or downloaded, so processing starts right away
+     * and nothing proportional to the number of files is held in memory.
+     *
+     * With --shard, only the inputs of the shard are produced. With
+     * --work-queue, the inputs are shared with the other workers through the
+     * queue and produced a claimed batch at a time.
      *
      * @param opts The CLI arguments
-     * @return An array of files to process
+     * @param downloads The cache to download online files into, or null to
+     * download them into memory
+     * @return A producer of the files to process, or null on error
      */
-    private File[] getFilesToProcess(CommandLine opts) {
+    private SourceProducer getFilesToProcess(CommandLine opts, DownloadCache downloads) {
+        Shard shard = opts.hasOption(CLIOptions.OPTION_SHARD)
+                ? Shard.parse(opts.getOptionValue(CLIOptions.OPTION_SHARD)) : null;
+        if (shard != null) {
+            System.out.println("Processing shard " + shard);
+        }
+        File queueFile = opts.hasOption(CLIOptions.OPTION_WORK_QUEUE)
+                ? new File(opts.getOptionValue(CLIOptions.OPTION_WORK_QUEUE)) : null;
+        int batchSize = getIntOption(opts, CLIOptions.OPTION_BATCH_SIZE, CLIOptions.DEFAULT_BATCH_SIZE);
+
         if (opts.hasOption(CLIOptions.OPTION_IN_FILE)) {
             // Load the list of files from the file
             File inFile = new File(opts.getOptionValue(CLIOptions.OPTION_IN_FILE));
-            boolean network = opts.hasOption(CLIOptions.OPTION_IN_FILE_NET);
-            return loadFilesFromFile(inFile, network);
+            if (!inFile.isFile()) {
+                System.err.println("Failed to open the provided input file");
+                return null;
+            }
+            if (opts.hasOption(CLIOptions.OPTION_IN_FILE_NET)) {
+                // The paths are network paths, download them concurrently
+                // and pass each on as soon as it arrives
+                int connections = getIntOption(opts, CLIOptions.OPTION_CONNECTIONS, CLIOptions.DEFAULT_CONNECTIONS);
+                int timeout = getIntOption(opts, CLIOptions.OPTION_TIMEOUT, CLIOptions.DEFAULT_TIMEOUT);
+                if (downloads == null) {
+                    // Decode straight from the downloaded bytes
+                    return sink -> {
+                        PathConsumer download = paths -> NetworkUtils.downloadFilesToMemory(paths, connections,
+                                timeout * 1000, sink);
+                        if (queueFile != null) {
+                            processQueue(queueFile, batchSize,
+                                    keys -> loadPathsFromFile(inFile, paths -> paths.forEach(keys)), download);
+                        } else {
+                            loadPathsFromFile(inFile, paths -> download.accept(inShard(paths, shard)));
+                        }
+                    };
+                }
+                return sink -> {
+                    PathConsumer download = paths -> NetworkUtils.downloadFilesByURLs(paths, downloads,
+                            connections, sink);
+                    if (queueFile != null) {
+                        processQueue(queueFile, batchSize,
+                                keys -> loadPathsFromFile(inFile, paths -> paths.forEach(keys)), download);
+                    } else {
+                        loadPathsFromFile(inFile, paths -> download.accept(inShard(paths, shard)));
+                    }
+                };
+            }
+            // Use the paths as local paths
+            return sink -> {
+                PathConsumer local = paths -> {
+                    Iterator<String> it = paths.iterator();
+                    while (it.hasNext()) {
+                        sink.accept(ImageSource.of(new File(it.next())));
+                    }
+                };
+                if (queueFile != null) {
+                    processQueue(queueFile, batchSize,
+                            keys -> loadPathsFromFile(inFile, paths -> paths.forEach(keys)), local);
+                } else {
+                    loadPathsFromFile(inFile, paths -> local.accept(inShard(paths, shard)));
+                }
+            };
         } else {
             File imgDir = new File(opts.getOptionValue(CLIOptions.OPTION_IN_DIR));
+            if (imgDir.isFile() && ArchiveReader.isArchive(imgDir)) {
+                return getArchiveEntries(imgDir, shard, queueFile, batchSize);
+            }
+            if (!imgDir.isDirectory()) {
+                System.err.println("Failed to enumerate the input directory");
+                return null;
+            }
             boolean recursive = opts.hasOption(CLIOptions.OPTION_DIR_RECURSIVE);
-            return loadFilesFromDir(imgDir, recursive);
+            if (queueFile != null) {
+                return sink -> processQueue(queueFile, batchSize,
+                        keys -> loadFilesFromDir(imgDir, recursive, f -> keys.accept(getInputKey(imgDir, f))),
+                        keys -> keys.forEach(key -> sink.accept(ImageSource.of(new File(imgDir, key)))));
+            }
+            return sink -> loadFilesFromDir(imgDir, recursive, f -> {
+                if (shard == null || shard.contains(getInputKey(imgDir, f))) {
+                    sink.accept(ImageSource.of(f));
+                }
+            });
         }
     }
 
     /**
-     * Loads the files to process from a directory. This involves enumerating
-     * all compatible files from the dir
+     * Reads the images in a ZIP or TAR archive without unpacking it. Every
+     * image in the archive is read, whatever directory it is in, and is keyed
+     * by its path in the archive. Entries are read as they are produced, so
+     * only the files in flight are held in memory.
      *
-     * @param opts CLI arguments
-     * @return Array of files to process or null on error.
+     * @param archive The archive
+     * @param shard The shard to process, or null
+     * @param queueFile The work queue, or null. Requires a ZIP archive.
+     * @param batchSize The number of inputs to claim from the queue at a time
+     * @return A producer of the archive entries
      */
-    private File[] loadFilesFromDir(File imgDir, boolean recursive) {
-        try {
-            Collection<File> files = FileUtils.listFiles(imgDir, SUPPORTED_FORMATS, recursive);
-            return files.toArray(new File[files.size()]);
-        } catch (IllegalArgumentException ex) {
-            System.err.println("Failed to enumerate the input directory");
+    private SourceProducer getArchiveEntries(File archive, Shard shard, File queueFile, int batchSize) {
+        String prefix = archive.getPath() + "!";
+        return sink -> {
+            try (ArchiveReader reader = new ArchiveReader(archive)) {
+                if (queueFile != null) {
+                    processQueue(queueFile, batchSize, keys -> {
+                        try {
+                            reader.listEntries(name -> {
+                                if (isSupportedFormat(name)) {
+                                    keys.accept(name);
+                                }
+                            });
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    }, keys -> {
+                        Iterator<String> it = keys.iterator();
+                        while (it.hasNext()) {
+                            String key = it.next();
+                            try {
+                                byte[] bytes = reader.read(key);
+                                if (bytes != null) {
+                                    sink.accept(ImageSource.of(prefix + key, bytes));
+                                } else {
+                                    System.err.println("Missing " + prefix + key + ", skipping it");
+                                }
+                            } catch (IOException ex) {
+                                System.err.println("Failed to read " + prefix + key + ", skipping it");
+                            }
+                        }
+                    });
+                } else {
+                    reader.forEach(name -> isSupportedFormat(name) && (shard == null || shard.contains(name)),
+                            (name, bytes) -> sink.accept(ImageSource.of(prefix + name, bytes)));
+                }
+            } catch (IOException ex) {
+                System.err.println("Failed to read the input archive. " + ex.getMessage());
+            }
+        };
+    }
+
+    /**
+     * Claims batches of inputs from the work queue until it is exhausted,
+     * filling it first if this is the first worker.
+     *
+     * @param queueFile The queue file
+     * @param batchSize The number of inputs to claim at a time
+     * @param source Produces every input key, used to fill the queue
+     * @param consumer Processes each claimed batch, blocking while the
+     * executor is full so this worker only claims what it can keep up with
+     * @throws InterruptedException
+     */
+    private void processQueue(File queueFile, int batchSize, WorkQueue.KeySource source, PathConsumer consumer)
+            throws InterruptedException {
+        try (WorkQueue queue = WorkQueue.open(queueFile, source)) {
+            System.out.println((queue.isCreated() ? "Filled" : "Joined") + " work queue "
+                    + queueFile.getAbsolutePath());
+            List<String> batch;
+            while (!(batch = queue.claim(batchSize)).isEmpty()) {
+                consumer.accept(batch.stream());
+            }
+        } catch (IOException ex) {
+            System.err.println("Failed to use the work queue. " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Opens the cache that online files are downloaded into, which evicts
+     * whatever exceeds its bounds when opened and closed.
+     *
+     * @param opts The CLI arguments
+     * @return The cache, or null if no files are downloaded into it
+     */
+    private DownloadCache openDownloadCache(CommandLine opts) {
+        if (!opts.hasOption(CLIOptions.OPTION_IN_FILE) || !opts.hasOption(CLIOptions.OPTION_IN_FILE_NET)
+                || opts.hasOption(CLIOptions.OPTION_NET_MEMORY)) {
             return null;
         }
+        File cacheDir = new File(opts.getOptionValue(CLIOptions.OPTION_NET_CACHE, DownloadCache.DEFAULT_DIR));
+        long cacheBytes = getIntOption(opts, CLIOptions.OPTION_NET_CACHE_SIZE,
+                CLIOptions.DEFAULT_NET_CACHE_SIZE) * 1024L * 1024L;
+        long cacheAge = TimeUnit.DAYS.toMillis(getIntOption(opts, CLIOptions.OPTION_NET_CACHE_AGE,
+                CLIOptions.DEFAULT_NET_CACHE_AGE));
+        int timeout = getIntOption(opts, CLIOptions.OPTION_TIMEOUT, CLIOptions.DEFAULT_TIMEOUT);
+        System.out.println("Using download cache " + cacheDir.getAbsolutePath());
+        return new DownloadCache(cacheDir, cacheBytes, cacheAge, timeout * 1000);
     }
 
     /**
-     * Loads the array of files to process from the given file. If the file
-     * paths are network paths, they are downloaded into the working directory.
+     * Reorders the files to process with --order, so the most expensive are
+     * scaled first. Files are produced as before, only held in a window and
+     * passed on largest first.
      *
-     * @param inFile The file containing the list of paths
-     * @param network Whether the paths are network locations
-     * @return Array of files to process, or null on error.
+     * @param files The producer of the files in input order
+     * @param opts The CLI arguments
+     * @return A producer of the reordered files, or the same producer when
+     * keeping the input order
      */
-    private File[] loadFilesFromFile(File inFile, boolean network) {
+    private SourceProducer inOrder(SourceProducer files, CommandLine opts) {
+        String order = opts.getOptionValue(CLIOptions.OPTION_ORDER, CLIOptions.DEFAULT_ORDER);
+        if (CLIOptions.DEFAULT_ORDER.equalsIgnoreCase(order)) {
+            return files;
+        }
+        LargestFirstQueue.Estimate estimate = LargestFirstQueue.Estimate.valueOf(order.toUpperCase(Locale.ROOT));
+        int window = getIntOption(opts, CLIOptions.OPTION_ORDER_WINDOW, CLIOptions.DEFAULT_ORDER_WINDOW);
+        System.out.println("Ordering by " + order.toLowerCase(Locale.ROOT) + ", largest first, "
+                + window + " files at a time");
+        return sink -> {
+            LargestFirstQueue queue = new LargestFirstQueue(estimate, window, sink);
+            files.produce(queue::add);
+            queue.flush();
+        };
+    }
+
+    /**
+     * Filters the paths of an input file down to those of the shard.
+     */
+    private static Stream<String> inShard(Stream<String> paths, Shard shard) {
+        return shard == null ? paths : paths.filter(shard::contains);
+    }
+
+    /**
+     * Gets the key of a file in the input directory, its relative path with
+     * forward slashes, which is the same on every machine and OS.
+     */
+    private static String getInputKey(File imgDir, File file) {
+        return imgDir.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Enumerates all compatible files from a directory, passing each to the
+     * sink as it is found. Symbolic links to files and directories are
+     * followed. Entries that can't be read, and links that would loop, are
+     * reported and skipped.
+     *
+     * @param imgDir The directory to enumerate
+     * @param recursive Whether to descend into subdirectories
+     * @param sink The consumer of the files
+     */
+    private void loadFilesFromDir(File imgDir, boolean recursive, Consumer<File> sink) {
         try {
-            String absPaths[] = FileUtils.readLines(inFile).toArray(new String[0]);
-            if (network) {
-                // The loaded list of paths are network paths
-                return NetworkUtils.downloadFilesByURLs(absPaths);
-            } else {
-                // Use the paths as local paths
-                List<File> files = new LinkedList<>();
-                for (String path : absPaths) {
-                    files.add(new File(path));
+            // Follow links like File.isDirectory and File.isFile do
+            Files.walkFileTree(imgDir.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+                    recursive ? Integer.MAX_VALUE : 1, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && isSupportedFormat(file.getFileName().toString())) {
+                        sink.accept(file.toFile());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                    if (ex instanceof FileSystemLoopException) {
+                        System.err.println(file + " links back to a directory above it, skipping it");
+                        return FileVisitResult.CONTINUE;
+                    }
+                    System.err.println("Failed to read " + file + ", skipping it");
+                    return FileVisitResult.CONTINUE;
                 }
-                return files.toArray(new File[files.size()]);
-            }            
+            });
         } catch (IOException ex) {
-            System.err.println("Failed to open the provided input file");
-            return null;
+            System.err.println("Failed to enumerate the input directory");
+        }
+    }
+
+    /**
+     * Reads the paths to process from the given file line by line, skipping
+     * blank lines.
+     *
+     * @param inFile The file containing the list of paths
+     * @param consumer The consumer of the stream of paths
+     * @throws InterruptedException
+     */
+    private void loadPathsFromFile(File inFile, PathConsumer consumer) throws InterruptedException {
+        try (BufferedReader reader = Files.newBufferedReader(inFile.toPath(), Charset.defaultCharset())) {
+            consumer.accept(reader.lines()
+                    .map(String::trim)
+                    .filter(line -> !line.isEmpty()));
+        } catch (IOException | UncheckedIOException ex) {
+            System.err.println("Failed to read the provided input file");
+        }
+    }
+
+    /**
+     * Checks whether the given file name has one of the supported extensions.
+     *
+     * @param name The file name
+     * @return Whether the file should be processed
+     */
+    private static boolean isSupportedFormat(String name) {
+        for (String format : SUPPORTED_FORMATS) {
+            if (name.endsWith("." + format)) {
+                return true;
+            }
         }
+        return false;
     }
 
     /**
      * Processes the given files with the given parameters. This method blocks
-     * until all processing is done.
+     * until all processing is done. Files are handed to a bounded
+     * ScaleExecutor, so submission waits whenever the in-flight window is full
+     * and each result is handled as soon as its task finishes.
      *
-     * @param files The array of files to process
-     * @param thumbW Thumbnail image width
-     * @param fullW Full-size image width
-     * @param thumbDir The directory to write the thumbnails
-     * @param fullDir The directory to write the full-size images
-     * @throws ExecutionException
+     * @param files The producer of the files to process
+     * @param profiles The outputs to produce for each file
+     * @param scaleOptions The scaling options
+     * @param threads The number of scaling worker threads
+     * @param queueDepth The number of files that may wait for a worker
+     * @param manifest The manifest of already processed files, or null to
+     * process every file
+     * @param packs The packs to append the outputs to, or null to write a
+     * file per output
+     * @param dedupIndex The index of scaled inputs, or null to scale every
+     * input
+     * @param dedupMode How duplicate inputs get the outputs of the original
+     * @param metrics The metrics to record results into
+     * @param quiet Whether to skip printing a summary line per file
      * @throws InterruptedException
      */
-    private void processFiles(File[] files, int thumbW, int fullW,
-            File thumbDir, File fullDir) throws ExecutionException, InterruptedException {
+    private void processFiles(SourceProducer files, List<OutputProfile> profiles,
+            ScaleOptions scaleOptions, int threads, int queueDepth, ProcessingManifest manifest,
+            PackSink packs, DedupIndex dedupIndex, Deduplicator.Mode dedupMode, RunMetrics metrics,
+            boolean quiet) throws InterruptedException {
 
         System.out.println();
-        System.out.println("Using thumbnail output directory " + thumbDir.getAbsolutePath());
-        System.out.println("Using full output directory " + fullDir.getAbsolutePath());
-        System.out.println("Thumbnail Width: " + thumbW + "px");
-        System.out.println("Full Width: " + fullW + "px");
+        for (OutputProfile profile : profiles) {
+            System.out.println("Output " + profile);
+        }
+        System.out.println("Cascade: " + scaleOptions.isCascade());
+        System.out.println("Subsampled Decode: " + scaleOptions.isSubsample());
+        System.out.println("Embedded Thumbnails: " + scaleOptions.isEmbeddedThumbnails());
+        System.out.println("Engine: " + scaleOptions.getResampler().getName());
+        System.out.println("Packed: " + (packs != null));
+        System.out.println("Dedup: " + (dedupMode != null ? dedupMode.name().toLowerCase(Locale.ROOT) : "off"));
+        System.out.println("Stream Threshold: " + scaleOptions.getStreamThreshold() / 1000000 + " megapixels");
+        System.out.println("Memory Budget: " + scaleOptions.getMemoryBudget().getCapacity() / (1024 * 1024) + " MB");
+        System.out.println("Image Pool: " + ImagePool.getCapacity() / (1024 * 1024) + " MB");
+        System.out.println("Workers: " + threads + ", Queue Depth: " + queueDepth);
+        System.out.println("Split: " + (scaleOptions.getSplitThreshold() > 0
+                ? scaleOptions.getSplitThreshold() / 1000000 + " megapixels" : "off"));
         System.out.println();
-        System.out.println("Beginning work on " + files.length + " files.");
+        System.out.println("Beginning work.");
 
-        // Start all of the async tasks
-        List<CompletableFuture> futures = new ArrayList<>(files.length);
-        for (final File f : files) {
-            futures.add(ScaleTask.newCompletableFuture(f, thumbW, fullW, thumbDir, fullDir)
-                    .thenApply(ScaleResult::printTaskSummary)
-                    .exceptionally(t -> {
-                        System.out.println("Failed to process " + f.getAbsolutePath() + ".\n" + t.getMessage() + "\n");
-                        t.printStackTrace();
-                        return null;
-                    }));
+        String settings = getSignature(profiles, scaleOptions);
+        OutputSink sink = packs != null ? packs : OutputSink.FILES;
+        // The manifest records the packs as the outputs of every file
+        File[] packIndexes = packs != null ? PackSink.getIndexFiles(profiles) : null;
+        Deduplicator dedup = dedupIndex != null
+                ? new Deduplicator(dedupIndex, sink, profiles, settings, dedupMode) : null;
+        try (ScaleExecutor executor = new ScaleExecutor(threads, queueDepth)) {
+            files.produce(source -> {
+                File f = source.getFile();
+                File[] outputs = packIndexes;
+                if (outputs == null && f != null) {
+                    outputs = new File[profiles.size()];
+                    for (int i = 0; i < outputs.length; i++) {
+                        outputs[i] = profiles.get(i).getOutputFile(source.getName());
+                    }
+                }
+                if (manifest != null && manifest.isUpToDate(f, settings, outputs)
+                        && (packs == null || packs.containsAll(source, profiles))) {
+                    metrics.recordSkipped();
+                    return;
+                }
+                File[] recorded = outputs;
+                ScaleTask task = new ScaleTask(source, profiles, scaleOptions, sink,
+                        executor.getSubtaskExecutor());
+                Supplier<ScaleResult> scale = dedup != null ? () -> dedup.run(source, task::run) : task::run;
+                // Blocks while the in-flight window is full
+                CompletableFuture.supplyAsync(() -> {
+                    if (manifest == null) {
+                        return scale.get();
+                    }
+                    try {
+                        // The state the outputs are produced from, so a source
+                        // changed while it is scaled is processed again
+                        ProcessingManifest.Snapshot before = manifest.snapshot(f);
+                        ScaleResult r = scale.get();
+                        manifest.record(before, settings, recorded);
+                        return r;
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                }, executor)
+                        .thenApply(r -> quiet ? r : ScaleResult.printTaskSummary(r))
+                        .thenApply(metrics::record)
+                        .exceptionally(t -> {
+                            metrics.recordFailure();
+                            System.out.println("Failed to process " + source.getPath() + ".\n" + t.getMessage() + "\n");
+                            t.printStackTrace();
+                            return null;
+                        });
+            });
+            // Block until the remaining tasks complete so the program doesn't terminate early
+            executor.awaitIdle();
+            metrics.recordSchedule(executor.getThreads(), executor.getActiveNanos(), executor.getBusyNanos());
+            metrics.recordAllocated(executor.getAllocatedBytes());
+        } catch (RejectedExecutionException ex) {
+            throw new InterruptedException(ex.getMessage());
         }
 
-        // Block until all futures complete so the program doesn't terminate early
-        CompletableFuture.allOf(futures.toArray(new CompletableFuture[files.length])).get();
+        if (metrics.getSucceeded() + metrics.getFailed() + metrics.getSkipped() == 0) {
+            System.out.println("No files to process.");
+        }
     }
 
     /**
@@ -201,57 +803,280 @@ public class ImageScaler {
                     + CLIOptions.OPTION_IN_FILE + " must be given.");
         }
 
-        // Check that the thumbnail and full img paths aren't the same, the images would overwrite
-        File thumbFile = new File(opts.getOptionValue(CLIOptions.OPTION_THUMB_OUT));
-        File fullFile = new File(opts.getOptionValue(CLIOptions.OPTION_FULL_OUT));
-
-        thumbFile.mkdirs();
-        fullFile.mkdirs();
-
-        if (thumbFile.getAbsolutePath().equalsIgnoreCase(fullFile.getAbsolutePath())) {
+        // Check integer params are actually integers of appropriate value
+        valid &= validateIntOption(opts, CLIOptions.OPTION_THUMB_WIDTH, 1);
+        valid &= validateIntOption(opts, CLIOptions.OPTION_FULL_WIDTH, 1);
+        valid &= validateIntOption(opts, CLIOptions.OPTION_THREADS, 1);
+        valid &= validateIntOption(opts, CLIOptions.OPTION_QUEUE_DEPTH, 0);
+        valid &= validateIntOption(opts, CLIOptions.OPTION_CONNECTIONS, 1);
+        valid &= validateIntOption(opts, CLIOptions.OPTION_TIMEOUT, 0);
+        valid &= validateIntOption(opts, CLIOptions.OPTION_PROGRESS, 0);
+        valid &= validateIntOption(opts, CLIOptions.OPTION_MEMORY_BUDGET, 1);
+        valid &= validateIntOption(opts, CLIOptions.OPTION_POOL_SIZE, 0);
+        valid &= validateIntOption(opts, CLIOptions.OPTION_STREAM_THRESHOLD, 0);
+        valid &= validateEngine(opts);
+        valid &= validateIntOption(opts, CLIOptions.OPTION_BATCH_SIZE, 1);
+        valid &= validateIntOption(opts, CLIOptions.OPTION_NET_CACHE_SIZE, 0);
+        valid &= validateIntOption(opts, CLIOptions.OPTION_NET_CACHE_AGE, 0);
+        valid &= validateIntOption(opts, CLIOptions.OPTION_ORDER_WINDOW, 1);
+        valid &= validateIntOption(opts, CLIOptions.OPTION_SPLIT, 0);
+        if (opts.hasOption(CLIOptions.OPTION_ORDER)) {
+            String order = opts.getOptionValue(CLIOptions.OPTION_ORDER);
+            if (!"input".equalsIgnoreCase(order) && !"size".equalsIgnoreCase(order)
+                    && !"pixels".equalsIgnoreCase(order)) {
+                valid = false;
+                System.err.println(CLIOptions.OPTION_ORDER + " must be input, size or pixels.");
+            }
+        }
+        if (opts.hasOption(CLIOptions.OPTION_DEDUP)) {
+            String mode = opts.getOptionValue(CLIOptions.OPTION_DEDUP);
+            if (!"link".equalsIgnoreCase(mode) && !"copy".equalsIgnoreCase(mode)) {
+                valid = false;
+                System.err.println(CLIOptions.OPTION_DEDUP + " must be link or copy.");
+            }
+        } else if (opts.hasOption(CLIOptions.OPTION_DEDUP_INDEX)) {
             valid = false;
-            System.err.println(CLIOptions.OPTION_THUMB_OUT + " and "
-                    + CLIOptions.OPTION_FULL_OUT + "cannot be the same.");
+            System.err.println(CLIOptions.OPTION_DEDUP_INDEX + " requires --" + CLIOptions.OPTION_DEDUP + ".");
         }
-
-        // Check the outputs are actually dirs
-        if (!thumbFile.isDirectory() || !fullFile.isDirectory()) {
+        if (opts.hasOption(CLIOptions.OPTION_NET_MEMORY) && opts.hasOption(CLIOptions.OPTION_INCREMENTAL)) {
             valid = false;
-            System.err.println(CLIOptions.OPTION_THUMB_OUT + " and "
-                    + CLIOptions.OPTION_FULL_OUT + " must be directories.");
+            System.err.println(CLIOptions.OPTION_INCREMENTAL + " can't be used with --"
+                    + CLIOptions.OPTION_NET_MEMORY + ", downloads in memory have no file to check.");
         }
-        // Check integer params are actually integers of appropriate value
-        if (opts.hasOption(CLIOptions.OPTION_THUMB_WIDTH)) {
-            int parsedVal = -1;
+        if (opts.hasOption(CLIOptions.OPTION_SHARD)) {
             try {
-                parsedVal = Integer.parseInt(opts.getOptionValue(CLIOptions.OPTION_THUMB_WIDTH));
-            } catch (NumberFormatException ex) {
+                Shard.parse(opts.getOptionValue(CLIOptions.OPTION_SHARD));
+            } catch (IllegalArgumentException ex) {
+                valid = false;
+                System.err.println("Invalid " + CLIOptions.OPTION_SHARD + ". " + ex.getMessage());
             }
-            if (parsedVal < 1) {
+            if (opts.hasOption(CLIOptions.OPTION_WORK_QUEUE)) {
                 valid = false;
-                System.err.println(CLIOptions.OPTION_THUMB_WIDTH + " requires an integer parameter greater than 0");
+                System.err.println("Only one of " + CLIOptions.OPTION_SHARD + " and "
+                        + CLIOptions.OPTION_WORK_QUEUE + " should be provided.");
+            }
+        }
+        if (opts.hasOption(CLIOptions.OPTION_IN_DIR) && !opts.hasOption(CLIOptions.OPTION_IN_FILE)) {
+            File archive = new File(opts.getOptionValue(CLIOptions.OPTION_IN_DIR));
+            if (archive.isFile() && ArchiveReader.isArchive(archive)) {
+                if (opts.hasOption(CLIOptions.OPTION_INCREMENTAL)) {
+                    valid = false;
+                    System.err.println(CLIOptions.OPTION_INCREMENTAL + " can't be used with an archive input.");
+                }
+                if (opts.hasOption(CLIOptions.OPTION_WORK_QUEUE) && !ArchiveReader.isRandomAccess(archive)) {
+                    valid = false;
+                    System.err.println(CLIOptions.OPTION_WORK_QUEUE + " requires a directory or ZIP input,"
+                            + " TAR entries can't be read by name.");
+                }
             }
         }
 
-        if (opts.hasOption(CLIOptions.OPTION_FULL_WIDTH)) {
-            int parsedVal = -1;
+        if (valid) {
+            valid = validateProfiles(opts);
+        }
+
+        if (opts.hasOption(CLIOptions.OPTION_CASCADE_MIN_RATIO)) {
+            double parsedVal = -1;
             try {
-                parsedVal = Integer.parseInt(opts.getOptionValue(CLIOptions.OPTION_FULL_WIDTH));
+                parsedVal = Double.parseDouble(opts.getOptionValue(CLIOptions.OPTION_CASCADE_MIN_RATIO));
             } catch (NumberFormatException ex) {
             }
             if (parsedVal < 1) {
                 valid = false;
-                System.err.println(CLIOptions.OPTION_FULL_WIDTH + " requires an integer parameter greater than 0");
+                System.err.println(CLIOptions.OPTION_CASCADE_MIN_RATIO + " requires a number of at least 1");
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * Checks the arguments of server mode.
+     *
+     * @param opts The parsed CLI arguments
+     * @return Whether the arguments are valid
+     */
+    private boolean validateServerArgs(CommandLine opts) {
+        boolean valid = validateIntOption(opts, CLIOptions.OPTION_SERVER, 0);
+        valid &= validateIntOption(opts, CLIOptions.OPTION_CACHE_SIZE, 0);
+        valid &= validateIntOption(opts, CLIOptions.OPTION_THREADS, 1);
+        valid &= validateIntOption(opts, CLIOptions.OPTION_QUEUE_DEPTH, 0);
+        valid &= validateIntOption(opts, CLIOptions.OPTION_TIMEOUT, 0);
+        valid &= validateIntOption(opts, CLIOptions.OPTION_MEMORY_BUDGET, 1);
+        valid &= validateIntOption(opts, CLIOptions.OPTION_POOL_SIZE, 0);
+        valid &= validateIntOption(opts, CLIOptions.OPTION_STREAM_THRESHOLD, 0);
+        valid &= validateEngine(opts);
+        if (opts.hasOption(CLIOptions.OPTION_IN_DIR)
+                && !new File(opts.getOptionValue(CLIOptions.OPTION_IN_DIR)).isDirectory()) {
+            valid = false;
+            System.err.println(CLIOptions.OPTION_IN_DIR + " must be a directory.");
+        }
+        return valid;
+    }
+
+    /**
+     * Checks that the resampling engine, if given, is known.
+     *
+     * @param opts The parsed CLI arguments
+     * @return Whether the engine is valid
+     */
+    private boolean validateEngine(CommandLine opts) {
+        if (opts.hasOption(CLIOptions.OPTION_ENGINE)) {
+            try {
+                Resampler.forName(opts.getOptionValue(CLIOptions.OPTION_ENGINE));
+            } catch (IllegalArgumentException ex) {
+                System.err.println(ex.getMessage() + ". " + CLIOptions.OPTION_ENGINE + " must be one of "
+                        + String.join(", ", Resampler.NAMES));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks that the output profiles parse, that there is at least one, that
+     * their output directories exist or can be created, and that no two
+     * profiles would write to the same files.
+     *
+     * @param opts The parsed CLI arguments
+     * @return Whether the profiles are valid
+     */
+    private boolean validateProfiles(CommandLine opts) {
+        if (opts.hasOption(CLIOptions.OPTION_ENCODER)) {
+            try {
+                EncoderSettings.parse(opts.getOptionValue(CLIOptions.OPTION_ENCODER));
+            } catch (IllegalArgumentException ex) {
+                System.err.println("Invalid " + CLIOptions.OPTION_ENCODER + ". " + ex.getMessage());
+                return false;
+            }
+        }
+        List<OutputProfile> profiles;
+        try {
+            profiles = getProfiles(opts);
+        } catch (IllegalArgumentException ex) {
+            System.err.println("Invalid " + CLIOptions.OPTION_PROFILE + ". " + ex.getMessage());
+            return false;
+        }
+        if (profiles.isEmpty()) {
+            System.err.println("At least one output must be given with --" + CLIOptions.OPTION_PROFILE
+                    + ", --" + CLIOptions.OPTION_THUMB_OUT + " or --" + CLIOptions.OPTION_FULL_OUT + ".");
+            return false;
+        }
+
+        boolean valid = true;
+        for (int i = 0; i < profiles.size(); i++) {
+            OutputProfile profile = profiles.get(i);
+            File dir = profile.getOutputDir();
+            dir.mkdirs();
+            // Check the outputs are actually dirs
+            if (!dir.isDirectory()) {
+                valid = false;
+                System.err.println("The output of " + profile.getName() + " must be a directory.");
+            }
+            // Check that no two outputs share a directory and format, the images would overwrite.
+            // An output keeping the source format may write any extension, so it
+            // can't share a directory with another output of any format
+            for (int j = 0; j < i; j++) {
+                OutputProfile other = profiles.get(j);
+                if (other.getOutputDir().getAbsolutePath().equalsIgnoreCase(dir.getAbsolutePath())
+                        && (other.getFormat() == null || profile.getFormat() == null
+                        || other.getFormat().equals(profile.getFormat()))) {
+                    valid = false;
+                    System.err.println("The outputs of " + other.getName() + " and "
+                            + profile.getName() + " cannot be the same.");
+                }
             }
         }
         return valid;
     }
 
+    /**
+     * Describes everything about the outputs that, when changed, requires
+     * files to be processed again.
+     *
+     * @param profiles The output profiles
+     * @param scaleOptions The scaling options
+     * @return The signature of the profiles
+     */
+    private static String getSignature(List<OutputProfile> profiles, ScaleOptions scaleOptions) {
+        StringBuilder signature = new StringBuilder();
+        for (OutputProfile profile : profiles) {
+            if (signature.length() > 0) {
+                signature.append(';');
+            }
+            signature.append(profile.getSignature());
+        }
+        if (!CLIOptions.DEFAULT_ENGINE.equals(scaleOptions.getResampler().getName())) {
+            // Other engines produce different pixels
+            signature.append(";engine=").append(scaleOptions.getResampler().getName());
+        }
+        if (scaleOptions.isEmbeddedThumbnails()) {
+            // Outputs scaled from a thumbnail differ from those of the image
+            signature.append(";thumbnails=embedded");
+        }
+        if (scaleOptions.isCascade()) {
+            // Derived outputs differ from those scaled from the original, and
+            // split images are never cascaded
+            signature.append(";cascade=").append(scaleOptions.getMinCascadeRatio());
+            if (scaleOptions.getSplitThreshold() > 0) {
+                signature.append(",split=").append(scaleOptions.getSplitThreshold());
+            }
+        }
+        if (!scaleOptions.isSubsample()) {
+            signature.append(";subsample=false");
+        }
+        if (scaleOptions.getStreamThreshold() != ScaleOptions.DEFAULT_STREAM_THRESHOLD) {
+            // Streamed images are decoded and filtered in strips
+            signature.append(";stream=").append(scaleOptions.getStreamThreshold());
+        }
+        return signature.toString();
+    }
+
+    /**
+     * Checks that the given option, if present, is an integer of at least the
+     * given value. An error message is printed if it isn't.
+     *
+     * @param opts The parsed CLI arguments
+     * @param option The long name of the option to check
+     * @param min The minimum allowed value
+     * @return Whether the option is absent or valid
+     */
+    private boolean validateIntOption(CommandLine opts, String option, int min) {
+        if (opts.hasOption(option)) {
+            int parsedVal = min - 1;
+            try {
+                parsedVal = Integer.parseInt(opts.getOptionValue(option));
+            } catch (NumberFormatException ex) {
+            }
+            if (parsedVal < min) {
+                System.err.println(option + " requires an integer parameter of at least " + min);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the integer value of the given option, or the default if it
+     * wasn't given. The value should already have been validated.
+     *
+     * @param opts The parsed CLI arguments
+     * @param option The long name of the option
+     * @param defaultValue The value to use if the option is absent
+     * @return The option value
+     */
+    private int getIntOption(CommandLine opts, String option, int defaultValue) {
+        if (opts.hasOption(option)) {
+            return Integer.parseInt(opts.getOptionValue(option));
+        }
+        return defaultValue;
+    }
+
     private void printHelp() {
         HelpFormatter formatter = new HelpFormatter();
-        String usage = "ImageScaler [options] --"
+        String usage = "ImageScaler [options] [--"
+                + CLIOptions.OPTION_PROFILE + " ...] [--"
                 + CLIOptions.OPTION_THUMB_OUT + " --"
-                + CLIOptions.OPTION_FULL_OUT + " --"
+                + CLIOptions.OPTION_FULL_OUT + "] --"
                 + "[" + CLIOptions.OPTION_IN_FILE + " OR "
                 + CLIOptions.OPTION_IN_DIR + "]";
         String header = "A simple utility class to scale images. This utility reads images, either"
@@ -261,6 +1086,32 @@ public class ImageScaler {
         formatter.printHelp(usage, header, CLI_OPTIONS, "");
     }
 
+    /**
+     * Produces the images to process, possibly while they are still being
+     * enumerated, downloaded or read from an archive.
+     */
+    @FunctionalInterface
+    private interface SourceProducer {
+
+        /**
+         * Passes every image to process to the sink. This blocks until every
+         * image has been passed on.
+         *
+         * @param sink The consumer of the images
+         * @throws InterruptedException
+         */
+        void produce(Consumer<ImageSource> sink) throws InterruptedException;
+    }
+
+    /**
+     * Consumes a lazily read stream of paths.
+     */
+    @FunctionalInterface
+    private interface PathConsumer {
+
+        void accept(Stream<String> paths) throws InterruptedException;
+    }
+
     public static void main(String[] args) {
         new ImageScaler().run(args);
     }
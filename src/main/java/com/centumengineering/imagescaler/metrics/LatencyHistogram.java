@@ -0,0 +1,158 @@
+package com.centumengineering.imagescaler.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe histogram of nanosecond durations with log-linear buckets.
+ * Every power of two is split into {@value #SUB_BUCKETS} equal buckets, so
+ * percentiles are accurate to within 12.5% over the whole range of a long
+ * while recording is a single atomic increment.
+ *
+ * @author Phani Gaddipati
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = Long.SIZE * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos The duration in nanoseconds, negative values count as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketIndex(value));
+        count.increment();
+        sum.add(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Adds every duration recorded in another histogram to this one.
+     *
+     * @param other The histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c > 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        count.add(other.getCount());
+        sum.add(other.getTotalNanos());
+        max.accumulateAndGet(other.getMaxNanos(), Math::max);
+    }
+
+    /**
+     * Encodes every recorded duration as text, so histograms of separate
+     * processes can be added together exactly.
+     *
+     * @return The count, sum and max followed by each non-empty bucket as
+     * index:count
+     */
+    public String toState() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getCount()).append(' ').append(getTotalNanos()).append(' ').append(getMaxNanos());
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.get(i);
+            if (c > 0) {
+                sb.append(' ').append(i).append(':').append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Decodes a histogram encoded with {@link #toState()}.
+     *
+     * @param state The encoded histogram
+     * @return The histogram
+     * @throws IllegalArgumentException If the state is invalid
+     */
+    public static LatencyHistogram fromState(String state) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        String[] parts = state.trim().split(" ");
+        try {
+            histogram.count.add(Long.parseLong(parts[0]));
+            histogram.sum.add(Long.parseLong(parts[1]));
+            histogram.max.set(Long.parseLong(parts[2]));
+            for (int i = 3; i < parts.length; i++) {
+                int colon = parts[i].indexOf(':');
+                histogram.counts.addAndGet(Integer.parseInt(parts[i].substring(0, colon)),
+                        Long.parseLong(parts[i].substring(colon + 1)));
+            }
+        } catch (RuntimeException ex) {
+            throw new IllegalArgumentException("Invalid histogram \"" + state + "\"", ex);
+        }
+        return histogram;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return sum.sum();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    public double getMeanNanos() {
+        long c = getCount();
+        return c == 0 ? 0 : ((double) getTotalNanos()) / c;
+    }
+
+    /**
+     * Estimates the given percentile as the upper edge of the bucket it falls
+     * in.
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @return The estimated duration in nanoseconds, 0 if nothing was recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                long upper = i + 1 < BUCKETS ? bucketLowerBound(i + 1) - 1 : Long.MAX_VALUE;
+                return Math.min(upper, getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        return (1L << exponent) | ((long) sub << (exponent - SUB_BUCKET_BITS));
+    }
+}
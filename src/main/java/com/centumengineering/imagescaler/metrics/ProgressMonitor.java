@@ -0,0 +1,55 @@
+package com.centumengineering.imagescaler.metrics;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically samples heap use into a RunMetrics and, if enabled, takes and
+ * prints progress snapshots.
+ *
+ * @author Phani Gaddipati
+ */
+public class ProgressMonitor implements AutoCloseable {
+
+    private static final long HEAP_SAMPLE_MILLIS = 100;
+
+    private final ScheduledExecutorService scheduler;
+    private final RunMetrics metrics;
+    private final int progressSeconds;
+
+    /**
+     * Creates a monitor, which does nothing until started.
+     *
+     * @param metrics The metrics of the run
+     * @param progressSeconds The interval between progress snapshots in
+     * seconds, 0 for none
+     */
+    public ProgressMonitor(RunMetrics metrics, int progressSeconds) {
+        this.metrics = metrics;
+        this.progressSeconds = progressSeconds;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "progress-monitor");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Starts sampling the heap and, if enabled, printing progress, until the
+     * monitor is closed.
+     */
+    public void start() {
+        scheduler.scheduleAtFixedRate(metrics::sampleHeap,
+                HEAP_SAMPLE_MILLIS, HEAP_SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+        if (progressSeconds > 0) {
+            scheduler.scheduleAtFixedRate(() -> System.out.println("Progress " + metrics.takeSnapshot()),
+                    progressSeconds, progressSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
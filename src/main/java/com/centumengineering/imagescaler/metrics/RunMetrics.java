@@ -0,0 +1,822 @@
+package com.centumengineering.imagescaler.metrics;
+
+import com.centumengineering.imagescaler.scaling.ImagePool;
+import com.centumengineering.imagescaler.scaling.MemoryBudget;
+import com.centumengineering.imagescaler.scaling.ProfileResult;
+import com.centumengineering.imagescaler.scaling.ScaleResult;
+import com.centumengineering.imagescaler.scaling.ScaleResult.ResizePath;
+import com.centumengineering.imagescaler.scaling.StageTimes.Stage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregated metrics of a whole run: counts, throughput, per-stage latency
+ * histograms, peak heap use, allocation and garbage collection. Results are
+ * recorded from the worker threads as tasks complete.
+ *
+ * @author Phani Gaddipati
+ */
+public class RunMetrics {
+
+    private final long startMillis;
+    private final long startNanos;
+    private volatile long endNanos = -1;
+    private int parts = 1;
+
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder lowMemory = new LongAdder();
+    private final LongAdder streamed = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder dedupSavedNanos = new LongAdder();
+    private final LongAdder thumbnailOutputs = new LongAdder();
+    private final LongAdder decodesSkipped = new LongAdder();
+    private final LongAdder skippedPixels = new LongAdder();
+    private final LongAdder skippedDecodeNanos = new LongAdder();
+    private final LongAdder decodedPixels = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+    private final LongAdder split = new LongAdder();
+    private final LongAdder coreNanos = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private final AtomicLong makespanNanos = new AtomicLong();
+    private long criticalPathNanos = 0;
+    private String criticalPathSource = null;
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder gcCount = new LongAdder();
+    private final LongAdder gcMillis = new LongAdder();
+    private final LongAdder poolHits = new LongAdder();
+    private final LongAdder poolMisses = new LongAdder();
+    private final LongAdder poolReusedBytes = new LongAdder();
+    private final long[] startCounters;
+    private final MemoryBudget memoryBudget;
+
+    private final Map<Stage, LatencyHistogram> stages = new EnumMap<>(Stage.class);
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final Map<String, ProfileMetrics> profiles = new ConcurrentSkipListMap<>();
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final AtomicLong peakHeap = new AtomicLong();
+    private final List<Snapshot> snapshots = Collections.synchronizedList(new ArrayList<>());
+
+    public RunMetrics() {
+        this(null);
+    }
+
+    /**
+     * Creates metrics which also report on the given memory budget.
+     *
+     * @param memoryBudget The budget tasks are admitted under, or null
+     */
+    public RunMetrics(MemoryBudget memoryBudget) {
+        this.startMillis = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+        this.memoryBudget = memoryBudget;
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new LatencyHistogram());
+        }
+        this.startCounters = readCounters();
+        sampleHeap();
+    }
+
+    /**
+     * Creates the metrics of a run that has already finished, to be filled in
+     * from saved state.
+     */
+    private RunMetrics(long startMillis, long elapsedNanos) {
+        this.startMillis = startMillis;
+        this.startNanos = 0;
+        this.endNanos = elapsedNanos;
+        this.memoryBudget = null;
+        this.startCounters = null;
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Combines the metrics of several runs, such as the shards of one job.
+     * Counts and histograms are added, the elapsed time spans from the first
+     * start to the last end, and the peak heap is the largest of any run.
+     * Memory budgets and progress snapshots aren't carried over.
+     *
+     * @param runs The metrics of each run
+     * @return The combined metrics
+     */
+    public static RunMetrics merge(List<RunMetrics> runs) {
+        long start = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        for (RunMetrics run : runs) {
+            start = Math.min(start, run.getStartMillis());
+            end = Math.max(end, run.getEndMillis());
+        }
+        RunMetrics merged = new RunMetrics(start, Math.max(0, end - start) * 1000000L);
+        merged.parts = 0;
+        for (RunMetrics run : runs) {
+            merged.add(run);
+        }
+        return merged;
+    }
+
+    private void add(RunMetrics other) {
+        parts += other.parts;
+        succeeded.add(other.getSucceeded());
+        failed.add(other.getFailed());
+        skipped.add(other.getSkipped());
+        bytesIn.add(other.getBytesIn());
+        bytesOut.add(other.getBytesOut());
+        lowMemory.add(other.getLowMemory());
+        streamed.add(other.getStreamed());
+        deduplicated.add(other.getDeduplicated());
+        dedupSavedNanos.add(other.getDedupSavedNanos());
+        thumbnailOutputs.add(other.thumbnailOutputs.sum());
+        decodesSkipped.add(other.decodesSkipped.sum());
+        skippedPixels.add(other.skippedPixels.sum());
+        skippedDecodeNanos.add(other.skippedDecodeNanos.sum());
+        decodedPixels.add(other.decodedPixels.sum());
+        decodeNanos.add(other.decodeNanos.sum());
+        split.add(other.getSplit());
+        coreNanos.add(other.coreNanos.sum());
+        busyNanos.add(other.busyNanos.sum());
+        makespanNanos.accumulateAndGet(other.getMakespanNanos(), Math::max);
+        recordCriticalPath(other.getCriticalPathSource(), other.getCriticalPathNanos());
+        allocatedBytes.add(other.getAllocatedBytes());
+        gcCount.add(other.getGcCount());
+        gcMillis.add(other.getGcMillis());
+        poolHits.add(other.getPoolHits());
+        poolMisses.add(other.getPoolMisses());
+        poolReusedBytes.add(other.getPoolReusedBytes());
+        peakHeap.accumulateAndGet(other.getPeakHeapBytes(), Math::max);
+        for (Stage stage : Stage.values()) {
+            stages.get(stage).add(other.getStage(stage));
+        }
+        total.add(other.getTotal());
+        for (Map.Entry<String, ProfileMetrics> profile : other.getProfiles().entrySet()) {
+            profiles.computeIfAbsent(profile.getKey(), name -> new ProfileMetrics()).add(profile.getValue());
+        }
+    }
+
+    /**
+     * Saves the counts and histograms of the run, so the runs of several
+     * processes can later be merged with {@link #merge(List)}.
+     *
+     * @param file The file to write
+     * @throws IOException If the file can't be written
+     */
+    public void writeState(File file) throws IOException {
+        Properties state = new Properties();
+        state.setProperty("startMillis", Long.toString(startMillis));
+        state.setProperty("elapsedNanos", Long.toString(getElapsedNanos()));
+        state.setProperty("parts", Integer.toString(parts));
+        state.setProperty("succeeded", Long.toString(getSucceeded()));
+        state.setProperty("failed", Long.toString(getFailed()));
+        state.setProperty("skipped", Long.toString(getSkipped()));
+        state.setProperty("bytesIn", Long.toString(getBytesIn()));
+        state.setProperty("bytesOut", Long.toString(getBytesOut()));
+        state.setProperty("lowMemory", Long.toString(getLowMemory()));
+        state.setProperty("streamed", Long.toString(getStreamed()));
+        state.setProperty("deduplicated", Long.toString(getDeduplicated()));
+        state.setProperty("dedupSavedNanos", Long.toString(getDedupSavedNanos()));
+        state.setProperty("thumbnailOutputs", Long.toString(thumbnailOutputs.sum()));
+        state.setProperty("decodesSkipped", Long.toString(decodesSkipped.sum()));
+        state.setProperty("skippedPixels", Long.toString(skippedPixels.sum()));
+        state.setProperty("skippedDecodeNanos", Long.toString(skippedDecodeNanos.sum()));
+        state.setProperty("decodedPixels", Long.toString(decodedPixels.sum()));
+        state.setProperty("decodeNanos", Long.toString(decodeNanos.sum()));
+        state.setProperty("split", Long.toString(getSplit()));
+        state.setProperty("coreNanos", Long.toString(coreNanos.sum()));
+        state.setProperty("busyNanos", Long.toString(busyNanos.sum()));
+        state.setProperty("makespanNanos", Long.toString(getMakespanNanos()));
+        synchronized (this) {
+            state.setProperty("criticalPathNanos", Long.toString(criticalPathNanos));
+            if (criticalPathSource != null) {
+                state.setProperty("criticalPathSource", criticalPathSource);
+            }
+        }
+        state.setProperty("allocatedBytes", Long.toString(getAllocatedBytes()));
+        state.setProperty("gcCount", Long.toString(getGcCount()));
+        state.setProperty("gcMillis", Long.toString(getGcMillis()));
+        state.setProperty("poolHits", Long.toString(getPoolHits()));
+        state.setProperty("poolMisses", Long.toString(getPoolMisses()));
+        state.setProperty("poolReusedBytes", Long.toString(getPoolReusedBytes()));
+        state.setProperty("peakHeapBytes", Long.toString(getPeakHeapBytes()));
+        for (Stage stage : Stage.values()) {
+            state.setProperty("stage." + stage.name(), getStage(stage).toState());
+        }
+        state.setProperty("total", total.toState());
+        for (Map.Entry<String, ProfileMetrics> profile : profiles.entrySet()) {
+            String prefix = "profile." + profile.getKey();
+            state.setProperty(prefix + ".bytes", Long.toString(profile.getValue().getBytes()));
+            state.setProperty(prefix + ".time", profile.getValue().getTime().toState());
+            state.setProperty(prefix + ".encode", profile.getValue().getEncodeTime().toState());
+        }
+        File parent = file.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            state.store(out, "ImageScaler run metrics");
+        }
+    }
+
+    /**
+     * Loads the metrics saved with {@link #writeState(File)}.
+     *
+     * @param file The saved metrics
+     * @return The metrics
+     * @throws IOException If the file can't be read or isn't valid
+     */
+    public static RunMetrics readState(File file) throws IOException {
+        Properties state = new Properties();
+        try (Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            state.load(in);
+        }
+        try {
+            RunMetrics metrics = new RunMetrics(Long.parseLong(state.getProperty("startMillis")),
+                    Long.parseLong(state.getProperty("elapsedNanos")));
+            metrics.parts = Integer.parseInt(state.getProperty("parts", "1"));
+            metrics.succeeded.add(Long.parseLong(state.getProperty("succeeded")));
+            metrics.failed.add(Long.parseLong(state.getProperty("failed")));
+            metrics.skipped.add(Long.parseLong(state.getProperty("skipped")));
+            metrics.bytesIn.add(Long.parseLong(state.getProperty("bytesIn")));
+            metrics.bytesOut.add(Long.parseLong(state.getProperty("bytesOut")));
+            metrics.lowMemory.add(Long.parseLong(state.getProperty("lowMemory")));
+            metrics.streamed.add(Long.parseLong(state.getProperty("streamed")));
+            metrics.deduplicated.add(Long.parseLong(state.getProperty("deduplicated", "0")));
+            metrics.dedupSavedNanos.add(Long.parseLong(state.getProperty("dedupSavedNanos", "0")));
+            metrics.thumbnailOutputs.add(Long.parseLong(state.getProperty("thumbnailOutputs", "0")));
+            metrics.decodesSkipped.add(Long.parseLong(state.getProperty("decodesSkipped", "0")));
+            metrics.skippedPixels.add(Long.parseLong(state.getProperty("skippedPixels", "0")));
+            metrics.skippedDecodeNanos.add(Long.parseLong(state.getProperty("skippedDecodeNanos", "0")));
+            metrics.decodedPixels.add(Long.parseLong(state.getProperty("decodedPixels", "0")));
+            metrics.decodeNanos.add(Long.parseLong(state.getProperty("decodeNanos", "0")));
+            metrics.split.add(Long.parseLong(state.getProperty("split", "0")));
+            metrics.coreNanos.add(Long.parseLong(state.getProperty("coreNanos", "0")));
+            metrics.busyNanos.add(Long.parseLong(state.getProperty("busyNanos", "0")));
+            metrics.makespanNanos.set(Long.parseLong(state.getProperty("makespanNanos", "0")));
+            metrics.criticalPathNanos = Long.parseLong(state.getProperty("criticalPathNanos", "0"));
+            metrics.criticalPathSource = state.getProperty("criticalPathSource");
+            metrics.allocatedBytes.add(Long.parseLong(state.getProperty("allocatedBytes", "0")));
+            metrics.gcCount.add(Long.parseLong(state.getProperty("gcCount", "0")));
+            metrics.gcMillis.add(Long.parseLong(state.getProperty("gcMillis", "0")));
+            metrics.poolHits.add(Long.parseLong(state.getProperty("poolHits", "0")));
+            metrics.poolMisses.add(Long.parseLong(state.getProperty("poolMisses", "0")));
+            metrics.poolReusedBytes.add(Long.parseLong(state.getProperty("poolReusedBytes", "0")));
+            metrics.peakHeap.set(Long.parseLong(state.getProperty("peakHeapBytes")));
+            for (Stage stage : Stage.values()) {
+                metrics.stages.get(stage).add(LatencyHistogram.fromState(state.getProperty("stage." + stage.name())));
+            }
+            metrics.total.add(LatencyHistogram.fromState(state.getProperty("total")));
+            for (String key : state.stringPropertyNames()) {
+                if (key.startsWith("profile.") && key.endsWith(".bytes")) {
+                    String prefix = key.substring(0, key.length() - ".bytes".length());
+                    ProfileMetrics profile = new ProfileMetrics();
+                    profile.bytes.add(Long.parseLong(state.getProperty(key)));
+                    profile.time.add(LatencyHistogram.fromState(state.getProperty(prefix + ".time")));
+                    profile.encode.add(LatencyHistogram.fromState(state.getProperty(prefix + ".encode")));
+                    metrics.profiles.put(prefix.substring("profile.".length()), profile);
+                }
+            }
+            return metrics;
+        } catch (RuntimeException ex) {
+            // Missing keys show up as null pointers or number format errors
+            throw new IOException("Invalid metrics file " + file.getPath(), ex);
+        }
+    }
+
+    /**
+     * Records a successfully completed task. Sources whose outputs were
+     * reused from an identical source are only counted, and left out of the
+     * latency histograms.
+     *
+     * @param result The task result
+     * @return The same result, for chaining
+     */
+    public ScaleResult record(ScaleResult result) {
+        succeeded.increment();
+        bytesIn.add(result.getStartBytes());
+        if (result.getDuplicateOf() != null) {
+            deduplicated.increment();
+            dedupSavedNanos.add(result.getSavedNanos());
+            return result;
+        }
+        bytesOut.add(result.getOutputBytes());
+        if (result.isLowMemory()) {
+            lowMemory.increment();
+        }
+        if (result.isStreamed()) {
+            streamed.increment();
+        }
+        if (result.isSplit()) {
+            split.increment();
+        }
+        recordCriticalPath(result.getSource().getName(), result.getProcessingTimeInMillis() * 1000000L);
+        long sourcePixels = ((long) result.getSourceWidth()) * result.getSourceHeight();
+        long decodeTime = result.getStageTimes().getNanos(Stage.DECODE);
+        if (result.getResizePath() == ResizePath.EMBEDDED_THUMBNAIL) {
+            decodesSkipped.increment();
+            skippedPixels.add(sourcePixels);
+            skippedDecodeNanos.add(decodeTime);
+        } else {
+            decodedPixels.add(sourcePixels);
+            decodeNanos.add(decodeTime);
+        }
+        for (ProfileResult profileResult : result.getProfileResults()) {
+            if (profileResult.isEmbeddedThumbnail()) {
+                thumbnailOutputs.increment();
+            }
+            profiles.computeIfAbsent(profileResult.getProfile().getName(), name -> new ProfileMetrics())
+                    .record(profileResult);
+        }
+        for (Stage stage : Stage.values()) {
+            stages.get(stage).record(result.getStageTimes().getNanos(stage));
+        }
+        total.record(result.getStageTimes().getProcessingNanos());
+        return result;
+    }
+
+    private synchronized void recordCriticalPath(String source, long nanos) {
+        if (nanos > criticalPathNanos) {
+            criticalPathNanos = nanos;
+            criticalPathSource = source;
+        }
+    }
+
+    /**
+     * Records how busy the workers of the run were, once they are done.
+     *
+     * @param threads The number of workers
+     * @param activeNanos The time from the start of the first task to the end
+     * of the last
+     * @param workerBusyNanos The total time the workers spent running tasks
+     */
+    public void recordSchedule(int threads, long activeNanos, long workerBusyNanos) {
+        coreNanos.add(threads * activeNanos);
+        busyNanos.add(workerBusyNanos);
+        makespanNanos.accumulateAndGet(activeNanos, Math::max);
+    }
+
+    /**
+     * Records the memory the workers of the run allocated, once they are
+     * done.
+     *
+     * @param bytes The bytes allocated, negative if unknown
+     */
+    public void recordAllocated(long bytes) {
+        if (bytes > 0) {
+            allocatedBytes.add(bytes);
+        }
+    }
+
+    public void recordFailure() {
+        failed.increment();
+    }
+
+    public void recordSkipped() {
+        skipped.increment();
+    }
+
+    /**
+     * Samples the current heap use, keeping track of the peak.
+     */
+    public void sampleHeap() {
+        peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+    }
+
+    /**
+     * Takes a progress snapshot and keeps it for the report.
+     *
+     * @return The snapshot
+     */
+    public Snapshot takeSnapshot() {
+        sampleHeap();
+        Snapshot snapshot = new Snapshot(getElapsedNanos(), getSucceeded(), getFailed(),
+                getImagesPerSecond(), getMegabytesPerSecond(),
+                memory.getHeapMemoryUsage().getUsed());
+        snapshots.add(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Marks the end of the run. Throughput is computed up to this point.
+     */
+    public void finish() {
+        sampleHeap();
+        endNanos = System.nanoTime();
+        long[] counters = readCounters();
+        gcCount.add(counters[0] - startCounters[0]);
+        gcMillis.add(counters[1] - startCounters[1]);
+        poolHits.add(counters[2] - startCounters[2]);
+        poolMisses.add(counters[3] - startCounters[3]);
+        poolReusedBytes.add(counters[4] - startCounters[4]);
+    }
+
+    /**
+     * Reads the process wide counters the run is measured by the change of:
+     * collections, collection time, and image pool hits, misses and reused
+     * bytes.
+     */
+    private static long[] readCounters() {
+        long collections = 0;
+        long collectionMillis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            // Undefined counts are -1
+            collections += Math.max(0, gc.getCollectionCount());
+            collectionMillis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[]{collections, collectionMillis,
+            ImagePool.getHits(), ImagePool.getMisses(), ImagePool.getReusedBytes()};
+    }
+
+    /**
+     * @return The wall clock time the run started at, in epoch milliseconds
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * @return The wall clock time the run ended at, or the current time if it
+     * is still running, in epoch milliseconds
+     */
+    public long getEndMillis() {
+        return startMillis + getElapsedNanos() / 1000000L;
+    }
+
+    /**
+     * @return The number of runs these metrics cover, more than 1 when merged
+     */
+    public int getParts() {
+        return parts;
+    }
+
+    public long getElapsedNanos() {
+        long end = endNanos;
+        return (end < 0 ? System.nanoTime() : end) - startNanos;
+    }
+
+    public long getSucceeded() {
+        return succeeded.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public double getImagesPerSecond() {
+        return getSucceeded() / Math.max(1e-9, getElapsedNanos() / 1e9);
+    }
+
+    /**
+     * @return The source megabytes processed per second
+     */
+    public double getMegabytesPerSecond() {
+        return getBytesIn() / (1024.0 * 1024.0) / Math.max(1e-9, getElapsedNanos() / 1e9);
+    }
+
+    /**
+     * @return The number of sources decoded on the low-memory path because
+     * they didn't fit in the memory budget
+     */
+    public long getLowMemory() {
+        return lowMemory.sum();
+    }
+
+    /**
+     * @return The number of sources decoded and downscaled in strips
+     */
+    public long getStreamed() {
+        return streamed.sum();
+    }
+
+    /**
+     * @return The number of sources whose outputs were reused from an
+     * identical source
+     */
+    public long getDeduplicated() {
+        return deduplicated.sum();
+    }
+
+    /**
+     * @return The CPU time it took to produce the reused outputs
+     */
+    public long getDedupSavedNanos() {
+        return dedupSavedNanos.sum();
+    }
+
+    /**
+     * @return The number of outputs scaled from the thumbnail embedded in
+     * their source
+     */
+    public long getThumbnailOutputs() {
+        return thumbnailOutputs.sum();
+    }
+
+    /**
+     * @return The number of sources whose outputs were all scaled from their
+     * embedded thumbnail, so the image itself was never decoded
+     */
+    public long getDecodesSkipped() {
+        return decodesSkipped.sum();
+    }
+
+    /**
+     * Estimates the decode time the embedded thumbnails saved, from the time
+     * per source pixel of the images that were decoded in the same run, less
+     * the time spent reading the thumbnails. Sources that still had to be
+     * decoded for their larger outputs aren't counted.
+     *
+     * @return The estimated time saved, or -1 if no image was decoded to
+     * estimate it from
+     */
+    public long getThumbnailSavedNanos() {
+        long pixels = decodedPixels.sum();
+        if (pixels == 0) {
+            return -1;
+        }
+        double nanosPerPixel = ((double) decodeNanos.sum()) / pixels;
+        return Math.max(0, (long) (skippedPixels.sum() * nanosPerPixel) - skippedDecodeNanos.sum());
+    }
+
+    /**
+     * @return The number of sources whose outputs were produced in parallel
+     * subtasks
+     */
+    public long getSplit() {
+        return split.sum();
+    }
+
+    /**
+     * @return The time the workers took from the start of the first task to
+     * the end of the last, the longest of any run when merged
+     */
+    public long getMakespanNanos() {
+        return makespanNanos.get();
+    }
+
+    /**
+     * @return The longest time a single source took on its worker. No
+     * schedule can finish sooner.
+     */
+    public synchronized long getCriticalPathNanos() {
+        return criticalPathNanos;
+    }
+
+    /**
+     * @return The name of the source on the critical path, or null if no
+     * source was scaled
+     */
+    public synchronized String getCriticalPathSource() {
+        return criticalPathSource;
+    }
+
+    /**
+     * @return The worker time available over the makespan, the number of
+     * workers times the makespan, added up over every run when merged
+     */
+    public long getCoreNanos() {
+        return coreNanos.sum();
+    }
+
+    /**
+     * @return The worker time spent with nothing to run, mostly at the end of
+     * a run while the last tasks finish
+     */
+    public long getIdleCoreNanos() {
+        return Math.max(0, coreNanos.sum() - busyNanos.sum());
+    }
+
+    /**
+     * Computes the shortest makespan any schedule could have reached: the
+     * busy time spread evenly over the workers, or the critical path if that
+     * is longer.
+     *
+     * @return The lower bound, 0 if the schedule wasn't recorded
+     */
+    public long getMakespanLowerBoundNanos() {
+        long core = coreNanos.sum();
+        if (core == 0) {
+            return 0;
+        }
+        long evenlySpread = (long) (((double) busyNanos.sum()) * getMakespanNanos() / core);
+        return Math.max(getCriticalPathNanos(), Math.min(evenlySpread, getMakespanNanos()));
+    }
+
+    /**
+     * @return The bytes the workers allocated, 0 if the JVM doesn't measure
+     * allocation
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    /**
+     * @return The megabytes the workers allocated per second of the run
+     */
+    public double getAllocationMegabytesPerSecond() {
+        return getAllocatedBytes() / (1024.0 * 1024.0) / Math.max(1e-9, getElapsedNanos() / 1e9);
+    }
+
+    /**
+     * @return The number of garbage collections during the run
+     */
+    public long getGcCount() {
+        return gcCount.sum();
+    }
+
+    /**
+     * @return The time the garbage collectors took during the run. With
+     * concurrent collectors, this includes time the application kept running.
+     */
+    public long getGcMillis() {
+        return gcMillis.sum();
+    }
+
+    /**
+     * @return The number of images reused from the image pool
+     */
+    public long getPoolHits() {
+        return poolHits.sum();
+    }
+
+    /**
+     * @return The number of images that couldn't be reused from the image
+     * pool and were allocated
+     */
+    public long getPoolMisses() {
+        return poolMisses.sum();
+    }
+
+    /**
+     * @return The bytes of pixel arrays reused from the image pool
+     */
+    public long getPoolReusedBytes() {
+        return poolReusedBytes.sum();
+    }
+
+    /**
+     * @return The budget tasks were admitted under, or null if there was none
+     */
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public long getPeakHeapBytes() {
+        return peakHeap.get();
+    }
+
+    public LatencyHistogram getStage(Stage stage) {
+        return stages.get(stage);
+    }
+
+    /**
+     * @return The histogram of total processing time per task, excluding the
+     * time spent queued or waiting for memory
+     */
+    public LatencyHistogram getTotal() {
+        return total;
+    }
+
+    /**
+     * @return The metrics of each output profile by name
+     */
+    public Map<String, ProfileMetrics> getProfiles() {
+        return profiles;
+    }
+
+    public List<Snapshot> getSnapshots() {
+        synchronized (snapshots) {
+            return new ArrayList<>(snapshots);
+        }
+    }
+
+    /**
+     * The metrics of a single output profile.
+     */
+    public static class ProfileMetrics {
+
+        private final LongAdder bytes = new LongAdder();
+        private final LatencyHistogram time = new LatencyHistogram();
+        private final LatencyHistogram encode = new LatencyHistogram();
+
+        void record(ProfileResult result) {
+            bytes.add(result.getBytes());
+            time.record(result.getTotalNanos());
+            encode.record(result.getEncodeNanos());
+        }
+
+        void add(ProfileMetrics other) {
+            bytes.add(other.getBytes());
+            time.add(other.getTime());
+            encode.add(other.getEncodeTime());
+        }
+
+        /**
+         * @return The total size of the outputs of this profile
+         */
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        /**
+         * @return The histogram of the time spent resizing, encoding and
+         * writing each output of this profile
+         */
+        public LatencyHistogram getTime() {
+            return time;
+        }
+
+        /**
+         * @return The histogram of the time spent encoding each output of
+         * this profile
+         */
+        public LatencyHistogram getEncodeTime() {
+            return encode;
+        }
+    }
+
+    /**
+     * The progress of a run at a point in time.
+     */
+    public static class Snapshot {
+
+        private final long elapsedNanos;
+        private final long succeeded;
+        private final long failed;
+        private final double imagesPerSecond;
+        private final double megabytesPerSecond;
+        private final long heapBytes;
+
+        Snapshot(long elapsedNanos, long succeeded, long failed, double imagesPerSecond,
+                double megabytesPerSecond, long heapBytes) {
+            this.elapsedNanos = elapsedNanos;
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.imagesPerSecond = imagesPerSecond;
+            this.megabytesPerSecond = megabytesPerSecond;
+            this.heapBytes = heapBytes;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public long getSucceeded() {
+            return succeeded;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public double getImagesPerSecond() {
+            return imagesPerSecond;
+        }
+
+        public double getMegabytesPerSecond() {
+            return megabytesPerSecond;
+        }
+
+        public long getHeapBytes() {
+            return heapBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[%.0fs] %d done, %d failed, %.1f images/s, %.2f MB/s, heap %d MB",
+                    elapsedNanos / 1e9, succeeded, failed, imagesPerSecond, megabytesPerSecond,
+                    heapBytes / (1024 * 1024));
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.centumengineering.imagescaler.metrics;
+
+import com.centumengineering.imagescaler.scaling.MemoryBudget;
+import com.centumengineering.imagescaler.scaling.StageTimes.Stage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Writes the metrics of a run as a human readable summary, or as a JSON or
+ * CSV report for other tools.
+ *
+ * @author Phani Gaddipati
+ */
+public class RunReport {
+
+    private static final double[] PERCENTILES = {50, 90, 99};
+
+    private RunReport() {
+    }
+
+    /**
+     * Writes the report to the given file. A .csv extension writes CSV,
+     * anything else writes JSON.
+     *
+     * @param metrics The metrics of the run
+     * @param file The report file
+     * @throws IOException
+     */
+    public static void write(RunMetrics metrics, File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        try (PrintWriter out = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+            if ("csv".equalsIgnoreCase(FilenameUtils.getExtension(file.getName()))) {
+                writeCsv(metrics, out);
+            } else {
+                writeJson(metrics, out);
+            }
+        }
+    }
+
+    /**
+     * Prints a short summary of the run.
+     *
+     * @param metrics The metrics of the run
+     * @param out The stream to print to
+     */
+    public static void printSummary(RunMetrics metrics, PrintStream out) {
+        if (metrics.getParts() > 1) {
+            out.println("Merged from " + metrics.getParts() + " runs");
+        }
+        out.println(String.format(Locale.ROOT,
+                "Processed %d files (%d failed, %d skipped) in %.1fs: %.1f images/s, %.2f MB/s, peak heap %d MB",
+                metrics.getSucceeded(), metrics.getFailed(), metrics.getSkipped(),
+                metrics.getElapsedNanos() / 1e9, metrics.getImagesPerSecond(),
+                metrics.getMegabytesPerSecond(), metrics.getPeakHeapBytes() / (1024 * 1024)));
+        if (metrics.getDeduplicated() > 0) {
+            out.println(String.format(Locale.ROOT, "Deduplicated %d files, saving %.1fs of CPU time",
+                    metrics.getDeduplicated(), metrics.getDedupSavedNanos() / 1e9));
+        }
+        if (metrics.getThumbnailOutputs() > 0) {
+            long saved = metrics.getThumbnailSavedNanos();
+            out.println(String.format(Locale.ROOT,
+                    "Embedded thumbnails: %d outputs, %d decodes skipped, saving %s of decode time",
+                    metrics.getThumbnailOutputs(), metrics.getDecodesSkipped(),
+                    saved < 0 ? "an unknown amount" : String.format(Locale.ROOT, "~%.1fs", saved / 1e9)));
+        }
+        if (metrics.getCoreNanos() > 0) {
+            out.println(String.format(Locale.ROOT,
+                    "Schedule: makespan %.1fs (lower bound %.1fs), critical path %.1fs%s,"
+                    + " idle cores %.1fs of %.1fs (%.0f%%), %d files split",
+                    metrics.getMakespanNanos() / 1e9, metrics.getMakespanLowerBoundNanos() / 1e9,
+                    metrics.getCriticalPathNanos() / 1e9,
+                    metrics.getCriticalPathSource() != null ? " (" + metrics.getCriticalPathSource() + ")" : "",
+                    metrics.getIdleCoreNanos() / 1e9, metrics.getCoreNanos() / 1e9,
+                    100.0 * metrics.getIdleCoreNanos() / metrics.getCoreNanos(), metrics.getSplit()));
+        }
+        out.println(String.format(Locale.ROOT,
+                "Allocation: %s, image pool %d reused (%.1f MB), %d allocated;"
+                + " GC: %d collections, %.1fs (%.0f%% of the run)",
+                metrics.getAllocatedBytes() > 0 ? String.format(Locale.ROOT, "%.1f MB by workers (%.1f MB/s)",
+                        metrics.getAllocatedBytes() / (1024.0 * 1024.0), metrics.getAllocationMegabytesPerSecond())
+                        : "unknown",
+                metrics.getPoolHits(), metrics.getPoolReusedBytes() / (1024.0 * 1024.0), metrics.getPoolMisses(),
+                metrics.getGcCount(), metrics.getGcMillis() / 1e3,
+                100.0 * metrics.getGcMillis() * 1e6 / Math.max(1, metrics.getElapsedNanos())));
+        MemoryBudget budget = metrics.getMemoryBudget();
+        if (budget != null) {
+            out.println(String.format(Locale.ROOT,
+                    "Memory budget %d MB: %d admitted, %d waited, %d ran alone, %d low-memory decodes,"
+                    + " %d streamed, peak %d MB reserved",
+                    budget.getCapacity() / (1024 * 1024), budget.getAdmitted(), budget.getWaited(),
+                    budget.getOversized(), metrics.getLowMemory(), metrics.getStreamed(),
+                    budget.getPeakUsed() / (1024 * 1024)));
+        }
+        for (Stage stage : Stage.values()) {
+            out.println("  " + describe(stage.name().toLowerCase(Locale.ROOT), metrics.getStage(stage)));
+        }
+        out.println("  " + describe("total", metrics.getTotal()));
+        for (Map.Entry<String, RunMetrics.ProfileMetrics> profile : metrics.getProfiles().entrySet()) {
+            out.println("  " + describe(profile.getKey(), profile.getValue().getTime())
+                    + "  " + profile.getValue().getBytes() + " bytes");
+        }
+    }
+
+    private static String describe(String name, LatencyHistogram histogram) {
+        return String.format(Locale.ROOT, "%-10s mean %8.1fms  p50 %8.1fms  p90 %8.1fms  p99 %8.1fms  max %8.1fms",
+                name, histogram.getMeanNanos() / 1e6, histogram.getPercentileNanos(50) / 1e6,
+                histogram.getPercentileNanos(90) / 1e6, histogram.getPercentileNanos(99) / 1e6,
+                histogram.getMaxNanos() / 1e6);
+    }
+
+    private static void writeJson(RunMetrics metrics, PrintWriter out) {
+        out.println("{");
+        out.println("  \"elapsedSeconds\": " + number(metrics.getElapsedNanos() / 1e9) + ",");
+        out.println("  \"parts\": " + metrics.getParts() + ",");
+        out.println("  \"succeeded\": " + metrics.getSucceeded() + ",");
+        out.println("  \"failed\": " + metrics.getFailed() + ",");
+        out.println("  \"skipped\": " + metrics.getSkipped() + ",");
+        out.println("  \"bytesIn\": " + metrics.getBytesIn() + ",");
+        out.println("  \"bytesOut\": " + metrics.getBytesOut() + ",");
+        out.println("  \"imagesPerSecond\": " + number(metrics.getImagesPerSecond()) + ",");
+        out.println("  \"megabytesPerSecond\": " + number(metrics.getMegabytesPerSecond()) + ",");
+        out.println("  \"peakHeapBytes\": " + metrics.getPeakHeapBytes() + ",");
+        out.println("  \"streamed\": " + metrics.getStreamed() + ",");
+        out.println("  \"deduplicated\": " + metrics.getDeduplicated() + ",");
+        out.println("  \"dedupSavedCpuSeconds\": " + number(metrics.getDedupSavedNanos() / 1e9) + ",");
+        out.println("  \"thumbnailOutputs\": " + metrics.getThumbnailOutputs() + ",");
+        out.println("  \"thumbnailDecodesSkipped\": " + metrics.getDecodesSkipped() + ",");
+        out.println("  \"thumbnailSavedSeconds\": " + (metrics.getThumbnailSavedNanos() < 0 ? "null"
+                : number(metrics.getThumbnailSavedNanos() / 1e9)) + ",");
+        out.println("  \"makespanSeconds\": " + number(metrics.getMakespanNanos() / 1e9) + ",");
+        out.println("  \"makespanLowerBoundSeconds\": " + number(metrics.getMakespanLowerBoundNanos() / 1e9) + ",");
+        out.println("  \"criticalPathSeconds\": " + number(metrics.getCriticalPathNanos() / 1e9) + ",");
+        out.println("  \"criticalPathSource\": " + (metrics.getCriticalPathSource() == null ? "null"
+                : "\"" + metrics.getCriticalPathSource().replace("\\", "\\\\").replace("\"", "\\\"") + "\"") + ",");
+        out.println("  \"idleCoreSeconds\": " + number(metrics.getIdleCoreNanos() / 1e9) + ",");
+        out.println("  \"coreSeconds\": " + number(metrics.getCoreNanos() / 1e9) + ",");
+        out.println("  \"split\": " + metrics.getSplit() + ",");
+        out.println("  \"allocatedBytes\": " + metrics.getAllocatedBytes() + ",");
+        out.println("  \"allocationMegabytesPerSecond\": " + number(metrics.getAllocationMegabytesPerSecond()) + ",");
+        out.println("  \"poolHits\": " + metrics.getPoolHits() + ",");
+        out.println("  \"poolMisses\": " + metrics.getPoolMisses() + ",");
+        out.println("  \"poolReusedBytes\": " + metrics.getPoolReusedBytes() + ",");
+        out.println("  \"gcCount\": " + metrics.getGcCount() + ",");
+        out.println("  \"gcSeconds\": " + number(metrics.getGcMillis() / 1e3) + ",");
+        MemoryBudget budget = metrics.getMemoryBudget();
+        if (budget != null) {
+            out.println("  \"memoryBudget\": {\"capacityBytes\": " + budget.getCapacity()
+                    + ", \"peakReservedBytes\": " + budget.getPeakUsed()
+                    + ", \"admitted\": " + budget.getAdmitted()
+                    + ", \"waited\": " + budget.getWaited()
+                    + ", \"oversized\": " + budget.getOversized()
+                    + ", \"bypassed\": " + budget.getBypassed()
+                    + ", \"lowMemory\": " + metrics.getLowMemory() + "},");
+        }
+        out.println("  \"stages\": {");
+        for (Stage stage : Stage.values()) {
+            out.println("    \"" + stage.name().toLowerCase(Locale.ROOT) + "\": "
+                    + histogramJson(metrics.getStage(stage)) + ",");
+        }
+        out.println("    \"total\": " + histogramJson(metrics.getTotal()));
+        out.println("  },");
+        out.println("  \"profiles\": {");
+        int remaining = metrics.getProfiles().size();
+        for (Map.Entry<String, RunMetrics.ProfileMetrics> profile : metrics.getProfiles().entrySet()) {
+            out.println("    \"" + profile.getKey().replace("\"", "\\\"") + "\": {\"bytes\": "
+                    + profile.getValue().getBytes() + ", \"time\": "
+                    + histogramJson(profile.getValue().getTime()) + ", \"encode\": "
+                    + histogramJson(profile.getValue().getEncodeTime()) + "}" + (--remaining > 0 ? "," : ""));
+        }
+        out.println("  },");
+        out.println("  \"progress\": [");
+        List<RunMetrics.Snapshot> snapshots = metrics.getSnapshots();
+        for (int i = 0; i < snapshots.size(); i++) {
+            RunMetrics.Snapshot s = snapshots.get(i);
+            out.println("    {\"elapsedSeconds\": " + number(s.getElapsedNanos() / 1e9)
+                    + ", \"succeeded\": " + s.getSucceeded()
+                    + ", \"failed\": " + s.getFailed()
+                    + ", \"imagesPerSecond\": " + number(s.getImagesPerSecond())
+                    + ", \"megabytesPerSecond\": " + number(s.getMegabytesPerSecond())
+                    + ", \"heapBytes\": " + s.getHeapBytes() + "}"
+                    + (i + 1 < snapshots.size() ? "," : ""));
+        }
+        out.println("  ]");
+        out.println("}");
+    }
+
+    private static String histogramJson(LatencyHistogram histogram) {
+        StringBuilder sb = new StringBuilder("{\"count\": ").append(histogram.getCount())
+                .append(", \"meanMillis\": ").append(number(histogram.getMeanNanos() / 1e6));
+        for (double p : PERCENTILES) {
+            sb.append(", \"p").append((int) p).append("Millis\": ")
+                    .append(number(histogram.getPercentileNanos(p) / 1e6));
+        }
+        return sb.append(", \"maxMillis\": ").append(number(histogram.getMaxNanos() / 1e6))
+                .append("}").toString();
+    }
+
+    private static void writeCsv(RunMetrics metrics, PrintWriter out) {
+        out.println("metric,value");
+        out.println("elapsedSeconds," + number(metrics.getElapsedNanos() / 1e9));
+        out.println("parts," + metrics.getParts());
+        out.println("succeeded," + metrics.getSucceeded());
+        out.println("failed," + metrics.getFailed());
+        out.println("skipped," + metrics.getSkipped());
+        out.println("bytesIn," + metrics.getBytesIn());
+        out.println("bytesOut," + metrics.getBytesOut());
+        out.println("imagesPerSecond," + number(metrics.getImagesPerSecond()));
+        out.println("megabytesPerSecond," + number(metrics.getMegabytesPerSecond()));
+        out.println("peakHeapBytes," + metrics.getPeakHeapBytes());
+        out.println("streamed," + metrics.getStreamed());
+        out.println("deduplicated," + metrics.getDeduplicated());
+        out.println("dedupSavedCpuSeconds," + number(metrics.getDedupSavedNanos() / 1e9));
+        out.println("thumbnailOutputs," + metrics.getThumbnailOutputs());
+        out.println("thumbnailDecodesSkipped," + metrics.getDecodesSkipped());
+        out.println("thumbnailSavedSeconds," + (metrics.getThumbnailSavedNanos() < 0 ? ""
+                : number(metrics.getThumbnailSavedNanos() / 1e9)));
+        out.println("makespanSeconds," + number(metrics.getMakespanNanos() / 1e9));
+        out.println("makespanLowerBoundSeconds," + number(metrics.getMakespanLowerBoundNanos() / 1e9));
+        out.println("criticalPathSeconds," + number(metrics.getCriticalPathNanos() / 1e9));
+        out.println("idleCoreSeconds," + number(metrics.getIdleCoreNanos() / 1e9));
+        out.println("coreSeconds," + number(metrics.getCoreNanos() / 1e9));
+        out.println("split," + metrics.getSplit());
+        out.println("allocatedBytes," + metrics.getAllocatedBytes());
+        out.println("allocationMegabytesPerSecond," + number(metrics.getAllocationMegabytesPerSecond()));
+        out.println("poolHits," + metrics.getPoolHits());
+        out.println("poolMisses," + metrics.getPoolMisses());
+        out.println("poolReusedBytes," + metrics.getPoolReusedBytes());
+        out.println("gcCount," + metrics.getGcCount());
+        out.println("gcSeconds," + number(metrics.getGcMillis() / 1e3));
+        MemoryBudget budget = metrics.getMemoryBudget();
+        if (budget != null) {
+            out.println("memoryBudget.capacityBytes," + budget.getCapacity());
+            out.println("memoryBudget.peakReservedBytes," + budget.getPeakUsed());
+            out.println("memoryBudget.admitted," + budget.getAdmitted());
+            out.println("memoryBudget.waited," + budget.getWaited());
+            out.println("memoryBudget.oversized," + budget.getOversized());
+            out.println("memoryBudget.bypassed," + budget.getBypassed());
+            out.println("memoryBudget.lowMemory," + metrics.getLowMemory());
+        }
+        for (Stage stage : Stage.values()) {
+            histogramCsv(out, stage.name().toLowerCase(Locale.ROOT), metrics.getStage(stage));
+        }
+        histogramCsv(out, "total", metrics.getTotal());
+        for (Map.Entry<String, RunMetrics.ProfileMetrics> profile : metrics.getProfiles().entrySet()) {
+            String name = "profile." + profile.getKey().replace(",", "_");
+            out.println(name + ".bytes," + profile.getValue().getBytes());
+            histogramCsv(out, name + ".time", profile.getValue().getTime());
+            histogramCsv(out, name + ".encode", profile.getValue().getEncodeTime());
+        }
+    }
+
+    private static void histogramCsv(PrintWriter out, String name, LatencyHistogram histogram) {
+        out.println(name + ".count," + histogram.getCount());
+        out.println(name + ".meanMillis," + number(histogram.getMeanNanos() / 1e6));
+        for (double p : PERCENTILES) {
+            out.println(name + ".p" + (int) p + "Millis," + number(histogram.getPercentileNanos(p) / 1e6));
+        }
+        out.println(name + ".maxMillis," + number(histogram.getMaxNanos() / 1e6));
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
@@ -0,0 +1,163 @@
+package com.centumengineering.imagescaler.pack;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * The location and description of one output stored in a pack, as recorded
+ * in the pack index.
+ *
+ * Each index record is its length, the fields of the entry, and a CRC32 of
+ * the fields, so a record cut short by a crash is detected and ignored.
+ *
+ * @author Phani Gaddipati
+ */
+public class PackEntry {
+
+    /**
+     * The longest index record that is accepted, well above any real key.
+     */
+    private static final int MAX_RECORD_LENGTH = 1 << 20;
+
+    private final String key;
+    private final int segment;
+    private final long offset;
+    private final int length;
+    private final String format;
+    private final int width;
+    private final int height;
+
+    public PackEntry(String key, int segment, long offset, int length, String format, int width, int height) {
+        this.key = key;
+        this.segment = segment;
+        this.offset = offset;
+        this.length = length;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * @return The name the output is stored under, its output file name
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return The number of the segment file holding the output
+     */
+    public int getSegment() {
+        return segment;
+    }
+
+    /**
+     * @return The position of the output in its segment
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return The size of the encoded output
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Encodes the entry as an index record.
+     *
+     * @return The record
+     */
+    byte[] toRecord() {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(64 + key.length());
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeUTF(key);
+            out.writeInt(segment);
+            out.writeLong(offset);
+            out.writeInt(length);
+            out.writeUTF(format);
+            out.writeInt(width);
+            out.writeInt(height);
+            byte[] fields = body.toByteArray();
+
+            ByteArrayOutputStream record = new ByteArrayOutputStream(fields.length + 8);
+            out = new DataOutputStream(record);
+            out.writeInt(fields.length);
+            out.write(fields);
+            out.writeInt((int) checksum(fields));
+            return record.toByteArray();
+        } catch (IOException ex) {
+            // Not thrown when writing to memory
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Reads every complete record of an index, stopping at the first record
+     * that is incomplete or corrupt.
+     *
+     * @param index The index file
+     * @param sink The consumer of the entries, in the order they were written
+     * @return The length of the valid part of the index
+     * @throws IOException If the index can't be read
+     */
+    static long readIndex(File index, Consumer<PackEntry> sink) throws IOException {
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)))) {
+            while (true) {
+                int length = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                    break;
+                }
+                byte[] fields = new byte[length];
+                in.readFully(fields);
+                if (in.readInt() != (int) checksum(fields)) {
+                    break;
+                }
+                DataInputStream body = new DataInputStream(new ByteArrayInputStream(fields));
+                sink.accept(new PackEntry(body.readUTF(), body.readInt(), body.readLong(), body.readInt(),
+                        body.readUTF(), body.readInt(), body.readInt()));
+                valid += length + 8;
+            }
+        } catch (EOFException ex) {
+            // The end of the index, or a record cut short
+        }
+        return valid;
+    }
+
+    private static long checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+
+    @Override
+    public String toString() {
+        return key + " (" + format + ", " + width + "x" + height + ", " + length + " bytes at "
+                + segment + ":" + offset + ")";
+    }
+}
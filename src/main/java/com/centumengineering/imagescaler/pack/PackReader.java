@@ -0,0 +1,161 @@
+package com.centumengineering.imagescaler.pack;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Serves the outputs stored in a pack written by a {@link PackWriter}. The
+ * whole index is loaded when the reader is opened, so an output is found
+ * without touching the disk and read with a single positioned read, or
+ * served straight from the page cache as a slice of its memory mapped
+ * segment.
+ *
+ * The reader sees the pack as it was when opened. It is safe to use from any
+ * number of threads.
+ *
+ * @author Phani Gaddipati
+ */
+public class PackReader implements AutoCloseable {
+
+    private final File dir;
+    private final Map<String, PackEntry> entries = new HashMap<>();
+    private final Map<Integer, RandomAccessFile> segments = new HashMap<>();
+    private final Map<Integer, MappedByteBuffer> mapped = new HashMap<>();
+
+    /**
+     * Opens the pack in the given directory.
+     *
+     * @param dir The pack directory
+     * @throws IOException If the pack doesn't exist or can't be read
+     */
+    public PackReader(File dir) throws IOException {
+        this.dir = dir;
+        File index = PackWriter.getIndexFile(dir);
+        if (!index.isFile()) {
+            throw new FileNotFoundException("No pack in " + dir.getAbsolutePath());
+        }
+        // Later entries replace earlier ones with the same key
+        PackEntry.readIndex(index, entry -> entries.put(entry.getKey(), entry));
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * @return The number of outputs in the pack
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Every output in the pack
+     */
+    public Collection<PackEntry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * @param key The output name
+     * @return The entry of the output, or null if the pack doesn't have it
+     */
+    public PackEntry get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Reads an output with one positioned read.
+     *
+     * @param key The output name
+     * @return The encoded output, or null if the pack doesn't have it
+     * @throws IOException If the segment can't be read
+     */
+    public byte[] read(String key) throws IOException {
+        PackEntry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        FileChannel channel = getSegment(entry.getSegment()).getChannel();
+        ByteBuffer buffer = ByteBuffer.allocate(entry.getLength());
+        long position = entry.getOffset();
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Segment " + entry.getSegment() + " is truncated");
+            }
+            position += read;
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Gets an output as a slice of its memory mapped segment, without copying
+     * it. Each segment is mapped once, the first time one of its outputs is
+     * requested.
+     *
+     * @param key The output name
+     * @return A read only buffer over the encoded output, or null if the pack
+     * doesn't have it
+     * @throws IOException If the segment can't be mapped
+     */
+    public ByteBuffer map(String key) throws IOException {
+        PackEntry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        ByteBuffer slice = getMapped(entry.getSegment()).duplicate();
+        if (entry.getOffset() + entry.getLength() > slice.capacity()) {
+            throw new IOException("Segment " + entry.getSegment() + " is truncated");
+        }
+        slice.position((int) entry.getOffset());
+        slice.limit((int) entry.getOffset() + entry.getLength());
+        return slice.slice();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+        for (RandomAccessFile segment : segments.values()) {
+            try {
+                segment.close();
+            } catch (IOException ex) {
+                failure = ex;
+            }
+        }
+        segments.clear();
+        // Mappings stay valid until collected
+        mapped.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private synchronized RandomAccessFile getSegment(int number) throws IOException {
+        RandomAccessFile segment = segments.get(number);
+        if (segment == null) {
+            segment = new RandomAccessFile(PackWriter.getSegmentFile(dir, number), "r");
+            segments.put(number, segment);
+        }
+        return segment;
+    }
+
+    private synchronized MappedByteBuffer getMapped(int number) throws IOException {
+        MappedByteBuffer buffer = mapped.get(number);
+        if (buffer == null) {
+            FileChannel channel = getSegment(number).getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.put(number, buffer);
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,136 @@
+package com.centumengineering.imagescaler.pack;
+
+import com.centumengineering.imagescaler.scaling.ImageSource;
+import com.centumengineering.imagescaler.scaling.OutputProfile;
+import com.centumengineering.imagescaler.scaling.OutputSink;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Appends every output to a pack in the output directory of its profile,
+ * stored under the name its output file would have had.
+ *
+ * @author Phani Gaddipati
+ */
+public class PackSink implements OutputSink, AutoCloseable {
+
+    private final Map<File, PackWriter> writers = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a sink which opens each pack when it is first written to.
+     */
+    public PackSink() {
+    }
+
+    /**
+     * Creates a sink with the packs of the given profiles already open, so
+     * they can be checked for existing outputs before anything is written.
+     *
+     * @param profiles The output profiles
+     * @throws IOException If a pack can't be opened
+     */
+    public PackSink(List<OutputProfile> profiles) throws IOException {
+        try {
+            for (OutputProfile profile : profiles) {
+                getWriter(profile.getOutputDir());
+            }
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    @Override
+    public File write(ImageSource source, OutputProfile profile, byte[] bytes, int width, int height)
+            throws IOException {
+        PackWriter writer = getWriter(profile.getOutputDir());
+        PackEntry entry = writer.append(profile.getOutputName(source.getName()),
+                profile.getOutputFormat(source.getName()), width, height, bytes);
+        return PackWriter.getSegmentFile(writer.getDir(), entry.getSegment());
+    }
+
+    /**
+     * Adds the output of the original source to the pack under the name of
+     * the duplicate, pointing at the same bytes. Packs are never linked or
+     * copied, so the link setting is ignored.
+     */
+    @Override
+    public File reuse(ImageSource source, OutputProfile profile, String originalName, boolean link)
+            throws IOException {
+        PackWriter writer = getWriter(profile.getOutputDir());
+        PackEntry entry = writer.alias(profile.getOutputName(source.getName()), profile.getOutputName(originalName));
+        return entry == null ? null : PackWriter.getSegmentFile(writer.getDir(), entry.getSegment());
+    }
+
+    /**
+     * Checks whether the packs hold every output of the given source. A pack
+     * that isn't open yet counts as empty.
+     *
+     * @param source The source image
+     * @param profiles The outputs produced for each source
+     * @return Whether every output was written
+     */
+    public boolean containsAll(ImageSource source, List<OutputProfile> profiles) {
+        for (OutputProfile profile : profiles) {
+            PackWriter writer = writers.get(profile.getOutputDir().getAbsoluteFile());
+            if (writer == null || !writer.contains(profile.getOutputName(source.getName()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the index files of the packs the given profiles are written to.
+     *
+     * @param profiles The output profiles
+     * @return The index file of each profile
+     */
+    public static File[] getIndexFiles(List<OutputProfile> profiles) {
+        File[] indexes = new File[profiles.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = PackWriter.getIndexFile(profiles.get(i).getOutputDir().getAbsoluteFile());
+        }
+        return indexes;
+    }
+
+    /**
+     * Flushes and closes every pack.
+     *
+     * @throws IOException If a pack can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (PackWriter writer : writers.values()) {
+            try {
+                writer.close();
+            } catch (IOException ex) {
+                failure = ex;
+            }
+        }
+        writers.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private PackWriter getWriter(File outputDir) throws IOException {
+        try {
+            // Profiles sharing a directory share its pack
+            return writers.computeIfAbsent(outputDir.getAbsoluteFile(), dir -> {
+                try {
+                    return new PackWriter(dir);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.centumengineering.imagescaler.pack;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Appends encoded outputs to a pack: a directory holding a few large segment
+ * files with the outputs back to back, and an index recording where each
+ * output is. Writing a pack entry is two appends to files that are already
+ * open, so no file is created and no directory is updated per output.
+ *
+ * Entries are only ever appended. An output written again under the same key
+ * is appended as a new entry, which replaces the old one when the pack is
+ * read, and several keys may point at the same bytes. A pack is reopened
+ * where it left off, and an index record cut short by a crash is dropped.
+ *
+ * One pack must only be written by one writer at a time, which may be shared
+ * by any number of threads.
+ *
+ * @author Phani Gaddipati
+ */
+public class PackWriter implements AutoCloseable {
+
+    public static final String INDEX_FILE_NAME = "pack.idx";
+
+    /**
+     * The size a segment grows to before the next one is started. Segments
+     * are kept below 2 GB so each can be memory mapped whole.
+     */
+    public static final long DEFAULT_SEGMENT_SIZE = 1024L * 1024L * 1024L;
+
+    private final File dir;
+    private final long segmentSize;
+    private final RandomAccessFile indexFile;
+    private final FileChannel index;
+    private final Map<String, PackEntry> entries = new HashMap<>();
+    private RandomAccessFile segmentFile;
+    private FileChannel segment;
+    private int segmentNumber;
+
+    /**
+     * Opens the pack in the given directory, creating it if it doesn't exist.
+     *
+     * @param dir The pack directory
+     * @throws IOException If the pack can't be read or created
+     */
+    public PackWriter(File dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the pack in the given directory, creating it if it doesn't exist.
+     *
+     * @param dir The pack directory
+     * @param segmentSize The size a segment grows to before the next one is
+     * started
+     * @throws IOException If the pack can't be read or created
+     */
+    public PackWriter(File dir, long segmentSize) throws IOException {
+        this.dir = dir;
+        this.segmentSize = Math.min(segmentSize, Integer.MAX_VALUE);
+        dir.mkdirs();
+        File indexPath = getIndexFile(dir);
+        int lastSegment = 0;
+        long valid = 0;
+        if (indexPath.exists()) {
+            int[] last = new int[1];
+            valid = PackEntry.readIndex(indexPath, entry -> {
+                entries.put(entry.getKey(), entry);
+                last[0] = Math.max(last[0], entry.getSegment());
+            });
+            lastSegment = last[0];
+        }
+        indexFile = new RandomAccessFile(indexPath, "rw");
+        index = indexFile.getChannel();
+        try {
+            // Drop a record cut short by a crash
+            index.truncate(valid);
+            index.position(valid);
+            openSegment(lastSegment);
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Gets the index file of the pack in the given directory.
+     *
+     * @param dir The pack directory
+     * @return The index file
+     */
+    public static File getIndexFile(File dir) {
+        return new File(dir, INDEX_FILE_NAME);
+    }
+
+    /**
+     * Gets a segment file of the pack in the given directory.
+     *
+     * @param dir The pack directory
+     * @param segment The segment number
+     * @return The segment file
+     */
+    public static File getSegmentFile(File dir, int segment) {
+        return new File(dir, String.format(Locale.ROOT, "pack-%05d.dat", segment));
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * Checks whether the pack holds an output under the given key.
+     *
+     * @param key The key
+     * @return Whether the key was written
+     */
+    public synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Appends an output to the pack.
+     *
+     * @param key The name to store the output under
+     * @param format The format the output is encoded in
+     * @param width The width of the output
+     * @param height The height of the output
+     * @param bytes The encoded output
+     * @return The entry written
+     * @throws IOException If the pack can't be written
+     */
+    public synchronized PackEntry append(String key, String format, int width, int height, byte[] bytes)
+            throws IOException {
+        long offset = segment.size();
+        if (offset > 0 && offset + bytes.length > segmentSize) {
+            openSegment(segmentNumber + 1);
+            offset = 0;
+        }
+        writeFully(segment, ByteBuffer.wrap(bytes), offset);
+        // The entry is only recorded once its bytes are in place
+        PackEntry entry = new PackEntry(key, segmentNumber, offset, bytes.length, format, width, height);
+        writeRecord(entry);
+        return entry;
+    }
+
+    /**
+     * Stores an output already in the pack under another key as well,
+     * without writing its bytes again.
+     *
+     * @param key The new key
+     * @param existingKey The key the output is stored under
+     * @return The entry written, or null if the pack has no output under the
+     * existing key
+     * @throws IOException If the pack can't be written
+     */
+    public synchronized PackEntry alias(String key, String existingKey) throws IOException {
+        PackEntry existing = entries.get(existingKey);
+        if (existing == null || key.equals(existingKey)) {
+            return existing;
+        }
+        PackEntry entry = new PackEntry(key, existing.getSegment(), existing.getOffset(), existing.getLength(),
+                existing.getFormat(), existing.getWidth(), existing.getHeight());
+        writeRecord(entry);
+        return entry;
+    }
+
+    /**
+     * Forces everything written so far to disk.
+     *
+     * @throws IOException If the pack can't be written
+     */
+    public synchronized void flush() throws IOException {
+        segment.force(false);
+        index.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (segment != null) {
+                flush();
+                segmentFile.close();
+            }
+        } finally {
+            indexFile.close();
+        }
+    }
+
+    private void writeRecord(PackEntry entry) throws IOException {
+        ByteBuffer record = ByteBuffer.wrap(entry.toRecord());
+        while (record.hasRemaining()) {
+            index.write(record);
+        }
+        entries.put(entry.getKey(), entry);
+    }
+
+    private void openSegment(int number) throws IOException {
+        if (segmentFile != null) {
+            segment.force(false);
+            segmentFile.close();
+        }
+        segmentFile = new RandomAccessFile(getSegmentFile(dir, number), "rw");
+        segment = segmentFile.getChannel();
+        segmentNumber = number;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * An ImageInputStream reading straight from a buffer. Unlike a
+ * MemoryCacheImageInputStream over the same bytes, nothing is copied into a
+ * cache as it is read, and seeking back costs nothing.
+ *
+ * @author Phani Gaddipati
+ */
+class ByteBufferImageInputStream extends ImageInputStreamImpl {
+
+    private final ByteBuffer buffer;
+
+    /**
+     * @param buffer The bytes from its position to its limit. Its position is
+     * changed as the stream is read, so it must not be shared.
+     */
+    ByteBufferImageInputStream(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (streamPos >= buffer.limit()) {
+            return -1;
+        }
+        return buffer.get((int) streamPos++) & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        bitOffset = 0;
+        if (len == 0) {
+            return 0;
+        }
+        if (streamPos >= buffer.limit()) {
+            return -1;
+        }
+        int n = (int) Math.min(len, buffer.limit() - streamPos);
+        buffer.position((int) streamPos);
+        buffer.get(b, off, n);
+        streamPos += n;
+        return n;
+    }
+
+    @Override
+    public long length() {
+        return buffer.limit();
+    }
+
+    @Override
+    public boolean isCached() {
+        return true;
+    }
+
+    @Override
+    public boolean isCachedMemory() {
+        return true;
+    }
+}
@@ -0,0 +1,163 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Keeps the ImageReaders and ImageWriters used by each thread, so they are
+ * looked up in the service registry and created once per thread rather than
+ * for every file. A codec is reset when it is given back, and is only handed
+ * out to one user at a time; if a thread needs a second codec of the same
+ * kind at once, a new one is created and disposed of after use.
+ *
+ * Worker threads keep their codecs for as long as they live.
+ *
+ * @author Phani Gaddipati
+ */
+public class CodecPool {
+
+    private static final ThreadLocal<List<Entry<ImageReader>>> READERS = ThreadLocal.withInitial(ArrayList::new);
+    private static final ThreadLocal<List<Entry<ImageWriter>>> WRITERS = ThreadLocal.withInitial(ArrayList::new);
+
+    private CodecPool() {
+    }
+
+    /**
+     * Gets a reader that can decode the given stream. The stream is probed by
+     * the readers this thread already has before falling back to the service
+     * registry.
+     *
+     * @param in The image stream
+     * @return The reader, which must be given back with
+     * {@link #release(ImageReader)}, or null if no reader supports the stream
+     * @throws IOException If the stream can't be probed
+     */
+    public static ImageReader getReader(ImageInputStream in) throws IOException {
+        List<Entry<ImageReader>> readers = READERS.get();
+        for (Entry<ImageReader> entry : readers) {
+            if (!entry.inUse && entry.codec.getOriginatingProvider().canDecodeInput(in)) {
+                entry.inUse = true;
+                return entry.codec;
+            }
+        }
+        Iterator<ImageReader> it = ImageIO.getImageReaders(in);
+        if (!it.hasNext()) {
+            return null;
+        }
+        ImageReader reader = it.next();
+        if (!contains(readers, reader.getOriginatingProvider().getClass())) {
+            Entry<ImageReader> entry = new Entry<>(reader);
+            entry.inUse = true;
+            readers.add(entry);
+        }
+        return reader;
+    }
+
+    /**
+     * Gives a reader back, resetting it for the next use.
+     *
+     * @param reader The reader from {@link #getReader(ImageInputStream)}
+     */
+    public static void release(ImageReader reader) {
+        reader.reset();
+        if (!markFree(READERS.get(), reader)) {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Gets a writer that can encode the given image in the given format.
+     *
+     * @param img The image to encode
+     * @param format The format name
+     * @return The writer, which must be given back with
+     * {@link #release(ImageWriter)}, or null if there is no writer for the
+     * image in this format
+     */
+    public static ImageWriter getWriter(RenderedImage img, String format) {
+        ImageTypeSpecifier type = ImageTypeSpecifier.createFromRenderedImage(img);
+        List<Entry<ImageWriter>> writers = WRITERS.get();
+        for (Entry<ImageWriter> entry : writers) {
+            if (!entry.inUse && entry.format.equals(format)
+                    && entry.codec.getOriginatingProvider().canEncodeImage(type)) {
+                entry.inUse = true;
+                return entry.codec;
+            }
+        }
+        Iterator<ImageWriter> it = ImageIO.getImageWriters(type, format);
+        if (!it.hasNext()) {
+            return null;
+        }
+        ImageWriter writer = it.next();
+        if (!contains(writers, writer.getOriginatingProvider().getClass(), format)) {
+            Entry<ImageWriter> entry = new Entry<>(writer, format);
+            entry.inUse = true;
+            writers.add(entry);
+        }
+        return writer;
+    }
+
+    /**
+     * Gives a writer back, resetting it for the next use.
+     *
+     * @param writer The writer from {@link #getWriter(RenderedImage, String)}
+     */
+    public static void release(ImageWriter writer) {
+        writer.reset();
+        if (!markFree(WRITERS.get(), writer)) {
+            writer.dispose();
+        }
+    }
+
+    private static <T> boolean markFree(List<Entry<T>> entries, T codec) {
+        for (Entry<T> entry : entries) {
+            if (entry.codec == codec) {
+                entry.inUse = false;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(List<Entry<ImageReader>> readers, Class<?> provider) {
+        for (Entry<ImageReader> entry : readers) {
+            if (entry.codec.getOriginatingProvider().getClass() == provider) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(List<Entry<ImageWriter>> writers, Class<?> provider, String format) {
+        for (Entry<ImageWriter> entry : writers) {
+            if (entry.format.equals(format) && entry.codec.getOriginatingProvider().getClass() == provider) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Entry<T> {
+
+        private final T codec;
+        private final String format;
+        private boolean inUse;
+
+        Entry(T codec) {
+            this(codec, null);
+        }
+
+        Entry(T codec, String format) {
+            this.codec = codec;
+            this.format = format;
+        }
+    }
+}
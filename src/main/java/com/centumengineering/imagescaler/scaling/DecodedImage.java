@@ -0,0 +1,60 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A decoded image along with the dimensions of the source it was decoded
+ * from. The image may be smaller than the source if it was decoded with
+ * subsampling, or already downscaled if it was streamed.
+ *
+ * @author Phani Gaddipati
+ */
+public class DecodedImage {
+
+    private final BufferedImage image;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int subsampling;
+    private final boolean streamed;
+
+    public DecodedImage(BufferedImage image, int sourceWidth, int sourceHeight, int subsampling) {
+        this(image, sourceWidth, sourceHeight, subsampling, false);
+    }
+
+    public DecodedImage(BufferedImage image, int sourceWidth, int sourceHeight, int subsampling,
+            boolean streamed) {
+        this.image = image;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.subsampling = subsampling;
+        this.streamed = streamed;
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    public int getSourceWidth() {
+        return sourceWidth;
+    }
+
+    public int getSourceHeight() {
+        return sourceHeight;
+    }
+
+    /**
+     * @return The subsampling factor used in both directions, 1 if every
+     * pixel was decoded
+     */
+    public int getSubsampling() {
+        return subsampling;
+    }
+
+    /**
+     * @return Whether the image was decoded in strips and already downscaled
+     * to the largest output, rather than decoded whole
+     */
+    public boolean isStreamed() {
+        return streamed;
+    }
+}
@@ -0,0 +1,509 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.Locale;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.stream.ImageInputStream;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * A source image whose header has been read but whose pixels haven't been
+ * decoded yet. This lets the cost of decoding be estimated, and the decode
+ * tuned or delayed, before any pixel memory is allocated.
+ *
+ * @author Phani Gaddipati
+ */
+public class EncodedImage implements AutoCloseable {
+
+    /**
+     * The bytes per pixel assumed when the reader can't describe the decoded
+     * pixel layout.
+     */
+    private static final int DEFAULT_BYTES_PER_PIXEL = 4;
+
+    private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+
+    private final ImageSource source;
+    private final ImageInputStream in;
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+    private final int bytesPerPixel;
+    private final int decodedType;
+
+    private EncodedImage(ImageSource source, ImageInputStream in, ImageReader reader) throws IOException {
+        this.source = source;
+        this.in = in;
+        this.reader = reader;
+        this.width = reader.getWidth(0);
+        this.height = reader.getHeight(0);
+        this.bytesPerPixel = readBytesPerPixel(reader);
+        this.decodedType = readDecodedType(reader);
+    }
+
+    /**
+     * Opens the given file and reads its header.
+     *
+     * @param file The image file
+     * @return The opened image, which must be closed
+     * @throws IOException If the file can't be read or isn't a supported image
+     */
+    public static EncodedImage open(File file) throws IOException {
+        return open(ImageSource.of(file));
+    }
+
+    /**
+     * Opens the given source and reads its header.
+     *
+     * @param source The source image
+     * @return The opened image, which must be closed
+     * @throws IOException If the source can't be read or isn't a supported
+     * image
+     */
+    public static EncodedImage open(ImageSource source) throws IOException {
+        ImageInputStream in = source.openStream();
+        ImageReader reader = null;
+        try {
+            reader = CodecPool.getReader(in);
+            if (reader == null) {
+                throw new IOException("Unsupported image format " + source.getPath());
+            }
+            // Not seek forward only, so the image can be read again a region
+            // at a time
+            reader.setInput(in, false, true);
+            return new EncodedImage(source, in, reader);
+        } catch (IOException | RuntimeException ex) {
+            if (reader != null) {
+                CodecPool.release(reader);
+            }
+            in.close();
+            throw ex;
+        }
+    }
+
+    public ImageSource getSource() {
+        return source;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return The number of bytes each pixel takes once decoded
+     */
+    public int getBytesPerPixel() {
+        return bytesPerPixel;
+    }
+
+    /**
+     * Estimates the memory the decoded pixels take.
+     *
+     * @param subsampling The subsampling factor the image will be decoded with
+     * @return The estimated size in bytes
+     */
+    public long getDecodedBytes(int subsampling) {
+        return getDecodedPixels(subsampling) * bytesPerPixel;
+    }
+
+    /**
+     * @param subsampling The subsampling factor the image will be decoded with
+     * @return The number of pixels decoded at the given subsampling
+     */
+    public long getDecodedPixels(int subsampling) {
+        return ((long) ceilDiv(width, subsampling)) * ceilDiv(height, subsampling);
+    }
+
+    /**
+     * Decodes the image. When the codec decodes to a standard image type, the
+     * pixels are decoded into an image from the {@link ImagePool}.
+     *
+     * @param subsampling The subsampling factor in both directions, 1 to
+     * decode every pixel
+     * @return The decoded image
+     * @throws IOException If the image can't be decoded
+     */
+    public DecodedImage decode(int subsampling) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        if (subsampling > 1) {
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+        BufferedImage destination = null;
+        if (ImagePool.getCapacity() > 0 && ImagePool.isPoolable(decodedType)) {
+            destination = ImagePool.get(ceilDiv(width, subsampling), ceilDiv(height, subsampling), decodedType);
+            param.setDestination(destination);
+        }
+        BufferedImage img;
+        try {
+            img = reader.read(0, param);
+        } catch (IOException | IllegalArgumentException ex) {
+            if (destination == null) {
+                throw ex;
+            }
+            // The codec turned down the image it said it decodes to, let it
+            // pick its own
+            ImagePool.release(destination);
+            param.setDestination(null);
+            img = reader.read(0, param);
+        }
+        return new DecodedImage(img, width, height, subsampling);
+    }
+
+    /**
+     * Decodes part of the image into an existing image, such as the previous
+     * strip of the same image, which is overwritten from its top left corner.
+     *
+     * @param region The region of the source to decode
+     * @param subsampling The subsampling factor in both directions, relative
+     * to the top left corner of the region
+     * @param destination An image earlier decoded by this image's codec, at
+     * least as large as the decoded region, or null for a new image
+     * @return The image decoded into
+     * @throws IOException If the image can't be decoded
+     */
+    public BufferedImage decodeRegion(Rectangle region, int subsampling, BufferedImage destination)
+            throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setDestination(destination);
+        param.setSourceRegion(region);
+        if (subsampling > 1) {
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+        return reader.read(0, param);
+    }
+
+    /**
+     * Checks whether the codec decodes a region by seeking to it, rather than
+     * by decoding everything before it.
+     *
+     * @return Whether regions can be decoded independently
+     */
+    public boolean canSeekToRegions() {
+        try {
+            String format = reader.getFormatName().toLowerCase(Locale.ROOT);
+            return format.equals("bmp") || format.equals("wbmp");
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Decodes the whole image in a single pass without ever holding more than
+     * one decoded row. The codec decodes into an image whose rows all share
+     * the pixels of a single row, and each row is passed on as soon as the
+     * codec reports it written.
+     *
+     * @param subsampling The subsampling factor in both directions, 1 to
+     * decode every pixel
+     * @param consumer Receives the rows, top to bottom
+     * @return Whether every row was passed on in order. False if the codec
+     * can't decode this way, or writes rows out of order as it does for
+     * interlaced images, in which case the decode is stopped early.
+     * @throws IOException If the image can't be decoded
+     */
+    boolean decodeRows(int subsampling, RowConsumer consumer) throws IOException {
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        if (types == null || !types.hasNext()) {
+            return false;
+        }
+        ImageTypeSpecifier type = types.next();
+        int decodedW = ceilDiv(width, subsampling);
+        int decodedH = ceilDiv(height, subsampling);
+        SampleModel rowModel = type.getSampleModel(decodedW, 1);
+        SampleModel imageModel = type.getSampleModel(decodedW, decodedH);
+        DataBuffer rowBuffer = rowModel.createDataBuffer();
+        if (getScanlineStride(imageModel) != rowBuffer.getSize()) {
+            // Rows don't map onto a single row's buffer
+            return false;
+        }
+        ColorModel colorModel = type.getColorModel();
+        BufferedImage row = new BufferedImage(colorModel, Raster.createWritableRaster(rowModel, rowBuffer, null),
+                colorModel.isAlphaPremultiplied(), null);
+        WritableRaster rows = new WritableRaster(imageModel, new SharedRowBuffer(rowBuffer), new Point()) {
+        };
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setDestination(new BufferedImage(colorModel, rows, colorModel.isAlphaPremultiplied(), null));
+        if (subsampling > 1) {
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+
+        RowListener listener = new RowListener(row, decodedW, getFinalPass(), consumer);
+        reader.addIIOReadUpdateListener(listener);
+        try {
+            reader.read(0, param);
+        } finally {
+            reader.removeIIOReadUpdateListener(listener);
+        }
+        return listener.ordered && listener.next == decodedH;
+    }
+
+    /**
+     * Progressive JPEGs are decoded in a pass per scan, each writing every
+     * row, and only the last one holds the final pixels.
+     *
+     * @return The index of the last pass the codec makes over the image
+     */
+    private int getFinalPass() {
+        try {
+            if (!reader.getFormatName().equalsIgnoreCase("jpeg")) {
+                return 0;
+            }
+            Node tree = reader.getImageMetadata(0).getAsTree(JPEG_METADATA_FORMAT);
+            return Math.max(((Element) tree).getElementsByTagName("sos").getLength() - 1, 0);
+        } catch (IOException | IllegalArgumentException ex) {
+            return 0;
+        }
+    }
+
+    private static int getScanlineStride(SampleModel model) {
+        if (model instanceof ComponentSampleModel) {
+            return ((ComponentSampleModel) model).getScanlineStride();
+        } else if (model instanceof SinglePixelPackedSampleModel) {
+            return ((SinglePixelPackedSampleModel) model).getScanlineStride();
+        } else if (model instanceof MultiPixelPackedSampleModel) {
+            return ((MultiPixelPackedSampleModel) model).getScanlineStride();
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a thumbnail embedded in the image, either a JFIF thumbnail or the
+     * thumbnail a camera stores in the EXIF segment of a JPEG. Only a
+     * thumbnail with the aspect ratio of the image, give or take a pixel, is
+     * used, as cameras often letterbox theirs to a fixed size.
+     *
+     * @param minWidth The smallest width of a useful thumbnail
+     * @param minHeight The smallest height of a useful thumbnail
+     * @return The largest such thumbnail, or null if there is none
+     * @throws IOException If the image can't be read
+     */
+    public BufferedImage readEmbeddedThumbnail(int minWidth, int minHeight) throws IOException {
+        int best = -1;
+        int bestWidth = 0;
+        try {
+            if (reader.readerSupportsThumbnails()) {
+                for (int i = 0; i < reader.getNumThumbnails(0); i++) {
+                    int w = reader.getThumbnailWidth(0, i);
+                    int h = reader.getThumbnailHeight(0, i);
+                    if (isUsableThumbnail(w, h, minWidth, minHeight) && w > bestWidth) {
+                        best = i;
+                        bestWidth = w;
+                    }
+                }
+            }
+            if (best >= 0) {
+                return reader.readThumbnail(0, best);
+            }
+        } catch (IOException | RuntimeException ex) {
+            // A broken thumbnail shouldn't fail the image, fall back to EXIF
+        }
+        if (!"jpeg".equalsIgnoreCase(reader.getFormatName())) {
+            return null;
+        }
+        long position = in.getStreamPosition();
+        ByteOrder order = in.getByteOrder();
+        byte[] exif;
+        try {
+            exif = ExifThumbnail.read(in);
+        } finally {
+            in.seek(position);
+            in.setByteOrder(order);
+        }
+        if (exif == null) {
+            return null;
+        }
+        try (EncodedImage thumbnail = open(ImageSource.of(source.getPath() + "!thumbnail", exif))) {
+            if (!isUsableThumbnail(thumbnail.getWidth(), thumbnail.getHeight(), minWidth, minHeight)) {
+                return null;
+            }
+            return thumbnail.decode(1).getImage();
+        } catch (IOException ex) {
+            // Not every camera writes a thumbnail that can be decoded
+            return null;
+        }
+    }
+
+    private boolean isUsableThumbnail(int w, int h, int minWidth, int minHeight) {
+        return w >= minWidth && h >= minHeight && w < width
+                && Math.abs(((long) w) * height - ((long) h) * width) <= Math.max(width, height);
+    }
+
+    @Override
+    public void close() throws IOException {
+        CodecPool.release(reader);
+        in.close();
+    }
+
+    private static int readBytesPerPixel(ImageReader reader) {
+        try {
+            Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+            if (types.hasNext()) {
+                SampleModel model = types.next().getSampleModel();
+                int bits = 0;
+                for (int size : model.getSampleSize()) {
+                    bits += size;
+                }
+                return Math.max(1, (bits + 7) / 8);
+            }
+        } catch (IOException | RuntimeException ex) {
+            // Not every reader can describe its output before decoding
+        }
+        return DEFAULT_BYTES_PER_PIXEL;
+    }
+
+    /**
+     * Gets the type of image the reader decodes to by default.
+     *
+     * @return The BufferedImage type, TYPE_CUSTOM if it isn't a standard type
+     * or the reader can't tell before decoding
+     */
+    private static int readDecodedType(ImageReader reader) {
+        try {
+            Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+            if (types.hasNext()) {
+                return types.next().getBufferedImageType();
+            }
+        } catch (IOException | RuntimeException ex) {
+            // Not every reader can describe its output before decoding
+        }
+        return BufferedImage.TYPE_CUSTOM;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+    /**
+     * Receives the rows of an image decoded by
+     * {@link #decodeRows(int, RowConsumer)}.
+     */
+    interface RowConsumer {
+
+        /**
+         * Receives the next row.
+         *
+         * @param row An image holding the row, which is overwritten by the
+         * next one
+         * @param y The index of the row in the decoded image
+         */
+        void accept(BufferedImage row, int y);
+
+        /**
+         * Called when the codec starts over from the top with another pass. The
+         * rows received so far are superseded.
+         */
+        void restart();
+    }
+
+    /**
+     * Passes each row on when the codec reports it written, and stops the
+     * decode if rows come out of order.
+     */
+    private class RowListener implements IIOReadUpdateListener {
+
+        private final BufferedImage row;
+        private final int decodedW;
+        private final int finalPass;
+        private final RowConsumer consumer;
+        private int pass = 0;
+        private int next = 0;
+        private boolean ordered = true;
+
+        RowListener(BufferedImage row, int decodedW, int finalPass, RowConsumer consumer) {
+            this.row = row;
+            this.decodedW = decodedW;
+            this.finalPass = finalPass;
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass, int maxPass,
+                int minX, int minY, int periodX, int periodY, int[] bands) {
+            this.pass = pass;
+            if (next > 0 && ordered) {
+                next = 0;
+                consumer.restart();
+            }
+        }
+
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY,
+                int width, int height, int periodX, int periodY, int[] bands) {
+            if (!ordered || pass < finalPass) {
+                return;
+            }
+            if (minY != next || height != 1 || periodY != 1 || minX != 0 || width != decodedW || periodX != 1) {
+                ordered = false;
+                reader.abort();
+                return;
+            }
+            consumer.accept(row, next++);
+        }
+
+        @Override
+        public void passComplete(ImageReader source, BufferedImage theImage) {
+        }
+
+        @Override
+        public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass, int minPass,
+                int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY,
+                int width, int height, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {
+        }
+    }
+
+    /**
+     * A buffer presenting every row of an image as the same row of pixels,
+     * for images whose rows lie one scanline stride apart.
+     */
+    private static class SharedRowBuffer extends DataBuffer {
+
+        private final DataBuffer row;
+        private final int stride;
+
+        SharedRowBuffer(DataBuffer row) {
+            super(row.getDataType(), row.getSize(), row.getNumBanks());
+            this.row = row;
+            this.stride = row.getSize();
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            return row.getElem(bank, i % stride);
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            row.setElem(bank, i % stride, val);
+        }
+    }
+}
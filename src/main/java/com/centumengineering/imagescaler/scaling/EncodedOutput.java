@@ -0,0 +1,63 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An encoded output kept in memory rather than written to a file.
+ *
+ * @author Phani Gaddipati
+ */
+public class EncodedOutput {
+
+    private final OutputProfile profile;
+    private final ByteBuffer bytes;
+    private final String format;
+    private final int width;
+    private final int height;
+
+    public EncodedOutput(OutputProfile profile, ByteBuffer bytes, String format, int width, int height) {
+        this.profile = profile;
+        this.bytes = bytes;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * @return The profile the output was produced for
+     */
+    public OutputProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * @return A read-only view of the encoded output
+     */
+    public ByteBuffer getBytes() {
+        return bytes.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return The encoded output as an array, copied so it may be modified
+     */
+    public byte[] toByteArray() {
+        byte[] copy = new byte[bytes.remaining()];
+        bytes.duplicate().get(copy);
+        return copy;
+    }
+
+    /**
+     * @return The format the output is encoded in
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
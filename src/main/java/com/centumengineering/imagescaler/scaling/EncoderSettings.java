@@ -0,0 +1,164 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.util.Locale;
+
+/**
+ * Tuning options passed to the image writer of an output. Every setting is
+ * optional, and the writer's default is used for anything that isn't set or
+ * that the output format doesn't support.
+ *
+ * @author Phani Gaddipati
+ */
+public class EncoderSettings {
+
+    /**
+     * Marks the quality or compression level as unset.
+     */
+    public static final int UNSET = -1;
+
+    private float quality = UNSET;
+    private Boolean progressive = null;
+    private int compressionLevel = UNSET;
+
+    /**
+     * Parses a single encoder setting.
+     *
+     * @param key The setting name: quality, progressive or compression
+     * @param value The setting value
+     * @return Whether the key is an encoder setting
+     * @throws IllegalArgumentException If the value is invalid
+     */
+    public boolean parse(String key, String value) {
+        switch (key) {
+            case "quality":
+                float parsedQuality = UNSET;
+                try {
+                    parsedQuality = Float.parseFloat(value);
+                } catch (NumberFormatException ex) {
+                }
+                if (parsedQuality < 0 || parsedQuality > 1) {
+                    throw new IllegalArgumentException("Quality must be between 0 and 1");
+                }
+                setQuality(parsedQuality);
+                return true;
+            case "progressive":
+                if (!"true".equalsIgnoreCase(value) && !"false".equalsIgnoreCase(value)) {
+                    throw new IllegalArgumentException("Progressive must be true or false");
+                }
+                setProgressive(Boolean.parseBoolean(value));
+                return true;
+            case "compression":
+                int parsedLevel = UNSET;
+                try {
+                    parsedLevel = Integer.parseInt(value);
+                } catch (NumberFormatException ex) {
+                }
+                if (parsedLevel < 0 || parsedLevel > 9) {
+                    throw new IllegalArgumentException("Compression must be between 0 and 9");
+                }
+                setCompressionLevel(parsedLevel);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Parses settings from a comma separated list of key=value pairs, e.g.
+     * "quality=0.85,progressive=true,compression=9".
+     *
+     * @param spec The settings specification
+     * @return The parsed settings
+     * @throws IllegalArgumentException If the specification is invalid
+     */
+    public static EncoderSettings parse(String spec) {
+        EncoderSettings settings = new EncoderSettings();
+        for (String pair : spec.split(",")) {
+            int eq = pair.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected key=value but got \"" + pair + "\"");
+            }
+            String key = pair.substring(0, eq).trim().toLowerCase(Locale.ROOT);
+            if (!settings.parse(key, pair.substring(eq + 1).trim())) {
+                throw new IllegalArgumentException("Unknown encoder key \"" + key + "\"");
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Creates settings where anything unset here is taken from the defaults.
+     *
+     * @param defaults The default settings
+     * @return The combined settings
+     */
+    public EncoderSettings withDefaults(EncoderSettings defaults) {
+        EncoderSettings merged = new EncoderSettings();
+        merged.quality = quality != UNSET ? quality : defaults.quality;
+        merged.progressive = progressive != null ? progressive : defaults.progressive;
+        merged.compressionLevel = compressionLevel != UNSET ? compressionLevel : defaults.compressionLevel;
+        return merged;
+    }
+
+    /**
+     * @return The compression quality between 0 and 1 of lossy formats such as
+     * JPEG, or {@link #UNSET}
+     */
+    public float getQuality() {
+        return quality;
+    }
+
+    public EncoderSettings setQuality(float quality) {
+        this.quality = quality;
+        return this;
+    }
+
+    /**
+     * @return Whether to write a progressive or interlaced image, null for
+     * the writer's default
+     */
+    public Boolean getProgressive() {
+        return progressive;
+    }
+
+    public EncoderSettings setProgressive(Boolean progressive) {
+        this.progressive = progressive;
+        return this;
+    }
+
+    /**
+     * @return The effort between 0 (fastest) and 9 (smallest) of lossless
+     * formats such as PNG, or {@link #UNSET}
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public EncoderSettings setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+        return this;
+    }
+
+    /**
+     * @return A description of every setting, used to detect when outputs need
+     * to be regenerated
+     */
+    public String getSignature() {
+        return quality + ":" + progressive + ":" + compressionLevel;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (quality != UNSET) {
+            sb.append(", quality ").append(quality);
+        }
+        if (progressive != null) {
+            sb.append(progressive ? ", progressive" : ", baseline");
+        }
+        if (compressionLevel != UNSET) {
+            sb.append(", compression ").append(compressionLevel);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,130 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Finds the thumbnail a camera embeds in the EXIF segment of a JPEG. The
+ * JPEG reader only exposes JFIF thumbnails, while cameras store theirs as a
+ * small JPEG referenced from the second IFD of the APP1 segment, which is
+ * found here without decoding anything.
+ *
+ * @author Phani Gaddipati
+ */
+class ExifThumbnail {
+
+    private static final int SOI = 0xFFD8;
+    private static final int SOS = 0xFFDA;
+    private static final int EOI = 0xFFD9;
+    private static final int APP1 = 0xFFE1;
+    private static final byte[] EXIF_HEADER = "Exif\0\0".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int TAG_COMPRESSION = 0x0103;
+    private static final int TAG_JPEG_OFFSET = 0x0201;
+    private static final int TAG_JPEG_LENGTH = 0x0202;
+    private static final int COMPRESSION_JPEG = 6;
+    private static final int TYPE_SHORT = 3;
+    private static final int IFD_ENTRY_SIZE = 12;
+
+    private ExifThumbnail() {
+    }
+
+    /**
+     * Reads the embedded thumbnail of a JPEG. The stream is read from the
+     * start, and left wherever the search ended.
+     *
+     * @param in The JPEG
+     * @return The encoded thumbnail, or null if there is none
+     * @throws IOException If the stream can't be read
+     */
+    static byte[] read(ImageInputStream in) throws IOException {
+        in.seek(0);
+        in.setByteOrder(ByteOrder.BIG_ENDIAN);
+        if (in.readUnsignedShort() != SOI) {
+            return null;
+        }
+        // The EXIF segment comes before the image data, usually first
+        while (true) {
+            int marker = in.readUnsignedShort();
+            if ((marker & 0xFF00) != 0xFF00 || marker == SOS || marker == EOI) {
+                return null;
+            }
+            int length = in.readUnsignedShort();
+            if (length < 2) {
+                return null;
+            }
+            if (marker == APP1) {
+                byte[] segment = new byte[length - 2];
+                in.readFully(segment);
+                if (segment.length > EXIF_HEADER.length
+                        && Arrays.equals(Arrays.copyOf(segment, EXIF_HEADER.length), EXIF_HEADER)) {
+                    return findThumbnail(ByteBuffer.wrap(segment, EXIF_HEADER.length,
+                            segment.length - EXIF_HEADER.length).slice());
+                }
+            } else {
+                in.skipBytes(length - 2);
+            }
+        }
+    }
+
+    /**
+     * Finds the thumbnail in the TIFF structure of an EXIF segment.
+     *
+     * @param tiff The TIFF header and everything after it
+     * @return The encoded thumbnail, or null if there is none or the segment
+     * is corrupt
+     */
+    private static byte[] findThumbnail(ByteBuffer tiff) {
+        try {
+            if (tiff.get(0) == 'I' && tiff.get(1) == 'I') {
+                tiff.order(ByteOrder.LITTLE_ENDIAN);
+            } else if (tiff.get(0) != 'M' || tiff.get(1) != 'M') {
+                return null;
+            }
+            if (tiff.getShort(2) != 42) {
+                return null;
+            }
+            // IFD0 describes the main image, IFD1 the thumbnail
+            int ifd0 = tiff.getInt(4);
+            int ifd1 = tiff.getInt(ifd0 + 2 + (tiff.getShort(ifd0) & 0xFFFF) * IFD_ENTRY_SIZE);
+            if (ifd1 <= 0) {
+                return null;
+            }
+            int entries = tiff.getShort(ifd1) & 0xFFFF;
+            int compression = COMPRESSION_JPEG;
+            int offset = -1;
+            int length = -1;
+            for (int i = 0; i < entries; i++) {
+                int entry = ifd1 + 2 + i * IFD_ENTRY_SIZE;
+                int tag = tiff.getShort(entry) & 0xFFFF;
+                int value = tiff.getShort(entry + 2) == TYPE_SHORT
+                        ? tiff.getShort(entry + 8) & 0xFFFF : tiff.getInt(entry + 8);
+                if (tag == TAG_COMPRESSION) {
+                    compression = value;
+                } else if (tag == TAG_JPEG_OFFSET) {
+                    offset = value;
+                } else if (tag == TAG_JPEG_LENGTH) {
+                    length = value;
+                }
+            }
+            if (compression != COMPRESSION_JPEG || offset <= 0 || length <= 0
+                    || offset > tiff.limit() - length) {
+                return null;
+            }
+            byte[] thumbnail = new byte[length];
+            // Through Buffer, whose position(int) is the one Java 8 has
+            Buffer buffer = tiff;
+            buffer.position(offset);
+            tiff.get(thumbnail);
+            return thumbnail;
+        } catch (IndexOutOfBoundsException ex) {
+            // Offsets pointing outside the segment
+            return null;
+        }
+    }
+}
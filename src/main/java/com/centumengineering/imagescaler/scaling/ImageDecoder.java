@@ -0,0 +1,85 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Decodes source images. The header is read first so that, when the largest
+ * output is much smaller than the source, only a subsampled grid of pixels is
+ * decoded rather than the entire image.
+ *
+ * @author Phani Gaddipati
+ */
+public class ImageDecoder {
+
+    /**
+     * How many times larger than the largest output the decoded image is kept.
+     * Subsampling drops pixels without filtering, so leaving this headroom
+     * lets the final resize do the anti-aliasing.
+     */
+    public static final int SUBSAMPLE_MARGIN = 2;
+
+    private ImageDecoder() {
+    }
+
+    /**
+     * Decodes the given file.
+     *
+     * @param file The image file
+     * @param maxOutputW The width of the largest output that will be produced
+     * @param subsample Whether the image may be decoded with subsampling
+     * @return The decoded image
+     * @throws IOException If the file can't be read or isn't a supported image
+     */
+    public static DecodedImage decode(File file, int maxOutputW, boolean subsample) throws IOException {
+        return decode(file, (w, h) -> maxOutputW, subsample);
+    }
+
+    /**
+     * Decodes the given file, where the largest output width depends on the
+     * source dimensions, e.g. for outputs that fit a bounding box.
+     *
+     * @param file The image file
+     * @param maxOutputW Computes the width of the largest output from the
+     * source width and height
+     * @param subsample Whether the image may be decoded with subsampling
+     * @return The decoded image
+     * @throws IOException If the file can't be read or isn't a supported image
+     */
+    public static DecodedImage decode(File file, IntBinaryOperator maxOutputW, boolean subsample)
+            throws IOException {
+        try (EncodedImage encoded = EncodedImage.open(file)) {
+            int srcW = encoded.getWidth();
+            int factor = subsample
+                    ? subsamplingFactor(srcW, maxOutputW.applyAsInt(srcW, encoded.getHeight())) : 1;
+            return encoded.decode(factor);
+        }
+    }
+
+    /**
+     * Computes the subsampling factor which keeps the decoded width at least
+     * {@link #SUBSAMPLE_MARGIN} times the largest output width.
+     *
+     * @param srcW The source width
+     * @param maxOutputW The width of the largest output
+     * @return The subsampling factor, 1 for a full decode
+     */
+    static int subsamplingFactor(int srcW, int maxOutputW) {
+        return Math.max(1, srcW / (maxOutputW * SUBSAMPLE_MARGIN));
+    }
+
+    /**
+     * Computes the largest subsampling factor which still keeps the decoded
+     * width at least the largest output width. This gives up the anti-aliasing
+     * headroom of {@link #subsamplingFactor(int, int)} to decode as few pixels
+     * as possible, for sources that otherwise wouldn't fit in memory.
+     *
+     * @param srcW The source width
+     * @param maxOutputW The width of the largest output
+     * @return The subsampling factor, 1 for a full decode
+     */
+    static int lowMemorySubsamplingFactor(int srcW, int maxOutputW) {
+        return Math.max(1, srcW / maxOutputW);
+    }
+}
@@ -0,0 +1,113 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Encodes scaled images in memory with a pooled ImageWriter and the encoder
+ * settings of their output.
+ *
+ * @author Phani Gaddipati
+ */
+public class ImageEncoder {
+
+    /**
+     * A rough guess of the encoded size per pixel, used to size the output
+     * buffer up front.
+     */
+    private static final int INITIAL_BYTES_PER_PIXEL = 1;
+
+    private ImageEncoder() {
+    }
+
+    /**
+     * Encodes the image in the given format.
+     *
+     * @param img The image to encode
+     * @param format The format name
+     * @param settings The encoder settings
+     * @return The encoded bytes
+     * @throws IOException If the format has no writer or encoding fails
+     */
+    public static byte[] encode(BufferedImage img, String format, EncoderSettings settings) throws IOException {
+        ImageWriter writer = CodecPool.getWriter(img, format);
+        if (writer == null && img.getColorModel().hasAlpha()) {
+            // Formats such as JPEG and BMP can't hold transparency
+            img = toOpaque(img);
+            writer = CodecPool.getWriter(img, format);
+        }
+        if (writer == null) {
+            throw new IOException("No image writer for format " + format);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                Math.max(1024, img.getWidth() * img.getHeight() * INITIAL_BYTES_PER_PIXEL));
+        // Skips the service lookup and the temp file cache of
+        // ImageIO.createImageOutputStream
+        try (ImageOutputStream ios = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(img, null, null), getWriteParam(writer, settings));
+        } finally {
+            CodecPool.release(writer);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Builds the write parameters for the given settings, leaving anything the
+     * writer doesn't support at its default.
+     */
+    private static ImageWriteParam getWriteParam(ImageWriter writer, EncoderSettings settings) {
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (settings.getProgressive() != null && param.canWriteProgressive()) {
+            param.setProgressiveMode(settings.getProgressive()
+                    ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+        }
+        if (param.canWriteCompressed()) {
+            float quality = settings.getQuality();
+            if (settings.getCompressionLevel() != EncoderSettings.UNSET && isLossless(writer)) {
+                // Lossless writers such as PNG map quality to effort, where
+                // 1 is the fastest and 0 the smallest
+                quality = 1 - settings.getCompressionLevel() / 9f;
+            }
+            if (quality != EncoderSettings.UNSET) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                if (param.getCompressionType() == null) {
+                    param.setCompressionType(param.getCompressionTypes()[0]);
+                }
+                param.setCompressionQuality(quality);
+            }
+        }
+        return param;
+    }
+
+    /**
+     * Checks whether the writer's default compression is lossless.
+     */
+    private static boolean isLossless(ImageWriter writer) {
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        if (param.getCompressionType() == null) {
+            param.setCompressionType(param.getCompressionTypes()[0]);
+        }
+        return param.isCompressionLossless();
+    }
+
+    /**
+     * Draws the image onto a white, opaque background.
+     */
+    private static BufferedImage toOpaque(BufferedImage img) {
+        BufferedImage opaque = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = opaque.createGraphics();
+        g.drawImage(img, 0, 0, Color.WHITE, null);
+        g.dispose();
+        return opaque;
+    }
+}
@@ -0,0 +1,343 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the images each thread is done with, so the next image of the same
+ * size and type reuses their pixel arrays instead of allocating new ones.
+ * Decoded images and resize targets are several megabytes each, and
+ * allocating them for every file keeps the garbage collector busy with large
+ * short-lived arrays, which often go straight to the old generation.
+ *
+ * Images are bucketed by width, height and type. Only the standard types with
+ * a fixed color model are pooled, so an indexed image is never reused with
+ * another image's palette. The pooled images of all threads together are
+ * capped at the capacity. A thread going over it makes room by dropping the
+ * images of threads that exited, then the buckets used least recently by any
+ * thread. Pooling is off until a capacity is set.
+ *
+ * Like {@link CodecPool}, worker threads keep their images for as long as
+ * they live.
+ *
+ * @author Phani Gaddipati
+ */
+public class ImagePool {
+
+    /**
+     * The most images of one size and type a thread keeps. A task rarely
+     * needs more than a couple at once.
+     */
+    private static final int MAX_PER_BUCKET = 4;
+
+    /**
+     * The pool of every thread that has pooled an image, so any thread can
+     * evict from it, and so the images of threads that exited are dropped.
+     */
+    private static final Set<Pool> ALL_POOLS = ConcurrentHashMap.newKeySet();
+    private static final ThreadLocal<Pool> POOLS = ThreadLocal.withInitial(() -> {
+        Pool pool = new Pool(Thread.currentThread());
+        ALL_POOLS.add(pool);
+        return pool;
+    });
+
+    private static volatile long capacity = 0;
+    private static final AtomicLong pooledBytes = new AtomicLong();
+    private static final AtomicLong useClock = new AtomicLong();
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder reusedBytes = new LongAdder();
+
+    private ImagePool() {
+    }
+
+    /**
+     * Sets the most memory the pooled images of all threads may take.
+     *
+     * @param bytes The capacity in bytes, 0 to stop pooling
+     */
+    public static void setCapacity(long bytes) {
+        capacity = bytes;
+    }
+
+    public static long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Checks whether images of the given type can be pooled.
+     *
+     * @param type The BufferedImage type
+     * @return Whether the type is a standard type with a fixed color model
+     */
+    public static boolean isPoolable(int type) {
+        return type != BufferedImage.TYPE_CUSTOM && type != BufferedImage.TYPE_BYTE_INDEXED
+                && type != BufferedImage.TYPE_BYTE_BINARY;
+    }
+
+    /**
+     * Gets an image, reusing a pooled one if this thread has one of the same
+     * size and type. Either way it is cleared, just like a new image.
+     *
+     * @param width The width
+     * @param height The height
+     * @param type The BufferedImage type, see {@link #isPoolable(int)}
+     * @return The image, which may be given back with
+     * {@link #release(BufferedImage)} once nothing refers to it
+     */
+    public static BufferedImage get(int width, int height, int type) {
+        if (capacity > 0 && isPoolable(type)) {
+            BufferedImage img = POOLS.get().take(new Key(width, height, type));
+            if (img != null) {
+                hits.increment();
+                reusedBytes.add(getBytes(img));
+                clear(img.getRaster().getDataBuffer());
+                return img;
+            }
+            misses.increment();
+        }
+        return new BufferedImage(width, height, type);
+    }
+
+    /**
+     * Gives an image back to this thread's pool. The caller must not use it,
+     * or any image sharing its pixels, afterwards. Images of a type that can't
+     * be pooled, or that don't fit, are left to the garbage collector.
+     *
+     * @param img The image, or null
+     */
+    public static void release(BufferedImage img) {
+        long max = capacity;
+        if (img == null || max <= 0 || !isPoolable(img.getType())) {
+            return;
+        }
+        long bytes = getBytes(img);
+        if (bytes > max || !POOLS.get().put(new Key(img.getWidth(), img.getHeight(), img.getType()), img, bytes)) {
+            return;
+        }
+        if (pooledBytes.get() > max) {
+            evict(max);
+        }
+    }
+
+    /**
+     * Drops the images of threads that exited, then the least recently used
+     * images of any thread, until the pooled images fit in the capacity.
+     */
+    private static void evict(long max) {
+        dropExited();
+        while (pooledBytes.get() > max) {
+            Pool eldest = null;
+            long eldestUse = Long.MAX_VALUE;
+            for (Pool pool : ALL_POOLS) {
+                long use = pool.getEldestUse();
+                if (use < eldestUse) {
+                    eldest = pool;
+                    eldestUse = use;
+                }
+            }
+            if (eldest == null) {
+                return;
+            }
+            eldest.evictEldest();
+        }
+    }
+
+    private static void dropExited() {
+        Iterator<Pool> pools = ALL_POOLS.iterator();
+        while (pools.hasNext()) {
+            Pool pool = pools.next();
+            Thread owner = pool.owner.get();
+            if (owner == null || !owner.isAlive()) {
+                pools.remove();
+                pool.clear();
+            }
+        }
+    }
+
+    /**
+     * Drops every image this thread keeps.
+     */
+    public static void clear() {
+        POOLS.get().clear();
+    }
+
+    /**
+     * @return The number of images reused from a pool
+     */
+    public static long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of poolable images that had to be allocated
+     */
+    public static long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The bytes of pixel arrays reused instead of allocated
+     */
+    public static long getReusedBytes() {
+        return reusedBytes.sum();
+    }
+
+    /**
+     * @return The bytes the pooled images of all live threads take
+     */
+    public static long getPooledBytes() {
+        dropExited();
+        return pooledBytes.get();
+    }
+
+    private static long getBytes(BufferedImage img) {
+        DataBuffer buffer = img.getRaster().getDataBuffer();
+        return ((long) buffer.getSize()) * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    private static void clear(DataBuffer buffer) {
+        for (int bank = 0; bank < buffer.getNumBanks(); bank++) {
+            if (buffer instanceof DataBufferInt) {
+                Arrays.fill(((DataBufferInt) buffer).getData(bank), 0);
+            } else if (buffer instanceof DataBufferByte) {
+                Arrays.fill(((DataBufferByte) buffer).getData(bank), (byte) 0);
+            } else if (buffer instanceof DataBufferUShort) {
+                Arrays.fill(((DataBufferUShort) buffer).getData(bank), (short) 0);
+            }
+        }
+    }
+
+    /**
+     * The images one thread keeps, bucketed by size and type with the least
+     * recently used bucket first. Only its thread gets and releases images,
+     * but any thread may evict from it.
+     */
+    private static class Pool {
+
+        private final WeakReference<Thread> owner;
+        private final LinkedHashMap<Key, Bucket> buckets = new LinkedHashMap<>(16, 0.75f, true);
+
+        Pool(Thread owner) {
+            this.owner = new WeakReference<>(owner);
+        }
+
+        synchronized BufferedImage take(Key key) {
+            Bucket bucket = buckets.get(key);
+            if (bucket == null) {
+                return null;
+            }
+            BufferedImage img = bucket.images.pop();
+            if (bucket.images.isEmpty()) {
+                buckets.remove(key);
+            } else {
+                bucket.lastUse = useClock.incrementAndGet();
+            }
+            pooledBytes.addAndGet(-getBytes(img));
+            return img;
+        }
+
+        /**
+         * @return Whether the image was added, false if its bucket is full or
+         * already holds it
+         */
+        synchronized boolean put(Key key, BufferedImage img, long bytes) {
+            Bucket bucket = buckets.get(key);
+            if (bucket == null) {
+                bucket = new Bucket();
+                buckets.put(key, bucket);
+            } else if (bucket.images.size() >= MAX_PER_BUCKET || bucket.contains(img)) {
+                return false;
+            }
+            bucket.images.push(img);
+            bucket.lastUse = useClock.incrementAndGet();
+            pooledBytes.addAndGet(bytes);
+            return true;
+        }
+
+        /**
+         * @return When the least recently used bucket was last used,
+         * Long.MAX_VALUE if the pool is empty
+         */
+        synchronized long getEldestUse() {
+            Iterator<Bucket> eldest = buckets.values().iterator();
+            return eldest.hasNext() ? eldest.next().lastUse : Long.MAX_VALUE;
+        }
+
+        synchronized void evictEldest() {
+            Iterator<Bucket> eldest = buckets.values().iterator();
+            if (eldest.hasNext()) {
+                eldest.next().drop();
+                eldest.remove();
+            }
+        }
+
+        synchronized void clear() {
+            for (Bucket bucket : buckets.values()) {
+                bucket.drop();
+            }
+            buckets.clear();
+        }
+    }
+
+    private static class Bucket {
+
+        private final ArrayDeque<BufferedImage> images = new ArrayDeque<>();
+        private long lastUse;
+
+        boolean contains(BufferedImage img) {
+            for (BufferedImage pooled : images) {
+                if (pooled == img) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void drop() {
+            for (BufferedImage img : images) {
+                pooledBytes.addAndGet(-getBytes(img));
+            }
+            images.clear();
+        }
+    }
+
+    private static class Key {
+
+        private final int width;
+        private final int height;
+        private final int type;
+
+        Key(int width, int height, int type) {
+            this.width = width;
+            this.height = height;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return width == other.width && height == other.height && type == other.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return (width * 31 + height) * 31 + type;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * An encoded source image, either a file or bytes already in memory, such as
+ * an entry read from an archive or a download. Bytes in memory are decoded
+ * where they are, without being copied or staged in a file.
+ *
+ * @author Phani Gaddipati
+ */
+public class ImageSource {
+
+    private final String name;
+    private final String path;
+    private final File file;
+    private final ByteBuffer buffer;
+
+    private ImageSource(String name, String path, File file, ByteBuffer buffer) {
+        this.name = name;
+        this.path = path;
+        this.file = file;
+        this.buffer = buffer;
+    }
+
+    /**
+     * @param file The image file
+     * @return A source reading the given file
+     */
+    public static ImageSource of(File file) {
+        return new ImageSource(file.getName(), file.getAbsolutePath(), file, null);
+    }
+
+    /**
+     * @param file A local copy of the image
+     * @param path Where the image came from, e.g. the url it was downloaded
+     * from
+     * @param name The file name of the source, which the output names are
+     * based on
+     * @return A source reading the given file
+     */
+    public static ImageSource of(File file, String path, String name) {
+        return new ImageSource(name, path, file, null);
+    }
+
+    /**
+     * @param path Where the bytes came from, e.g. "photos.zip!a/b.jpg". The
+     * last path element is the source name.
+     * @param bytes The encoded image
+     * @return A source reading the given bytes
+     */
+    public static ImageSource of(String path, byte[] bytes) {
+        return of(path, ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * @param path Where the bytes came from, e.g. a url. The last path
+     * element is the source name.
+     * @param buffer The encoded image, from its position to its limit. The
+     * buffer is shared rather than copied, and must not be modified while the
+     * source is in use.
+     * @return A source reading the given bytes
+     */
+    public static ImageSource of(String path, ByteBuffer buffer) {
+        String name = path.substring(Math.max(path.lastIndexOf('/'), path.lastIndexOf('!')) + 1);
+        return new ImageSource(name, path, null, buffer.slice());
+    }
+
+    /**
+     * @param buffer The encoded image, from its position to its limit, shared
+     * rather than copied
+     * @param path Where the bytes came from, e.g. the url they were downloaded
+     * from
+     * @param name The file name of the source, which the output names are
+     * based on
+     * @return A source reading the given bytes
+     */
+    public static ImageSource of(ByteBuffer buffer, String path, String name) {
+        return new ImageSource(name, path, null, buffer.slice());
+    }
+
+    /**
+     * Reads the stream to the end into memory. The image is read more than
+     * once while decoding, so it can't be decoded from the stream itself.
+     *
+     * @param path Where the stream came from. The last path element is the
+     * source name.
+     * @param in The encoded image, which is left open
+     * @return A source reading the bytes of the stream
+     * @throws IOException If the stream can't be read
+     */
+    public static ImageSource of(String path, InputStream in) throws IOException {
+        return of(path, IOUtils.toByteArray(in));
+    }
+
+    /**
+     * @return The file name of the source, which the output names are based on
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return A description of where the source is, for messages
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return The source file, or null if the source is in memory
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return The size of the encoded image
+     */
+    public long getLength() {
+        return file != null ? file.length() : buffer.remaining();
+    }
+
+    /**
+     * Opens a stream over the encoded image.
+     *
+     * @return The stream, which must be closed
+     * @throws IOException If the source can't be opened
+     */
+    public ImageInputStream openStream() throws IOException {
+        ImageInputStream in = file != null ? ImageIO.createImageInputStream(file)
+                : new ByteBufferImageInputStream(buffer.duplicate());
+        if (in == null) {
+            throw new IOException("Unable to open " + path);
+        }
+        return in;
+    }
+
+    /**
+     * Opens a plain stream over the encoded bytes, e.g. to hash them.
+     *
+     * @return The stream, which must be closed
+     * @throws IOException If the source can't be opened
+     */
+    public InputStream openInputStream() throws IOException {
+        if (file != null) {
+            return new FileInputStream(file);
+        }
+        if (buffer.hasArray()) {
+            return new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                    buffer.remaining());
+        }
+        ByteBuffer bytes = buffer.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return bytes.hasRemaining() ? bytes.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!bytes.hasRemaining()) {
+                    return -1;
+                }
+                int n = Math.min(len, bytes.remaining());
+                bytes.get(b, off, n);
+                return n;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
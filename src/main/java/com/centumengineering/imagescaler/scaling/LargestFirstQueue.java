@@ -0,0 +1,134 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.io.IOException;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Reorders sources so the most expensive are scaled first. Sources are held
+ * in a window of the given size, and once it is full, every new source lets
+ * the most expensive one held go. With the whole batch in the window this is
+ * the longest processing time first schedule, which keeps the largest images
+ * from landing at the end of a run and leaving all but one or two cores idle
+ * while they finish. A smaller window bounds how many sources are held, which
+ * matters when they are in memory, at the cost of only ordering locally.
+ *
+ * Sources may be added from several threads at once, such as the threads
+ * downloading them. The cost of a source is estimated on the adding thread,
+ * and the sink is called outside of the lock, from whichever thread let the
+ * source go.
+ *
+ * @author Phani Gaddipati
+ */
+public class LargestFirstQueue {
+
+    /**
+     * How the cost of a source is estimated.
+     */
+    public enum Estimate {
+        /**
+         * The encoded size, which needs no reading at all.
+         */
+        SIZE,
+        /**
+         * The pixel count from the image header, which ranks sources of
+         * different formats and compression correctly.
+         */
+        PIXELS
+    }
+
+    private final Estimate estimate;
+    private final int window;
+    private final Consumer<ImageSource> sink;
+    private final PriorityQueue<Entry> held = new PriorityQueue<>();
+    private final AtomicLong order = new AtomicLong();
+
+    /**
+     * Creates a new queue.
+     *
+     * @param estimate How to estimate the cost of each source
+     * @param window The number of sources to hold and order
+     * @param sink The consumer of the reordered sources
+     */
+    public LargestFirstQueue(Estimate estimate, int window, Consumer<ImageSource> sink) {
+        this.estimate = estimate;
+        this.window = window;
+        this.sink = sink;
+    }
+
+    /**
+     * Adds a source, passing on the most expensive source held if the window
+     * is full.
+     *
+     * @param source The source to add
+     */
+    public void add(ImageSource source) {
+        Entry entry = new Entry(source, estimateCost(source), order.getAndIncrement());
+        Entry next = null;
+        synchronized (held) {
+            held.add(entry);
+            if (held.size() > window) {
+                next = held.poll();
+            }
+        }
+        if (next != null) {
+            sink.accept(next.source);
+        }
+    }
+
+    /**
+     * Passes on every source held, most expensive first. Call this once every
+     * source has been added.
+     */
+    public void flush() {
+        Entry next;
+        while ((next = poll()) != null) {
+            sink.accept(next.source);
+        }
+    }
+
+    private Entry poll() {
+        synchronized (held) {
+            return held.poll();
+        }
+    }
+
+    /**
+     * Estimates the cost of scaling a source. A source whose header can't be
+     * read costs nothing, since it will fail as soon as it is scaled.
+     *
+     * @param source The source
+     * @return The estimated cost, in bytes or pixels
+     */
+    private long estimateCost(ImageSource source) {
+        if (estimate == Estimate.SIZE) {
+            return source.getLength();
+        }
+        try (EncodedImage encoded = EncodedImage.open(source)) {
+            return ((long) encoded.getWidth()) * encoded.getHeight();
+        } catch (IOException | RuntimeException ex) {
+            return 0;
+        }
+    }
+
+    private static class Entry implements Comparable<Entry> {
+
+        private final ImageSource source;
+        private final long cost;
+        private final long order;
+
+        Entry(ImageSource source, long cost, long order) {
+            this.source = source;
+            this.cost = cost;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            // Most expensive first, then in input order
+            int byCost = Long.compare(other.cost, cost);
+            return byCost != 0 ? byCost : Long.compare(order, other.order);
+        }
+    }
+}
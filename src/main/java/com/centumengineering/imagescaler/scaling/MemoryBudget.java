@@ -0,0 +1,186 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * Bounds the memory taken by decoded pixels across every running ScaleTask.
+ * Before decoding, a task estimates its footprint from the image header and
+ * acquires that many bytes, waiting until they fit in what's left of the
+ * budget. The bytes are released once the task has written its outputs.
+ *
+ * A request larger than the whole budget is reduced to the budget, so it
+ * only runs once nothing else holds any memory, i.e. alone.
+ *
+ * Waiting tasks are admitted in arrival order, except that a smaller task
+ * which fits may go ahead of a larger one still waiting for room. So that a
+ * large task isn't starved in turn, it can only be passed
+ * {@link #MAX_BYPASS} times, after which everything behind it waits until it
+ * has been admitted.
+ *
+ * @author Phani Gaddipati
+ */
+public class MemoryBudget {
+
+    /**
+     * How many times a waiting task may be passed by later, smaller tasks.
+     */
+    public static final int MAX_BYPASS = 8;
+
+    private final long capacity;
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+    private long used;
+    private long peakUsed;
+    private long admitted;
+    private long waited;
+    private long oversized;
+    private long bypassed;
+
+    /**
+     * Creates a new budget.
+     *
+     * @param capacity The number of bytes decoded pixels may take at once
+     */
+    public MemoryBudget(long capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The memory budget must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Blocks until the given number of bytes fits in the budget, and reserves
+     * them.
+     *
+     * @param bytes The estimated number of bytes needed
+     * @return The number of bytes reserved, to pass to
+     * {@link #release(long)}. This is less than requested if the request is
+     * larger than the whole budget.
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public synchronized long acquire(long bytes) throws InterruptedException {
+        Waiter self = new Waiter(Math.max(0, Math.min(bytes, capacity)));
+        waiters.addLast(self);
+        boolean admittedSelf = false;
+        try {
+            boolean waitedSelf = false;
+            while (!canAdmit(self)) {
+                waitedSelf = true;
+                wait();
+            }
+            // Everyone still ahead of this task has been passed by it
+            for (Waiter waiter : waiters) {
+                if (waiter == self) {
+                    break;
+                }
+                waiter.bypassed++;
+                bypassed++;
+            }
+            used += self.bytes;
+            peakUsed = Math.max(peakUsed, used);
+            admitted++;
+            if (waitedSelf) {
+                waited++;
+            }
+            if (self.bytes < bytes) {
+                oversized++;
+            }
+            admittedSelf = true;
+            return self.bytes;
+        } finally {
+            waiters.remove(self);
+            if (!admittedSelf || self.bypassed >= MAX_BYPASS) {
+                // This task was holding back the ones behind it, which may
+                // fit in what is left
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Gives reserved bytes back to the budget.
+     *
+     * @param bytes The number of bytes returned by {@link #acquire(long)}
+     */
+    public synchronized void release(long bytes) {
+        used -= bytes;
+        notifyAll();
+    }
+
+    private boolean canAdmit(Waiter self) {
+        if (self.bytes > capacity - used) {
+            return false;
+        }
+        Iterator<Waiter> it = waiters.iterator();
+        Waiter waiter;
+        while ((waiter = it.next()) != self) {
+            if (waiter.bypassed >= MAX_BYPASS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the given number of bytes could ever be reserved in
+     * full.
+     *
+     * @param bytes The number of bytes
+     * @return Whether the bytes fit in the whole budget
+     */
+    public boolean fits(long bytes) {
+        return bytes <= capacity;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The largest number of bytes reserved at once
+     */
+    public synchronized long getPeakUsed() {
+        return peakUsed;
+    }
+
+    /**
+     * @return The number of reservations made
+     */
+    public synchronized long getAdmitted() {
+        return admitted;
+    }
+
+    /**
+     * @return The number of reservations that had to wait for memory to be
+     * released
+     */
+    public synchronized long getWaited() {
+        return waited;
+    }
+
+    /**
+     * @return The number of reservations larger than the whole budget, which
+     * ran alone
+     */
+    public synchronized long getOversized() {
+        return oversized;
+    }
+
+    /**
+     * @return The number of times a waiting task was passed by a smaller one
+     */
+    public synchronized long getBypassed() {
+        return bypassed;
+    }
+
+    private static class Waiter {
+
+        private final long bytes;
+        private int bypassed;
+
+        Waiter(long bytes) {
+            this.bytes = bytes;
+        }
+    }
+}
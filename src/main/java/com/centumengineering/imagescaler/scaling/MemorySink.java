@@ -0,0 +1,58 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps every output in memory instead of writing it to a file, for
+ * applications that embed the scaler and handle the encoded images
+ * themselves. A sink collects the outputs of a single source.
+ *
+ * @author Phani Gaddipati
+ */
+public class MemorySink implements OutputSink {
+
+    private final Map<OutputProfile, EncodedOutput> outputs = new ConcurrentHashMap<>();
+
+    /**
+     * Keeps the output, and returns null as nothing is written to a file.
+     */
+    @Override
+    public File write(ImageSource source, OutputProfile profile, byte[] bytes, int width, int height) {
+        outputs.put(profile, new EncodedOutput(profile, ByteBuffer.wrap(bytes),
+                profile.getOutputFormat(source.getName()), width, height));
+        return null;
+    }
+
+    /**
+     * Outputs are never reused in memory, so the source is always scaled.
+     */
+    @Override
+    public File reuse(ImageSource source, OutputProfile profile, String originalName, boolean link) {
+        return null;
+    }
+
+    /**
+     * @param profile The profile of the output
+     * @return The output produced for the profile, or null if there is none
+     */
+    public EncodedOutput get(OutputProfile profile) {
+        return outputs.get(profile);
+    }
+
+    /**
+     * @param profiles The profiles of the outputs
+     * @return The output of each profile, in the same order
+     */
+    public List<EncodedOutput> getOutputs(List<OutputProfile> profiles) {
+        List<EncodedOutput> ordered = new ArrayList<>(profiles.size());
+        for (OutputProfile profile : profiles) {
+            ordered.add(outputs.get(profile));
+        }
+        return ordered;
+    }
+}
@@ -0,0 +1,269 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.io.File;
+import java.util.Locale;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Describes one output produced for every source image: its size, where it
+ * is written, and how it is encoded.
+ *
+ * A profile is either a fixed width, with the height following the aspect
+ * ratio of the source, or a bounding box the image is scaled to fit in.
+ *
+ * @author Phani Gaddipati
+ */
+public class OutputProfile {
+
+    private final String name;
+    private final int width;
+    private final int maxHeight;
+    private final File outputDir;
+    private final String format;
+    private final EncoderSettings encoder;
+
+    /**
+     * Creates a fixed width profile which keeps the source format.
+     *
+     * @param name The name of the profile, used in summaries and reports
+     * @param width The output width
+     * @param outputDir The directory to write outputs to
+     */
+    public OutputProfile(String name, int width, File outputDir) {
+        this(name, width, 0, outputDir, null, new EncoderSettings());
+    }
+
+    /**
+     * Creates a new profile.
+     *
+     * @param name The name of the profile, used in summaries and reports
+     * @param width The output width, or the width of the bounding box
+     * @param maxHeight The height of the bounding box, 0 for a fixed width
+     * @param outputDir The directory to write outputs to, null if outputs
+     * aren't written to files
+     * @param format The output format, null to keep the source format
+     * @param encoder The encoder settings
+     */
+    public OutputProfile(String name, int width, int maxHeight, File outputDir, String format,
+            EncoderSettings encoder) {
+        this.name = name;
+        this.width = width;
+        this.maxHeight = maxHeight;
+        this.outputDir = outputDir;
+        this.format = format == null ? null : format.toLowerCase(Locale.ROOT);
+        this.encoder = encoder;
+    }
+
+    /**
+     * Parses a profile from a comma separated list of key=value pairs, e.g.
+     * "name=thumb,size=150,out=thumbs" or
+     * "name=large,size=1600x1200,out=large,format=jpg,quality=0.85". The size
+     * is either a width or a WIDTHxHEIGHT bounding box. Format and the encoder
+     * settings of {@link EncoderSettings#parse(String, String)} are optional.
+     *
+     * @param spec The profile specification
+     * @return The parsed profile
+     * @throws IllegalArgumentException If the specification is invalid
+     */
+    public static OutputProfile parse(String spec) {
+        String name = null;
+        String size = null;
+        String out = null;
+        String format = null;
+        EncoderSettings encoder = new EncoderSettings();
+        for (String pair : spec.split(",")) {
+            int eq = pair.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected key=value but got \"" + pair + "\"");
+            }
+            String key = pair.substring(0, eq).trim().toLowerCase(Locale.ROOT);
+            String value = pair.substring(eq + 1).trim();
+            switch (key) {
+                case "name":
+                    name = value;
+                    break;
+                case "size":
+                    size = value;
+                    break;
+                case "out":
+                    out = value;
+                    break;
+                case "format":
+                    format = value;
+                    break;
+                default:
+                    if (!encoder.parse(key, value)) {
+                        throw new IllegalArgumentException("Unknown profile key \"" + key + "\"");
+                    }
+            }
+        }
+        if (size == null || out == null) {
+            throw new IllegalArgumentException("A profile requires a size and an out directory");
+        }
+
+        int w;
+        int h = 0;
+        try {
+            String[] dims = size.toLowerCase(Locale.ROOT).split("x");
+            w = Integer.parseInt(dims[0]);
+            if (dims.length > 1) {
+                h = Integer.parseInt(dims[1]);
+            }
+            if (dims.length > 2 || w < 1 || (dims.length > 1 && h < 1)) {
+                throw new NumberFormatException();
+            }
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid size \"" + size
+                    + "\", expected a width or WIDTHxHEIGHT greater than 0");
+        }
+        return new OutputProfile(name == null ? size : name, w, h, new File(out), format, encoder);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return The height of the bounding box, 0 if this is a fixed width
+     */
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+
+    public File getOutputDir() {
+        return outputDir;
+    }
+
+    /**
+     * @return The output format, null if the source format is kept
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    public EncoderSettings getEncoder() {
+        return encoder;
+    }
+
+    /**
+     * Creates a copy of this profile where any encoder setting it doesn't set
+     * is taken from the defaults.
+     *
+     * @param defaults The default encoder settings
+     * @return The new profile
+     */
+    public OutputProfile withEncoderDefaults(EncoderSettings defaults) {
+        return new OutputProfile(name, width, maxHeight, outputDir, format, encoder.withDefaults(defaults));
+    }
+
+    /**
+     * Computes the output width for a source of the given dimensions.
+     *
+     * @param srcW The source width
+     * @param srcH The source height
+     * @return The output width
+     */
+    public int getTargetWidth(int srcW, int srcH) {
+        if (!isHeightLimited(srcW, srcH)) {
+            return width;
+        }
+        return Math.max(1, Math.round(((float) maxHeight) / srcH * srcW));
+    }
+
+    /**
+     * Computes the output height for a source of the given dimensions.
+     *
+     * @param srcW The source width
+     * @param srcH The source height
+     * @return The output height
+     */
+    public int getTargetHeight(int srcW, int srcH) {
+        if (isHeightLimited(srcW, srcH)) {
+            return maxHeight;
+        }
+        return Math.max(1, (int) ((((float) width) / srcW) * srcH));
+    }
+
+    /**
+     * Whether the height is the limiting side of the bounding box for a
+     * source of the given dimensions.
+     */
+    private boolean isHeightLimited(int srcW, int srcH) {
+        return maxHeight > 0 && ((long) width) * srcH > ((long) maxHeight) * srcW;
+    }
+
+    /**
+     * Returns the format the output of the given source is written in.
+     *
+     * @param source The source file
+     * @return The format name
+     */
+    public String getOutputFormat(File source) {
+        return getOutputFormat(source.getName());
+    }
+
+    /**
+     * Returns the format the output of the source with the given name is
+     * written in.
+     *
+     * @param sourceName The file name of the source
+     * @return The format name
+     */
+    public String getOutputFormat(String sourceName) {
+        return format != null ? format : FilenameUtils.getExtension(sourceName).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Returns the file the output of the given source is written to. The
+     * extension is replaced if the profile changes the format.
+     *
+     * @param source The source file
+     * @return The output file
+     */
+    public File getOutputFile(File source) {
+        return getOutputFile(source.getName());
+    }
+
+    /**
+     * Returns the file the output of the source with the given name is
+     * written to.
+     *
+     * @param sourceName The file name of the source
+     * @return The output file
+     */
+    public File getOutputFile(String sourceName) {
+        return new File(outputDir.getAbsoluteFile(), getOutputName(sourceName));
+    }
+
+    /**
+     * Returns the file name of the output of the source with the given name.
+     * The extension is replaced if the profile changes the format.
+     *
+     * @param sourceName The file name of the source
+     * @return The output file name
+     */
+    public String getOutputName(String sourceName) {
+        return format == null ? sourceName : FilenameUtils.getBaseName(sourceName) + "." + format;
+    }
+
+    /**
+     * @return A description of everything that affects the output, used to
+     * detect when outputs need to be regenerated
+     */
+    public String getSignature() {
+        return name + ":" + width + "x" + maxHeight + ":" + (format == null ? "*" : format)
+                + ":" + encoder.getSignature();
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + (maxHeight > 0 ? "fit " + width + "x" + maxHeight : width + "px wide")
+                + (format != null ? ", " + format : "")
+                + encoder
+                + ")" + (outputDir != null ? " -> " + outputDir.getAbsolutePath() : "");
+    }
+}
@@ -0,0 +1,81 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Receives the encoded outputs of a ScaleTask. By default outputs are written
+ * to the file named by their profile, but they may also be kept in memory,
+ * e.g. to be served directly, or appended to pack files.
+ *
+ * @author Phani Gaddipati
+ */
+@FunctionalInterface
+public interface OutputSink {
+
+    /**
+     * Writes every output to the output file of its profile.
+     */
+    OutputSink FILES = (source, profile, bytes, width, height) -> {
+        File dest = new File(profile.getOutputDir().getAbsoluteFile(), profile.getOutputName(source.getName()));
+        // Replace rather than overwrite, the old file may be a hard link to
+        // the output of an identical source
+        Files.deleteIfExists(dest.toPath());
+        FileUtils.writeByteArrayToFile(dest, bytes);
+        return dest;
+    };
+
+    /**
+     * Handles one encoded output.
+     *
+     * @param source The source image
+     * @param profile The profile the output was produced for
+     * @param bytes The encoded output
+     * @param width The width of the output
+     * @param height The height of the output
+     * @return The file the output was written to, or null if it wasn't
+     * written to a file
+     * @throws IOException If the output can't be written
+     */
+    File write(ImageSource source, OutputProfile profile, byte[] bytes, int width, int height)
+            throws IOException;
+
+    /**
+     * Stores an output of the given source as the output already produced
+     * for an identical source, instead of scaling it again. By default the
+     * output file of the original is hard linked or copied.
+     *
+     * @param source The duplicate source
+     * @param profile The profile of the output
+     * @param originalName The name of the source the output was produced for
+     * @param link Whether to hard link the output rather than copy it. A
+     * copy is made if the file system can't link it.
+     * @return The file the output is in, or null if the original output
+     * doesn't exist any more
+     * @throws IOException If the output can't be stored
+     */
+    default File reuse(ImageSource source, OutputProfile profile, String originalName, boolean link)
+            throws IOException {
+        File dir = profile.getOutputDir().getAbsoluteFile();
+        File original = new File(dir, profile.getOutputName(originalName));
+        File dest = new File(dir, profile.getOutputName(source.getName()));
+        if (!original.isFile()) {
+            return null;
+        }
+        if (!dest.equals(original)) {
+            Files.deleteIfExists(dest.toPath());
+            if (link) {
+                try {
+                    Files.createLink(dest.toPath(), original.toPath());
+                    return dest;
+                } catch (IOException | UnsupportedOperationException ex) {
+                    // E.g. on another file system, fall back to a copy
+                }
+            }
+            Files.copy(original.toPath(), dest.toPath());
+        }
+        return dest;
+    }
+}
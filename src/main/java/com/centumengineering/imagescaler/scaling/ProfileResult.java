@@ -0,0 +1,97 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.io.File;
+
+/**
+ * The result of producing one OutputProfile for a source image.
+ *
+ * @author Phani Gaddipati
+ */
+public class ProfileResult {
+
+    private final OutputProfile profile;
+    private final File file;
+    private final int width;
+    private final int height;
+    private final long bytes;
+    private final long resizeNanos;
+    private final long encodeNanos;
+    private final long writeNanos;
+    private final boolean embeddedThumbnail;
+
+    public ProfileResult(OutputProfile profile, File file, int width, int height, long bytes,
+            long resizeNanos, long encodeNanos, long writeNanos) {
+        this(profile, file, width, height, bytes, resizeNanos, encodeNanos, writeNanos, false);
+    }
+
+    public ProfileResult(OutputProfile profile, File file, int width, int height, long bytes,
+            long resizeNanos, long encodeNanos, long writeNanos, boolean embeddedThumbnail) {
+        this.profile = profile;
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.bytes = bytes;
+        this.resizeNanos = resizeNanos;
+        this.encodeNanos = encodeNanos;
+        this.writeNanos = writeNanos;
+        this.embeddedThumbnail = embeddedThumbnail;
+    }
+
+    /**
+     * @return Whether the output was scaled from the thumbnail embedded in
+     * the source rather than from the image itself
+     */
+    public boolean isEmbeddedThumbnail() {
+        return embeddedThumbnail;
+    }
+
+    public OutputProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * @return The file the output was written to, null if it was kept in
+     * memory
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return The size of the encoded output
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return The time spent scaling this output, 0 if an identical scaled
+     * image was reused
+     */
+    public long getResizeNanos() {
+        return resizeNanos;
+    }
+
+    public long getEncodeNanos() {
+        return encodeNanos;
+    }
+
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    /**
+     * @return The total time spent producing this output
+     */
+    public long getTotalNanos() {
+        return resizeNanos + encodeNanos + writeNanos;
+    }
+}
@@ -0,0 +1,83 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.awt.image.BufferedImage;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+/**
+ * Scales an image to an exact size. Implementations must be safe to use from
+ * several threads at once.
+ *
+ * @author Phani Gaddipati
+ */
+public interface Resampler {
+
+    /**
+     * The names accepted by {@link #forName(String)}.
+     */
+    String[] NAMES = {"scalr", "lanczos", "bicubic"};
+
+    /**
+     * Scales the image to the given size, ignoring its aspect ratio.
+     *
+     * @param src The image to scale
+     * @param width The output width
+     * @param height The output height
+     * @return The scaled image
+     */
+    BufferedImage resize(BufferedImage src, int width, int height);
+
+    /**
+     * Scales the image to the given size, ignoring its aspect ratio, and may
+     * split the work into subtasks.
+     *
+     * @param src The image to scale
+     * @param width The output width
+     * @param height The output height
+     * @param subtasks The executor to run the subtasks on, such as
+     * {@link ScaleExecutor#getSubtaskExecutor()}, or null to do all the work
+     * on the calling thread
+     * @return The scaled image
+     */
+    default BufferedImage resize(BufferedImage src, int width, int height, Executor subtasks) {
+        return resize(src, width, height);
+    }
+
+    /**
+     * Whether the images this engine returns are taken from the
+     * {@link ImagePool}, so callers can release them to it once done. Other
+     * engines allocate sizes the pool is rarely asked for, which would only
+     * push out the images it does reuse.
+     *
+     * @return Whether the scaled images should be released to the pool
+     */
+    default boolean isPooled() {
+        return false;
+    }
+
+    /**
+     * @return The name of the engine, as accepted by
+     * {@link #forName(String)}
+     */
+    String getName();
+
+    /**
+     * Creates the resampling engine of the given name.
+     *
+     * @param name One of {@link #NAMES}
+     * @return The engine
+     * @throws IllegalArgumentException If there is no engine of that name
+     */
+    static Resampler forName(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "scalr":
+                return new ScalrResampler();
+            case "lanczos":
+                return new SeparableResampler(SeparableResampler.Filter.LANCZOS3);
+            case "bicubic":
+                return new SeparableResampler(SeparableResampler.Filter.BICUBIC);
+            default:
+                throw new IllegalArgumentException("Unknown engine \"" + name + "\"");
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A dedicated executor for ScaleTasks. It runs a fixed number of worker
+ * threads and only allows a bounded number of tasks to be in flight (running
+ * or waiting for a worker) at once. Once that window is full,
+ * {@link #execute(Runnable)} blocks the submitting thread until a task
+ * finishes, so the number of decoded images on the heap stays bounded no
+ * matter how many files are submitted.
+ *
+ * Any stages chained onto a CompletableFuture before it completes run on the
+ * worker as part of the task, so they have also finished by the time the slot
+ * is given back.
+ *
+ * The executor also keeps track of how long its workers were busy, so the
+ * time cores sat idle while a run was waiting on its slowest tasks can be
+ * reported, and of how much memory they allocated where the JVM can tell.
+ *
+ * @author Phani Gaddipati
+ */
+public class ScaleExecutor implements Executor, AutoCloseable {
+
+    private final ThreadPoolExecutor workers;
+    private final LinkedBlockingDeque<Runnable> queue = new LinkedBlockingDeque<>();
+    private final Semaphore window;
+    private final int windowSize;
+    private final int threads;
+    private final LongAdder busyNanos = new LongAdder();
+    private final AtomicLong firstStartNanos = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong lastEndNanos = new AtomicLong(Long.MIN_VALUE);
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final com.sun.management.ThreadMXBean allocation = getAllocationBean();
+
+    /**
+     * Creates a new executor.
+     *
+     * @param threads The number of worker threads
+     * @param queueDepth The number of tasks that may wait for a free worker
+     */
+    public ScaleExecutor(int threads, int queueDepth) {
+        this(threads, queueDepth, "scale-worker");
+    }
+
+    /**
+     * Creates a new executor with named worker threads. This lets other
+     * bounded stages, such as downloading, share the same backpressure
+     * behavior.
+     *
+     * @param threads The number of worker threads
+     * @param queueDepth The number of tasks that may wait for a free worker
+     * @param threadName The prefix of the worker thread names
+     */
+    public ScaleExecutor(int threads, int queueDepth, String threadName) {
+        this.threads = threads;
+        this.windowSize = threads + queueDepth;
+        this.window = new Semaphore(windowSize);
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, queue,
+                new WorkerThreadFactory(threadName));
+        // Every worker polls the queue from the start, so subtasks can be put
+        // straight at its head
+        workers.prestartAllCoreThreads();
+    }
+
+    /**
+     * Runs the given command on a worker, blocking until there is room in the
+     * in-flight window.
+     *
+     * @param command The task to run
+     * @throws RejectedExecutionException If interrupted while waiting for room,
+     * or if the executor has been closed
+     */
+    @Override
+    public void execute(Runnable command) {
+        try {
+            window.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for a free worker", ex);
+        }
+        try {
+            workers.execute(() -> {
+                try {
+                    timed(command);
+                } finally {
+                    window.release();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            window.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Gets an executor that runs subtasks of the tasks already in flight, such
+     * as the outputs of a large image, on the same workers. Subtasks bypass the
+     * in-flight window, since a task waiting for a slot for its own subtask
+     * could never give its slot back, and go ahead of the tasks waiting for a
+     * worker, so the next free worker helps finish the task in flight. A task
+     * must still be able to finish its subtasks itself, since every other
+     * worker may be busy.
+     *
+     * @return The subtask executor
+     */
+    public Executor getSubtaskExecutor() {
+        return command -> {
+            if (workers.isShutdown()) {
+                throw new RejectedExecutionException("The executor has been closed");
+            }
+            queue.offerFirst(() -> timed(command));
+        };
+    }
+
+    /**
+     * @return The number of worker threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return The total time the workers spent running tasks and subtasks
+     */
+    public long getBusyNanos() {
+        return busyNanos.sum();
+    }
+
+    /**
+     * @return The bytes the workers allocated while running tasks and
+     * subtasks, or -1 if the JVM doesn't measure allocation per thread
+     */
+    public long getAllocatedBytes() {
+        return allocation != null ? allocatedBytes.sum() : -1;
+    }
+
+    /**
+     * @return The time from the start of the first task to the end of the
+     * last, 0 if no task has run
+     */
+    public long getActiveNanos() {
+        long first = firstStartNanos.get();
+        long last = lastEndNanos.get();
+        return last > first ? last - first : 0;
+    }
+
+    private void timed(Runnable command) {
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = allocation != null ? allocation.getThreadAllocatedBytes(thread) : 0;
+        long start = System.nanoTime();
+        firstStartNanos.accumulateAndGet(start, Math::min);
+        try {
+            command.run();
+        } finally {
+            long end = System.nanoTime();
+            busyNanos.add(end - start);
+            lastEndNanos.accumulateAndGet(end, Math::max);
+            if (allocation != null) {
+                allocatedBytes.add(allocation.getThreadAllocatedBytes(thread) - allocatedBefore);
+            }
+        }
+    }
+
+    /**
+     * Gets the HotSpot thread bean if it measures the memory each thread
+     * allocates.
+     *
+     * @return The bean, or null on other JVMs or if measuring is disabled
+     */
+    private static com.sun.management.ThreadMXBean getAllocationBean() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+            if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+                return bean;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Blocks until every submitted task has finished.
+     *
+     * @throws InterruptedException
+     */
+    public void awaitIdle() throws InterruptedException {
+        window.acquire(windowSize);
+        window.release(windowSize);
+    }
+
+    /**
+     * Stops accepting new tasks. Tasks already submitted still run to
+     * completion.
+     */
+    @Override
+    public void close() {
+        workers.shutdown();
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+        private final String name;
+
+        WorkerThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
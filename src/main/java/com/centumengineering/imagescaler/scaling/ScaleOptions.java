@@ -0,0 +1,129 @@
+package com.centumengineering.imagescaler.scaling;
+
+/**
+ * Tuning options shared by every ScaleTask of a run. These control how an
+ * image is scaled, not what is produced.
+ *
+ * @author Phani Gaddipati
+ */
+public class ScaleOptions {
+
+    public static final double DEFAULT_MIN_CASCADE_RATIO = 2.0;
+    public static final long DEFAULT_STREAM_THRESHOLD = 64L * 1000L * 1000L;
+
+    private boolean cascade = false;
+    private double minCascadeRatio = DEFAULT_MIN_CASCADE_RATIO;
+    private boolean subsample = true;
+    private MemoryBudget memoryBudget = null;
+    private long streamThreshold = DEFAULT_STREAM_THRESHOLD;
+    private Resampler resampler = new ScalrResampler();
+    private boolean embeddedThumbnails = false;
+    private long splitThreshold = 0;
+
+    /**
+     * @return Whether smaller outputs are derived from larger scaled outputs
+     * rather than from the original image
+     */
+    public boolean isCascade() {
+        return cascade;
+    }
+
+    public ScaleOptions setCascade(boolean cascade) {
+        this.cascade = cascade;
+        return this;
+    }
+
+    /**
+     * @return The smallest width ratio between a scaled image and the next
+     * smaller output for the output to be derived from it. Below this ratio the
+     * smaller output is scaled from the original instead, since re-sampling an
+     * already filtered image by a small factor noticeably softens it.
+     */
+    public double getMinCascadeRatio() {
+        return minCascadeRatio;
+    }
+
+    public ScaleOptions setMinCascadeRatio(double minCascadeRatio) {
+        this.minCascadeRatio = minCascadeRatio;
+        return this;
+    }
+
+    /**
+     * @return Whether sources much larger than the largest output are decoded
+     * with subsampling instead of decoding every pixel
+     */
+    public boolean isSubsample() {
+        return subsample;
+    }
+
+    public ScaleOptions setSubsample(boolean subsample) {
+        this.subsample = subsample;
+        return this;
+    }
+
+    /**
+     * @return The number of decoded pixels above which an image is decoded and
+     * downscaled in strips instead of being decoded whole, 0 to never stream
+     */
+    public long getStreamThreshold() {
+        return streamThreshold;
+    }
+
+    public ScaleOptions setStreamThreshold(long streamThreshold) {
+        this.streamThreshold = streamThreshold;
+        return this;
+    }
+
+    /**
+     * @return The budget decoded images are admitted under, or null if memory
+     * use isn't limited
+     */
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public ScaleOptions setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        return this;
+    }
+
+    /**
+     * @return The engine that scales decoded images to their outputs
+     */
+    public Resampler getResampler() {
+        return resampler;
+    }
+
+    public ScaleOptions setResampler(Resampler resampler) {
+        this.resampler = resampler;
+        return this;
+    }
+
+    /**
+     * @return Whether outputs no larger than the thumbnail embedded in a
+     * source, such as the EXIF thumbnail of a camera JPEG, are scaled from
+     * that thumbnail. The image itself isn't decoded if every output can be.
+     */
+    public boolean isEmbeddedThumbnails() {
+        return embeddedThumbnails;
+    }
+
+    public ScaleOptions setEmbeddedThumbnails(boolean embeddedThumbnails) {
+        this.embeddedThumbnails = embeddedThumbnails;
+        return this;
+    }
+
+    /**
+     * @return The number of source pixels from which the outputs of an image
+     * are produced in parallel subtasks instead of one after another, 0 to
+     * never split
+     */
+    public long getSplitThreshold() {
+        return splitThreshold;
+    }
+
+    public ScaleOptions setSplitThreshold(long splitThreshold) {
+        this.splitThreshold = splitThreshold;
+        return this;
+    }
+}
@@ -5,7 +5,10 @@
  */
 package com.centumengineering.imagescaler.scaling;
 
+import com.centumengineering.imagescaler.scaling.StageTimes.Stage;
 import java.io.File;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * A class to hold the result params of a ScaleTask.
@@ -14,36 +17,213 @@ import java.io.File;
  */
 public class ScaleResult {
 
+    /**
+     * How the outputs of a task were derived.
+     */
+    public enum ResizePath {
+        /**
+         * Every output was scaled from the original image.
+         */
+        DIRECT,
+        /**
+         * At least one smaller output was scaled from a larger scaled output.
+         */
+        CASCADE,
+        /**
+         * Cascading was requested, but the ratio between outputs was too
+         * small so every output was scaled from the original image.
+         */
+        CASCADE_FALLBACK,
+        /**
+         * Every output was scaled from the thumbnail embedded in the source,
+         * and the image itself was never decoded.
+         */
+        EMBEDDED_THUMBNAIL
+    }
+
     private final long startTime;
     private final long endTime;
     private final long startBytes;
-    private final long thumbBytes;
-    private final long fullBytes;
-    private final File file;
+    private final ImageSource source;
+    private final ResizePath resizePath;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int decodedWidth;
+    private final int decodedHeight;
+    private final StageTimes stageTimes;
+    private final List<ProfileResult> profileResults;
+    private final long reservedBytes;
+    private final boolean lowMemory;
+    private final boolean streamed;
+    private final boolean split;
+    private final String duplicateOf;
+    private final long savedNanos;
+
+    public ScaleResult(long startTime, long endTime, long startBytes, ImageSource source,
+            ResizePath resizePath, int sourceWidth, int sourceHeight, int decodedWidth,
+            int decodedHeight, StageTimes stageTimes, List<ProfileResult> profileResults,
+            long reservedBytes, boolean lowMemory, boolean streamed) {
+        this(startTime, endTime, startBytes, source, resizePath, sourceWidth, sourceHeight, decodedWidth,
+                decodedHeight, stageTimes, profileResults, reservedBytes, lowMemory, streamed, false);
+    }
+
+    public ScaleResult(long startTime, long endTime, long startBytes, ImageSource source,
+            ResizePath resizePath, int sourceWidth, int sourceHeight, int decodedWidth,
+            int decodedHeight, StageTimes stageTimes, List<ProfileResult> profileResults,
+            long reservedBytes, boolean lowMemory, boolean streamed, boolean split) {
+        this(startTime, endTime, startBytes, source, resizePath, sourceWidth, sourceHeight, decodedWidth,
+                decodedHeight, stageTimes, profileResults, reservedBytes, lowMemory, streamed, split, null, 0);
+    }
 
-    public ScaleResult(long startTime, long endTime, long startBytes, long thumbBytes, long fullBytes, File file) {
+    /**
+     * Creates the result of a source whose outputs were reused from an
+     * identical source rather than scaled.
+     *
+     * @param startTime The time the task started
+     * @param endTime The time the task ended
+     * @param source The duplicate source
+     * @param duplicateOf The name of the source the outputs were produced for
+     * @param savedNanos The CPU time it took to produce the outputs
+     */
+    public ScaleResult(long startTime, long endTime, ImageSource source, String duplicateOf, long savedNanos) {
+        this(startTime, endTime, source.getLength(), source, null, 0, 0, 0, 0, new StageTimes(),
+                Collections.<ProfileResult>emptyList(), 0, false, false, false, duplicateOf, savedNanos);
+    }
+
+    private ScaleResult(long startTime, long endTime, long startBytes, ImageSource source,
+            ResizePath resizePath, int sourceWidth, int sourceHeight, int decodedWidth,
+            int decodedHeight, StageTimes stageTimes, List<ProfileResult> profileResults,
+            long reservedBytes, boolean lowMemory, boolean streamed, boolean split, String duplicateOf,
+            long savedNanos) {
         this.startTime = startTime;
         this.endTime = endTime;
         this.startBytes = startBytes;
-        this.thumbBytes = thumbBytes;
-        this.fullBytes = fullBytes;
-        this.file = file;
+        this.source = source;
+        this.resizePath = resizePath;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.decodedWidth = decodedWidth;
+        this.decodedHeight = decodedHeight;
+        this.stageTimes = stageTimes;
+        this.profileResults = Collections.unmodifiableList(profileResults);
+        this.reservedBytes = reservedBytes;
+        this.lowMemory = lowMemory;
+        this.streamed = streamed;
+        this.split = split;
+        this.duplicateOf = duplicateOf;
+        this.savedNanos = savedNanos;
     }
 
     public long getStartBytes() {
         return startBytes;
     }
 
-    public long getThumbBytes() {
-        return thumbBytes;
+    /**
+     * @return The result of each output profile, in the order the profiles
+     * were given
+     */
+    public List<ProfileResult> getProfileResults() {
+        return profileResults;
     }
 
-    public long getFullBytes() {
-        return fullBytes;
+    /**
+     * @return The total size of every output
+     */
+    public long getOutputBytes() {
+        long total = 0;
+        for (ProfileResult profileResult : profileResults) {
+            total += profileResult.getBytes();
+        }
+        return total;
     }
 
+    /**
+     * @return The source file, null if the source was in memory
+     */
     public File getFile() {
-        return file;
+        return source.getFile();
+    }
+
+    public ImageSource getSource() {
+        return source;
+    }
+
+    public ResizePath getResizePath() {
+        return resizePath;
+    }
+
+    public int getSourceWidth() {
+        return sourceWidth;
+    }
+
+    public int getSourceHeight() {
+        return sourceHeight;
+    }
+
+    /**
+     * @return The width the source was decoded at, smaller than the source
+     * width if it was subsampled
+     */
+    public int getDecodedWidth() {
+        return decodedWidth;
+    }
+
+    public int getDecodedHeight() {
+        return decodedHeight;
+    }
+
+    /**
+     * @return The nanosecond timings of each stage of the task
+     */
+    public StageTimes getStageTimes() {
+        return stageTimes;
+    }
+
+    /**
+     * @return The number of bytes reserved from the memory budget, 0 if there
+     * is no budget
+     */
+    public long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * @return Whether the source was too large for the memory budget and was
+     * decoded with as much subsampling as the outputs allow
+     */
+    public boolean isLowMemory() {
+        return lowMemory;
+    }
+
+    /**
+     * @return Whether the source was decoded and downscaled in strips rather
+     * than decoded whole
+     */
+    public boolean isStreamed() {
+        return streamed;
+    }
+
+    /**
+     * @return Whether the outputs were produced in parallel subtasks
+     */
+    public boolean isSplit() {
+        return split;
+    }
+
+    /**
+     * @return The name of the identical source whose outputs were reused, or
+     * null if the source was scaled
+     */
+    public String getDuplicateOf() {
+        return duplicateOf;
+    }
+
+    /**
+     * @return The CPU time the reused outputs took to produce, 0 if the
+     * source was scaled
+     */
+    public long getSavedNanos() {
+        return savedNanos;
     }
 
     public long getProcessingTimeInMillis() {
@@ -57,10 +237,39 @@ public class ScaleResult {
      * @return
      */
     public static ScaleResult printTaskSummary(ScaleResult result) {
-        System.out.println(result.getFile().getName()
-                + "\t Original: " + result.getStartBytes() + " bytes\t Thumbnail: "
-                + result.getThumbBytes() + " bytes\t Full: " + result.getFullBytes()
-                + " bytes. Time: " + result.getProcessingTimeInMillis() + "ms");
+        if (result.getDuplicateOf() != null) {
+            System.out.println(result.getSource().getName() + "\t Original: " + result.getStartBytes()
+                    + " bytes. Duplicate of " + result.getDuplicateOf() + ". Time: "
+                    + result.getProcessingTimeInMillis() + "ms. Saved: " + formatMillis(result.getSavedNanos()));
+            return result;
+        }
+        StringBuilder outputs = new StringBuilder();
+        for (ProfileResult profileResult : result.getProfileResults()) {
+            outputs.append("\t ").append(profileResult.getProfile().getName()).append(": ")
+                    .append(profileResult.getBytes()).append(" bytes (encode ")
+                    .append(formatMillis(profileResult.getEncodeNanos())).append(", total ")
+                    .append(formatMillis(profileResult.getTotalNanos()))
+                    .append(profileResult.isEmbeddedThumbnail() ? ", from embedded thumbnail)" : ")");
+        }
+        System.out.println(result.getSource().getName()
+                + "\t Original: " + result.getStartBytes() + " bytes" + outputs
+                + ". Time: " + result.getProcessingTimeInMillis() + "ms. Path: "
+                + result.getResizePath() + ". Decoded: " + result.getDecodedWidth() + "x"
+                + result.getDecodedHeight() + " of " + result.getSourceWidth() + "x"
+                + result.getSourceHeight() + (result.isLowMemory() ? " (low memory)" : "")
+                + (result.isStreamed() ? " (streamed)" : "")
+                + (result.isSplit() ? " (split)" : "")
+                + ". Stages: decode "
+                + formatMillis(result.getStageTimes().getNanos(Stage.DECODE)) + ", resize "
+                + formatMillis(result.getStageTimes().getNanos(Stage.RESIZE)) + ", encode "
+                + formatMillis(result.getStageTimes().getNanos(Stage.ENCODE)) + ", write "
+                + formatMillis(result.getStageTimes().getNanos(Stage.WRITE)) + ", queued "
+                + formatMillis(result.getStageTimes().getNanos(Stage.QUEUE_WAIT)) + ", memory wait "
+                + formatMillis(result.getStageTimes().getNanos(Stage.MEMORY_WAIT)));
         return result;
     }
+
+    private static String formatMillis(long nanos) {
+        return String.format("%.1fms", nanos / 1e6);
+    }
 }
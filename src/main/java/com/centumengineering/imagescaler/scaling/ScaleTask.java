@@ -1,59 +1,477 @@
 package com.centumengineering.imagescaler.scaling;
 
+import com.centumengineering.imagescaler.scaling.ScaleResult.ResizePath;
+import com.centumengineering.imagescaler.scaling.StageTimes.Stage;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import javax.imageio.ImageIO;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.FilenameUtils;
-import org.imgscalr.Scalr;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * This class contains the logic to scale images with ImageScalr.
+ * This class contains the logic to scale images with the configured
+ * {@link Resampler}. The source is decoded once and every output profile is
+ * produced from it. The outputs of a large source can be produced in parallel
+ * subtasks, so one expensive image doesn't hold up a run on a single core.
  *
  * @author Phani Gaddipati
  */
 public class ScaleTask {
 
-    private final File file;
-    private final int thumbW;
-    private final int fullW;
-    private final File thumbDir;
-    private final File fullDir;
+    private final ImageSource source;
+    private final List<OutputProfile> profiles;
+    private final ScaleOptions options;
+    private final OutputSink sink;
+    private final Executor subtasks;
+    private final long createdNanos;
 
     public ScaleTask(File file, int thumbW, int fullWW, File thumbDir, File fullDir) {
-        this.file = file;
-        this.thumbW = thumbW;
-        this.fullW = fullWW;
-        this.thumbDir = thumbDir;
-        this.fullDir = fullDir;
+        this(file, thumbW, fullWW, thumbDir, fullDir, new ScaleOptions());
+    }
+
+    public ScaleTask(File file, int thumbW, int fullWW, File thumbDir, File fullDir, ScaleOptions options) {
+        this(file, defaultProfiles(thumbW, fullWW, thumbDir, fullDir), options);
+    }
+
+    public ScaleTask(File file, List<OutputProfile> profiles, ScaleOptions options) {
+        this(file, profiles, options, OutputSink.FILES);
+    }
+
+    public ScaleTask(File file, List<OutputProfile> profiles, ScaleOptions options, OutputSink sink) {
+        this(ImageSource.of(file), profiles, options, sink);
+    }
+
+    public ScaleTask(ImageSource source, List<OutputProfile> profiles, ScaleOptions options, OutputSink sink) {
+        this(source, profiles, options, sink, null);
+    }
+
+    /**
+     * Creates a task that may split its outputs into subtasks.
+     *
+     * @param source The image to scale
+     * @param profiles The outputs to produce
+     * @param options The scaling options, whose split threshold decides which
+     * sources are split
+     * @param sink The receiver of the encoded outputs
+     * @param subtasks The executor to run the subtasks on, such as
+     * {@link ScaleExecutor#getSubtaskExecutor()}, or null to never split
+     */
+    public ScaleTask(ImageSource source, List<OutputProfile> profiles, ScaleOptions options, OutputSink sink,
+            Executor subtasks) {
+        this.source = source;
+        this.profiles = profiles;
+        this.options = options;
+        this.sink = sink;
+        this.subtasks = subtasks;
+        this.createdNanos = System.nanoTime();
     }
 
     public ScaleResult run() {
         long startTime = System.currentTimeMillis();
-        File thumbDest = new File(thumbDir.getAbsoluteFile(), file.getName());
-        File fullDest = new File(fullDir.getAbsoluteFile(), file.getName());
-        String format = FilenameUtils.getExtension(file.getAbsolutePath());
+        StageTimes times = new StageTimes();
+        long stageStart = times.lap(Stage.QUEUE_WAIT, createdNanos);
+        ProfileResult[] results = new ProfileResult[profiles.size()];
+        ResizePath path;
 
+        MemoryBudget budget = options.getMemoryBudget();
+        long reserved = 0;
+        boolean lowMemory = false;
+        int srcW;
+        int srcH;
+        BufferedImage thumbnail = null;
+        boolean[] fromThumbnail = new boolean[profiles.size()];
+        DecodedImage decoded = null;
+        boolean split = false;
+        int usedW;
+        int usedH;
         try {
-            // Scale to a fixed width for thumbnails and full-images
-            BufferedImage img = ImageIO.read(file);
-            BufferedImage thumbnail = Scalr.resize(img, thumbW,
-                    (int) ((((float) thumbW) / img.getWidth()) * img.getHeight()));
-            BufferedImage full = Scalr.resize(img, fullW,
-                    (int) ((((float) fullW) / img.getWidth()) * img.getHeight()));
-            // Write the new images
-            ImageIO.write(thumbnail, format, thumbDest);
-            ImageIO.write(full, format, fullDest);                        
+            try (EncodedImage encoded = EncodedImage.open(source)) {
+                srcW = encoded.getWidth();
+                srcH = encoded.getHeight();
+                if (options.isEmbeddedThumbnails()) {
+                    thumbnail = readEmbeddedThumbnail(encoded, fromThumbnail);
+                }
+                // Only decode the image if the thumbnail isn't enough for every output
+                if (thumbnail == null || !all(fromThumbnail)) {
+                    int maxOutputW = getMaxOutputWidth(srcW, srcH, fromThumbnail);
+                    int factor = options.isSubsample() ? ImageDecoder.subsamplingFactor(srcW, maxOutputW) : 1;
+                    if (budget != null) {
+                        long estimate = estimateBytes(encoded, factor, maxOutputW);
+                        if (!budget.fits(estimate) && options.isSubsample()) {
+                            // Too large to ever fit, decode as few pixels as the outputs allow
+                            int lowMemoryFactor = ImageDecoder.lowMemorySubsamplingFactor(srcW, maxOutputW);
+                            if (lowMemoryFactor > factor) {
+                                factor = lowMemoryFactor;
+                                estimate = estimateBytes(encoded, factor, maxOutputW);
+                                lowMemory = true;
+                            }
+                        }
+                        stageStart = times.lap(Stage.DECODE, stageStart);
+                        reserved = budget.acquire(estimate);
+                        stageStart = times.lap(Stage.MEMORY_WAIT, stageStart);
+                    }
+                    if (isStreamed(encoded, factor, maxOutputW)) {
+                        int decodedW = (srcW + factor - 1) / factor;
+                        int decodedH = (srcH + factor - 1) / factor;
+                        int dstH = Math.max(1, (int) (((long) decodedH) * maxOutputW / decodedW));
+                        decoded = StripResizer.resize(encoded, factor, maxOutputW, dstH);
+                    } else {
+                        decoded = encoded.decode(factor);
+                    }
+                }
+            }
+            times.lap(Stage.DECODE, stageStart);
+            BufferedImage img = decoded != null ? decoded.getImage() : null;
+
+            boolean cascaded = false;
+            List<BufferedImage> scaled = new ArrayList<>();
+            split = subtasks != null && decoded != null && profiles.size() > 1
+                    && options.getSplitThreshold() > 0 && ((long) srcW) * srcH >= options.getSplitThreshold();
+            if (split) {
+                produceSplit(img, thumbnail, fromThumbnail, srcW, srcH, results);
+            } else {
+                // Produce the largest outputs first so smaller ones can be
+                // derived from them when cascading
+                for (int i : orderBySize(srcW, srcH)) {
+                    int w = profiles.get(i).getTargetWidth(srcW, srcH);
+                    int h = profiles.get(i).getTargetHeight(srcW, srcH);
+
+                    long resizeStart = System.nanoTime();
+                    BufferedImage out;
+                    if (fromThumbnail[i]) {
+                        out = options.getResampler().resize(thumbnail, w, h, subtasks);
+                    } else {
+                        out = findScaled(scaled, w, h);
+                        if (out == null) {
+                            BufferedImage from = options.isCascade() ? getCascadeBase(scaled, img, w) : img;
+                            cascaded |= from != img;
+                            out = options.getResampler().resize(from, w, h, subtasks);
+                            scaled.add(out);
+                        }
+                    }
+                    results[i] = write(i, out, System.nanoTime() - resizeStart, fromThumbnail[i]);
+                    if (fromThumbnail[i] && out != thumbnail) {
+                        releaseScaled(out);
+                    }
+                }
+            }
+            for (ProfileResult result : results) {
+                times.add(Stage.RESIZE, result.getResizeNanos());
+                times.add(Stage.ENCODE, result.getEncodeNanos());
+                times.add(Stage.WRITE, result.getWriteNanos());
+            }
+            BufferedImage used = img != null ? img : thumbnail;
+            usedW = used.getWidth();
+            usedH = used.getHeight();
+            // Nothing refers to the images any more, so the next source can
+            // reuse their pixels
+            for (BufferedImage out : scaled) {
+                if (out != img && out != thumbnail) {
+                    releaseScaled(out);
+                }
+            }
+            ImagePool.release(img);
+            if (thumbnail != img) {
+                ImagePool.release(thumbnail);
+            }
+            if (decoded == null) {
+                path = ResizePath.EMBEDDED_THUMBNAIL;
+            } else if (!options.isCascade() || split) {
+                path = ResizePath.DIRECT;
+            } else {
+                path = cascaded ? ResizePath.CASCADE : ResizePath.CASCADE_FALLBACK;
+            }
         } catch (IOException ex) {
             // Complete exceptionally
             throw new RuntimeException(ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } finally {
+            if (reserved > 0) {
+                budget.release(reserved);
+            }
         }
 
         long endTime = System.currentTimeMillis();
-        return new ScaleResult(startTime, endTime, FileUtils.sizeOf(file),
-                FileUtils.sizeOf(thumbDest), FileUtils.sizeOf(fullDest), file);
+        return new ScaleResult(startTime, endTime, source.getLength(), source, path, srcW, srcH,
+                usedW, usedH, times, Arrays.asList(results), reserved, lowMemory,
+                decoded != null && decoded.isStreamed(), split);
+    }
+
+    /**
+     * Resizes one output from the given image, then encodes and writes it.
+     *
+     * @param i The index of the profile
+     * @param from The image to resize
+     * @param fromThumbnail Whether the image is the embedded thumbnail
+     * @return The result of the profile
+     */
+    private ProfileResult produce(int i, BufferedImage from, int srcW, int srcH, boolean fromThumbnail)
+            throws IOException {
+        long resizeStart = System.nanoTime();
+        BufferedImage out = options.getResampler().resize(from,
+                profiles.get(i).getTargetWidth(srcW, srcH), profiles.get(i).getTargetHeight(srcW, srcH), subtasks);
+        ProfileResult result = write(i, out, System.nanoTime() - resizeStart, fromThumbnail);
+        if (out != from) {
+            releaseScaled(out);
+        }
+        return result;
+    }
+
+    /**
+     * Releases an image the resampler returned to the pool, if it came from
+     * there.
+     */
+    private void releaseScaled(BufferedImage out) {
+        if (options.getResampler().isPooled()) {
+            ImagePool.release(out);
+        }
+    }
+
+    /**
+     * Encodes a resized output and hands it to the sink.
+     *
+     * @param i The index of the profile
+     * @param out The resized output
+     * @param resizeNanos The time it took to resize
+     * @param fromThumbnail Whether it was resized from the embedded thumbnail
+     * @return The result of the profile
+     */
+    private ProfileResult write(int i, BufferedImage out, long resizeNanos, boolean fromThumbnail)
+            throws IOException {
+        OutputProfile profile = profiles.get(i);
+        long encodeStart = System.nanoTime();
+        byte[] bytes = ImageEncoder.encode(out, profile.getOutputFormat(source.getName()), profile.getEncoder());
+        long writeStart = System.nanoTime();
+        File dest = sink.write(source, profile, bytes, out.getWidth(), out.getHeight());
+        long end = System.nanoTime();
+        return new ProfileResult(profile, dest, out.getWidth(), out.getHeight(), bytes.length,
+                resizeNanos, writeStart - encodeStart, end - writeStart, fromThumbnail);
+    }
+
+    /**
+     * Produces the outputs in parallel, one subtask per output. The calling
+     * thread claims outputs too, largest first, so every output gets done even
+     * if no worker is free to pick up a subtask, and then waits for the
+     * outputs other workers claimed. Each output is scaled from the decoded
+     * image or the thumbnail, since cascading would make them wait on each
+     * other.
+     *
+     * @param img The decoded image
+     * @param thumbnail The embedded thumbnail, or null
+     * @param fromThumbnail Set for each output produced from the thumbnail
+     * @param results Receives the result of each profile
+     */
+    private void produceSplit(BufferedImage img, BufferedImage thumbnail, boolean[] fromThumbnail,
+            int srcW, int srcH, ProfileResult[] results) throws IOException, InterruptedException {
+        List<Integer> order = orderBySize(srcW, srcH);
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(order.size());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Runnable claim = () -> {
+            int claimed;
+            while ((claimed = next.getAndIncrement()) < order.size()) {
+                int i = order.get(claimed);
+                try {
+                    if (failure.get() == null) {
+                        results[i] = produce(i, fromThumbnail[i] ? thumbnail : img, srcW, srcH, fromThumbnail[i]);
+                    }
+                } catch (IOException | RuntimeException | Error ex) {
+                    failure.compareAndSet(null, ex);
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+        try {
+            for (int k = 1; k < order.size(); k++) {
+                subtasks.execute(claim);
+            }
+        } catch (RejectedExecutionException ex) {
+            // The executor is shutting down, produce the rest here
+        }
+        claim.run();
+        done.await();
+
+        Throwable t = failure.get();
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t != null) {
+            throw (Error) t;
+        }
+    }
+
+    /**
+     * Computes the width of the largest output for a source of the given
+     * dimensions, leaving out the outputs produced from the embedded
+     * thumbnail.
+     */
+    private int getMaxOutputWidth(int srcW, int srcH, boolean[] fromThumbnail) {
+        int max = 1;
+        for (int i = 0; i < profiles.size(); i++) {
+            if (!fromThumbnail[i]) {
+                max = Math.max(max, profiles.get(i).getTargetWidth(srcW, srcH));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Reads the thumbnail embedded in the source if it is large enough for
+     * at least one output, and marks the outputs it is large enough for.
+     *
+     * @param encoded The source image
+     * @param fromThumbnail Set for each output produced from the thumbnail
+     * @return The thumbnail, or null if it isn't used for any output
+     */
+    private BufferedImage readEmbeddedThumbnail(EncodedImage encoded, boolean[] fromThumbnail)
+            throws IOException {
+        int srcW = encoded.getWidth();
+        int srcH = encoded.getHeight();
+        int minW = Integer.MAX_VALUE;
+        int minH = Integer.MAX_VALUE;
+        for (OutputProfile profile : profiles) {
+            minW = Math.min(minW, profile.getTargetWidth(srcW, srcH));
+            minH = Math.min(minH, profile.getTargetHeight(srcW, srcH));
+        }
+        BufferedImage thumbnail = encoded.readEmbeddedThumbnail(minW, minH);
+        if (thumbnail == null) {
+            return null;
+        }
+        for (int i = 0; i < profiles.size(); i++) {
+            fromThumbnail[i] = profiles.get(i).getTargetWidth(srcW, srcH) <= thumbnail.getWidth()
+                    && profiles.get(i).getTargetHeight(srcW, srcH) <= thumbnail.getHeight();
+        }
+        return thumbnail;
+    }
+
+    private static boolean all(boolean[] values) {
+        for (boolean value : values) {
+            if (!value) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the image is decoded in strips: when the decoded image
+     * would be larger than the stream threshold and is actually reduced to
+     * reach the largest output.
+     *
+     * @param encoded The source image
+     * @param subsampling The subsampling factor it will be decoded with
+     * @param maxOutputW The width of the largest output
+     * @return Whether to stream the image
+     */
+    private boolean isStreamed(EncodedImage encoded, int subsampling, int maxOutputW) {
+        return options.getStreamThreshold() > 0
+                && encoded.getDecodedPixels(subsampling) > options.getStreamThreshold()
+                && (encoded.getWidth() + subsampling - 1) / subsampling > maxOutputW;
+    }
+
+    /**
+     * Estimates the peak memory of the task from the image header. A whole
+     * decode takes the decoded pixels and a copy of them in the integer RGB
+     * layout the resamplers work in, while streaming takes a strip and the image
+     * downscaled to the largest output. Every output is added to either.
+     *
+     * @param encoded The source image
+     * @param subsampling The subsampling factor it will be decoded with
+     * @param maxOutputW The width of the largest output
+     * @return The estimate in bytes
+     */
+    private long estimateBytes(EncodedImage encoded, int subsampling, int maxOutputW) {
+        int decodedW = (encoded.getWidth() + subsampling - 1) / subsampling;
+        int decodedH = (encoded.getHeight() + subsampling - 1) / subsampling;
+        long outputPixels = 0;
+        for (OutputProfile profile : profiles) {
+            outputPixels += ((long) profile.getTargetWidth(decodedW, decodedH))
+                    * profile.getTargetHeight(decodedW, decodedH);
+        }
+        if (isStreamed(encoded, subsampling, maxOutputW)) {
+            long streamedPixels = ((long) decodedH) * maxOutputW / decodedW * maxOutputW;
+            return StripResizer.getWorkingBytes(encoded, subsampling) + (streamedPixels + outputPixels) * 4;
+        }
+        return encoded.getDecodedBytes(subsampling)
+                + (encoded.getDecodedPixels(subsampling) + outputPixels) * 4;
+    }
+
+    /**
+     * Returns the indices of the profiles ordered from the largest output to
+     * the smallest.
+     */
+    private List<Integer> orderBySize(int srcW, int srcH) {
+        List<Integer> order = new ArrayList<>(profiles.size());
+        for (int i = 0; i < profiles.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, (a, b) -> Integer.compare(
+                profiles.get(b).getTargetWidth(srcW, srcH), profiles.get(a).getTargetWidth(srcW, srcH)));
+        return order;
+    }
+
+    /**
+     * Finds an already scaled image of exactly the given size, e.g. when two
+     * profiles only differ by format.
+     *
+     * @return The scaled image, or null if there is none
+     */
+    private static BufferedImage findScaled(List<BufferedImage> scaled, int w, int h) {
+        for (BufferedImage img : scaled) {
+            if (img.getWidth() == w && img.getHeight() == h) {
+                return img;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Picks the image a new output of the given width is scaled from. This is
+     * the smallest already scaled output which is an actual reduction of the
+     * decoded image and at least the configured ratio larger than the new
+     * output. If there is none, the decoded image is used.
+     *
+     * @param scaled The outputs scaled so far
+     * @param img The decoded image
+     * @param width The width of the new output
+     * @return The image to scale from
+     */
+    private BufferedImage getCascadeBase(List<BufferedImage> scaled, BufferedImage img, int width) {
+        BufferedImage base = img;
+        for (BufferedImage candidate : scaled) {
+            if (candidate.getWidth() < base.getWidth()
+                    && ((double) candidate.getWidth()) / width >= options.getMinCascadeRatio()) {
+                base = candidate;
+            }
+        }
+        return base;
+    }
+
+    /**
+     * Creates the thumbnail and full-size profiles the tool has always
+     * produced.
+     *
+     * @param thumbW The thumbnail width
+     * @param fullW The full-image width
+     * @param thumbDir The directory to write the thumbnails
+     * @param fullDir The directory to write the full-images
+     * @return The profiles
+     */
+    public static List<OutputProfile> defaultProfiles(int thumbW, int fullW, File thumbDir, File fullDir) {
+        return Arrays.asList(new OutputProfile("thumb", thumbW, thumbDir),
+                new OutputProfile("full", fullW, fullDir));
     }
 
     /**
@@ -63,10 +481,63 @@ public class ScaleTask {
      * @param fullW The full-image width
      * @param thumbDir The directory to write the thumbnail
      * @param fullDir The directory to write the full-image
-     * @return 
+     * @return
      */
     public static CompletableFuture<ScaleResult> newCompletableFuture(File f,
             int thumbW, int fullW, File thumbDir, File fullDir) {
         return CompletableFuture.supplyAsync(new ScaleTask(f, thumbW, fullW, thumbDir, fullDir)::run);
     }
+
+    /**
+     * Returns a new CompletableFuture to perform the scaling task on the given
+     * executor.
+     * @param f The file to scale
+     * @param profiles The outputs to produce
+     * @param options The scaling options
+     * @param executor The executor to run the task on
+     * @return
+     */
+    public static CompletableFuture<ScaleResult> newCompletableFuture(File f,
+            List<OutputProfile> profiles, ScaleOptions options, Executor executor) {
+        return CompletableFuture.supplyAsync(new ScaleTask(f, profiles, options)::run, executor);
+    }
+
+    /**
+     * Scales the source on the calling thread and returns the encoded outputs
+     * in memory, without reading or writing any file unless the source is a
+     * file. This is the entry point for applications embedding the scaler.
+     *
+     * @param source The image to scale, e.g. ImageSource.of(name, bytes)
+     * @param profiles The outputs to produce. Their output directories are
+     * ignored and may be null.
+     * @param options The scaling options
+     * @return The output of each profile, in the same order
+     * @throws RuntimeException If the source can't be decoded or an output
+     * can't be encoded
+     */
+    public static List<EncodedOutput> scaleToMemory(ImageSource source, List<OutputProfile> profiles,
+            ScaleOptions options) {
+        MemorySink sink = new MemorySink();
+        new ScaleTask(source, profiles, options, sink).run();
+        return sink.getOutputs(profiles);
+    }
+
+    /**
+     * Returns a new CompletableFuture to perform the scaling task on the given
+     * executor.
+     * @param source The image to scale
+     * @param profiles The outputs to produce
+     * @param options The scaling options
+     * @param sink The receiver of the encoded outputs
+     * @param executor The executor to run the task on
+     * @return
+     */
+    public static CompletableFuture<ScaleResult> newCompletableFuture(ImageSource source,
+            List<OutputProfile> profiles, ScaleOptions options, OutputSink sink, Executor executor) {
+        // Only a ScaleExecutor can take subtasks without risking a deadlock
+        Executor subtasks = executor instanceof ScaleExecutor
+                ? ((ScaleExecutor) executor).getSubtaskExecutor() : null;
+        return CompletableFuture.supplyAsync(new ScaleTask(source, profiles, options, sink, subtasks)::run,
+                executor);
+    }
 }
@@ -0,0 +1,36 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.awt.image.BufferedImage;
+import org.imgscalr.Scalr;
+
+/**
+ * Scales images with Scalr, which draws them through Java2D in progressive
+ * bilinear steps.
+ *
+ * @author Phani Gaddipati
+ */
+public class ScalrResampler implements Resampler {
+
+    private final Scalr.Method method;
+
+    public ScalrResampler() {
+        this(Scalr.Method.AUTOMATIC);
+    }
+
+    /**
+     * @param method The Scalr scaling method
+     */
+    public ScalrResampler(Scalr.Method method) {
+        this.method = method;
+    }
+
+    @Override
+    public BufferedImage resize(BufferedImage src, int width, int height) {
+        return Scalr.resize(src, method, Scalr.Mode.FIT_EXACT, width, height);
+    }
+
+    @Override
+    public String getName() {
+        return "scalr";
+    }
+}
@@ -0,0 +1,412 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Scales images with a separable convolution filter over packed int pixels,
+ * without going through Java2D. Whatever type the decoder returned, the
+ * source is first normalized to one ARGB int per pixel, with the colors
+ * premultiplied by alpha if it has transparency. Rows are then filtered
+ * horizontally into an intermediate image of the output width, and its
+ * columns vertically into the output.
+ *
+ * The filter weights of every output column and row are computed once per
+ * resize as fixed point integers, so the inner loops only do integer
+ * multiplies and adds, and allocate nothing.
+ * When a pass has enough work and a subtask executor is given, its rows are
+ * split into bands filtered in parallel by the calling thread and whichever
+ * workers are free.
+ *
+ * @author Phani Gaddipati
+ */
+public class SeparableResampler implements Resampler {
+
+    /**
+     * The number of multiply-adds in a pass above which its rows are split
+     * across threads.
+     */
+    private static final long PARALLEL_WORK = 4L * 1024L * 1024L;
+
+    private static final int MIN_BAND_ROWS = 32;
+
+    /**
+     * The weights are fixed point numbers with this many fraction bits, which
+     * keeps the sums of 8 bit channels well within an int.
+     */
+    private static final int FRACTION_BITS = 14;
+    private static final int ONE = 1 << FRACTION_BITS;
+    private static final int ROUND = ONE / 2;
+
+    /**
+     * The filters this engine can resample with.
+     */
+    public enum Filter {
+
+        /**
+         * A windowed sinc with 3 lobes, the sharpest filter.
+         */
+        LANCZOS3("lanczos", 3) {
+            @Override
+            double apply(double x) {
+                x = Math.abs(x);
+                if (x < 1e-8) {
+                    return 1;
+                }
+                if (x >= 3) {
+                    return 0;
+                }
+                double px = Math.PI * x;
+                return 3 * Math.sin(px) * Math.sin(px / 3) / (px * px);
+            }
+        },
+        /**
+         * The Catmull-Rom cubic, slightly softer than Lanczos with less
+         * ringing.
+         */
+        BICUBIC("bicubic", 2) {
+            @Override
+            double apply(double x) {
+                x = Math.abs(x);
+                if (x < 1) {
+                    return 1.5 * x * x * x - 2.5 * x * x + 1;
+                }
+                if (x < 2) {
+                    return -0.5 * x * x * x + 2.5 * x * x - 4 * x + 2;
+                }
+                return 0;
+            }
+        };
+
+        private final String engineName;
+        private final double radius;
+
+        Filter(String engineName, double radius) {
+            this.engineName = engineName;
+            this.radius = radius;
+        }
+
+        abstract double apply(double x);
+    }
+
+    private final Filter filter;
+
+    /**
+     * @param filter The filter to resample with
+     */
+    public SeparableResampler(Filter filter) {
+        this.filter = filter;
+    }
+
+    @Override
+    public BufferedImage resize(BufferedImage src, int width, int height) {
+        return resize(src, width, height, null);
+    }
+
+    @Override
+    public BufferedImage resize(BufferedImage src, int width, int height, Executor subtasks) {
+        int srcW = src.getWidth();
+        int srcH = src.getHeight();
+        boolean alpha = src.getColorModel().hasAlpha();
+        // The working pixels are kept in pooled images, so their arrays are
+        // reused from one resize to the next
+        BufferedImage copy = isPackedRgb(src, alpha) ? null : ImagePool.get(srcW, srcH, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = copy == null ? getData(src) : getPixels(src, alpha, getData(copy));
+
+        Weights horizontal = new Weights(filter, srcW, width);
+        Weights vertical = new Weights(filter, srcH, height);
+
+        BufferedImage filtered = ImagePool.get(width, srcH, BufferedImage.TYPE_INT_ARGB);
+        int[] rows = getData(filtered);
+        forEachBand(srcH, ((long) width) * srcH * horizontal.taps, subtasks,
+                (from, to) -> filterRows(pixels, srcW, rows, width, horizontal, from, to, alpha));
+        ImagePool.release(copy);
+
+        BufferedImage out = ImagePool.get(width, height,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] dst = getData(out);
+        forEachBand(height, ((long) width) * height * vertical.taps, subtasks,
+                (from, to) -> filterColumns(rows, width, dst, vertical, from, to, alpha));
+        ImagePool.release(filtered);
+        return out;
+    }
+
+    @Override
+    public boolean isPooled() {
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return filter.engineName;
+    }
+
+    /**
+     * Checks whether the source is an opaque int RGB image whose pixels can be
+     * read as they are.
+     */
+    private static boolean isPackedRgb(BufferedImage src, boolean alpha) {
+        Raster raster = src.getRaster();
+        return !alpha && src.getType() == BufferedImage.TYPE_INT_RGB
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+                && ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride() == src.getWidth()
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && raster.getDataBuffer().getOffset() == 0;
+    }
+
+    private static int[] getData(BufferedImage img) {
+        return ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * Copies the source into the given array as one ARGB int per pixel,
+     * premultiplied if it has alpha.
+     */
+    private static int[] getPixels(BufferedImage src, boolean alpha, int[] pixels) {
+        int w = src.getWidth();
+        int h = src.getHeight();
+        src.getRGB(0, 0, w, h, pixels, 0, w);
+        if (alpha) {
+            for (int i = 0; i < pixels.length; i++) {
+                int p = pixels[i];
+                int a = p >>> 24;
+                if (a == 0) {
+                    pixels[i] = 0;
+                } else if (a < 255) {
+                    pixels[i] = (a << 24)
+                            | ((((p >> 16) & 0xff) * a + 127) / 255) << 16
+                            | ((((p >> 8) & 0xff) * a + 127) / 255) << 8
+                            | (((p & 0xff) * a + 127) / 255);
+                }
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Filters the given source rows horizontally to the output width.
+     */
+    private static void filterRows(int[] src, int srcW, int[] dst, int dstW, Weights weights,
+            int fromRow, int toRow, boolean alpha) {
+        // The alpha bits of int RGB pixels are undefined
+        int opaque = alpha ? 0 : 0xff000000;
+        int taps = weights.taps;
+        int[] start = weights.start;
+        int[] w = weights.weights;
+        for (int y = fromRow; y < toRow; y++) {
+            int srcRow = y * srcW;
+            int dstRow = y * dstW;
+            for (int x = 0; x < dstW; x++) {
+                int s = srcRow + start[x];
+                int k = x * taps;
+                int a = 0;
+                int r = 0;
+                int g = 0;
+                int b = 0;
+                for (int t = 0; t < taps; t++) {
+                    int p = src[s + t] | opaque;
+                    int wt = w[k + t];
+                    a += (p >>> 24) * wt;
+                    r += ((p >> 16) & 0xff) * wt;
+                    g += ((p >> 8) & 0xff) * wt;
+                    b += (p & 0xff) * wt;
+                }
+                dst[dstRow + x] = pack(a, r, g, b);
+            }
+        }
+    }
+
+    /**
+     * Filters the intermediate image vertically into the given output rows.
+     * Each output row is accumulated a whole source row at a time, so the
+     * intermediate image is read sequentially.
+     */
+    private static void filterColumns(int[] src, int width, int[] dst, Weights weights,
+            int fromRow, int toRow, boolean alpha) {
+        int taps = weights.taps;
+        int[] start = weights.start;
+        int[] w = weights.weights;
+        int[] acc = new int[width * 4];
+        for (int y = fromRow; y < toRow; y++) {
+            Arrays.fill(acc, 0);
+            for (int t = 0; t < taps; t++) {
+                int wt = w[y * taps + t];
+                int srcRow = (start[y] + t) * width;
+                for (int x = 0, c = 0; x < width; x++, c += 4) {
+                    int p = src[srcRow + x];
+                    acc[c] += (p >>> 24) * wt;
+                    acc[c + 1] += ((p >> 16) & 0xff) * wt;
+                    acc[c + 2] += ((p >> 8) & 0xff) * wt;
+                    acc[c + 3] += (p & 0xff) * wt;
+                }
+            }
+            int dstRow = y * width;
+            for (int x = 0, c = 0; x < width; x++, c += 4) {
+                int p = pack(acc[c], acc[c + 1], acc[c + 2], acc[c + 3]);
+                dst[dstRow + x] = alpha ? unpremultiply(p) : p | 0xff000000;
+            }
+        }
+    }
+
+    /**
+     * Rounds and clamps fixed point premultiplied channels into a pixel.
+     * Filters with negative lobes can overshoot, and no color may exceed the
+     * alpha.
+     */
+    private static int pack(int a, int r, int g, int b) {
+        int ia = clamp(a, 255);
+        return (ia << 24) | (clamp(r, ia) << 16) | (clamp(g, ia) << 8) | clamp(b, ia);
+    }
+
+    private static int clamp(int v, int max) {
+        int i = (v + ROUND) >> FRACTION_BITS;
+        return i < 0 ? 0 : (i > max ? max : i);
+    }
+
+    private static int unpremultiply(int p) {
+        int a = p >>> 24;
+        if (a == 0 || a == 255) {
+            return p;
+        }
+        int half = a / 2;
+        return (a << 24)
+                | ((((p >> 16) & 0xff) * 255 + half) / a) << 16
+                | ((((p >> 8) & 0xff) * 255 + half) / a) << 8
+                | (((p & 0xff) * 255 + half) / a);
+    }
+
+    /**
+     * Runs the task over the given rows, split into bands filtered in
+     * parallel if there is enough work. The calling thread claims bands along
+     * with the subtasks, so the rows are all filtered even if no worker is
+     * free to help.
+     *
+     * @param subtasks The executor to run the other bands on, or null to
+     * filter every row on the calling thread
+     */
+    private static void forEachBand(int rows, long work, Executor subtasks, RowTask task) {
+        int bands = subtasks == null ? 1 : (int) Math.min(Math.min(rows / MIN_BAND_ROWS, work / PARALLEL_WORK),
+                Runtime.getRuntime().availableProcessors());
+        if (bands <= 1) {
+            task.run(0, rows);
+            return;
+        }
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(bands);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Runnable claim = () -> {
+            int i;
+            while ((i = next.getAndIncrement()) < bands) {
+                try {
+                    if (failure.get() == null) {
+                        task.run((int) ((long) rows * i / bands), (int) ((long) rows * (i + 1) / bands));
+                    }
+                } catch (RuntimeException | Error ex) {
+                    failure.compareAndSet(null, ex);
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+        try {
+            for (int k = 1; k < bands; k++) {
+                subtasks.execute(claim);
+            }
+        } catch (RejectedExecutionException ex) {
+            // The executor is shutting down, filter the rest here
+        }
+        claim.run();
+        awaitUninterruptibly(done);
+
+        Throwable t = failure.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t != null) {
+            throw (Error) t;
+        }
+    }
+
+    /**
+     * Waits for the bands other threads claimed, which are already running
+     * once the calling thread runs out of bands to claim.
+     */
+    private static void awaitUninterruptibly(CountDownLatch done) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private interface RowTask {
+
+        void run(int from, int to);
+    }
+
+    /**
+     * The filter weights of a one dimensional resize. Every output sample
+     * reads the same number of consecutive source samples, starting at its
+     * own offset, so the windows at the edges are shifted inwards and the
+     * samples outside the filter get a weight of 0.
+     */
+    private static class Weights {
+
+        private final int taps;
+        /**
+         * The first source sample of each output sample.
+         */
+        private final int[] start;
+        /**
+         * The normalized fixed point weights, taps per output sample.
+         */
+        private final int[] weights;
+
+        Weights(Filter filter, int srcSize, int dstSize) {
+            double scale = ((double) srcSize) / dstSize;
+            // Widen the filter when reducing so every source sample counts
+            double stretch = Math.max(1, scale);
+            double support = filter.radius * stretch;
+            taps = Math.min(srcSize, (int) Math.ceil(support * 2) + 1);
+            start = new int[dstSize];
+            weights = new int[dstSize * taps];
+            double[] raw = new double[taps];
+            for (int d = 0; d < dstSize; d++) {
+                double center = (d + 0.5) * scale;
+                int first = Math.max(0, Math.min(srcSize - taps, (int) Math.floor(center - support)));
+                double sum = 0;
+                for (int t = 0; t < taps; t++) {
+                    raw[t] = filter.apply((first + t + 0.5 - center) / stretch);
+                    sum += raw[t];
+                }
+                start[d] = first;
+                int total = 0;
+                int largest = 0;
+                for (int t = 0; t < taps; t++) {
+                    int weight = sum == 0 ? (t == 0 ? ONE : 0) : (int) Math.round(raw[t] / sum * ONE);
+                    weights[d * taps + t] = weight;
+                    total += weight;
+                    if (Math.abs(weight) > Math.abs(weights[d * taps + largest])) {
+                        largest = t;
+                    }
+                }
+                // Make the weights sum to exactly one despite rounding
+                weights[d * taps + largest] += ONE - total;
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.centumengineering.imagescaler.scaling;
+
+/**
+ * Nanosecond timings of the stages of a single ScaleTask. An instance is
+ * filled in by the thread running the task and only read once the task has
+ * completed.
+ *
+ * @author Phani Gaddipati
+ */
+public class StageTimes {
+
+    /**
+     * The stages of a ScaleTask.
+     */
+    public enum Stage {
+        /**
+         * Waiting for a free worker after being submitted.
+         */
+        QUEUE_WAIT,
+        /**
+         * Waiting for the decoded image to fit in the memory budget.
+         */
+        MEMORY_WAIT,
+        /**
+         * Reading and decoding the source.
+         */
+        DECODE,
+        /**
+         * Scaling the decoded image to every output size.
+         */
+        RESIZE,
+        /**
+         * Encoding the scaled images in memory.
+         */
+        ENCODE,
+        /**
+         * Writing the encoded images to disk.
+         */
+        WRITE
+    }
+
+    private final long[] nanos = new long[Stage.values().length];
+
+    /**
+     * Adds the time from the given start until now to the given stage.
+     *
+     * @param stage The stage
+     * @param startNanos The System.nanoTime() the stage started at
+     * @return The current System.nanoTime(), to use as the start of the next
+     * stage
+     */
+    public long lap(Stage stage, long startNanos) {
+        long now = System.nanoTime();
+        add(stage, now - startNanos);
+        return now;
+    }
+
+    public void add(Stage stage, long duration) {
+        nanos[stage.ordinal()] += duration;
+    }
+
+    public long getNanos(Stage stage) {
+        return nanos[stage.ordinal()];
+    }
+
+    /**
+     * @return The total time spent in every stage except waiting in the queue
+     * or for memory
+     */
+    public long getProcessingNanos() {
+        long total = 0;
+        for (Stage stage : Stage.values()) {
+            if (stage != Stage.QUEUE_WAIT && stage != Stage.MEMORY_WAIT) {
+                total += getNanos(stage);
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,322 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Downscales an image without ever holding it fully decoded. Each decoded row
+ * goes through a separable area-averaging filter: first across the row, then
+ * into the output rows it overlaps. Only the output rows still being
+ * accumulated are kept, so peak memory depends on the source width, not on
+ * the total number of pixels.
+ *
+ * Compressed formats such as JPEG and PNG are decoded in a single pass, with
+ * each row filtered as soon as the codec has written it. Readers that can
+ * seek to a region, such as BMP, decode horizontal strips of rows instead.
+ * Other codecs can only reach a strip by decoding every row above it, so
+ * when they don't write rows in order, as for interlaced images, the image
+ * is decoded whole once instead, subsampled until it fits in the memory a
+ * strip would take.
+ *
+ * @author Phani Gaddipati
+ */
+public class StripResizer {
+
+    /**
+     * The memory used for the decoded pixels of one strip.
+     */
+    public static final long STRIP_BYTES = 16L * 1024L * 1024L;
+
+    private static final int MIN_STRIP_ROWS = 16;
+
+    private StripResizer() {
+    }
+
+    /**
+     * Computes how many decoded rows are read in each strip.
+     *
+     * @param encoded The source image
+     * @param subsampling The subsampling factor it is decoded with
+     * @return The number of decoded rows per strip
+     */
+    public static int getStripRows(EncodedImage encoded, int subsampling) {
+        long rowBytes = ((long) ceilDiv(encoded.getWidth(), subsampling)) * encoded.getBytesPerPixel();
+        return (int) Math.max(MIN_STRIP_ROWS, STRIP_BYTES / Math.max(1, rowBytes));
+    }
+
+    /**
+     * Estimates the memory used while streaming, excluding the output image.
+     *
+     * @param encoded The source image
+     * @param subsampling The subsampling factor it is decoded with
+     * @return The estimate in bytes
+     */
+    public static long getWorkingBytes(EncodedImage encoded, int subsampling) {
+        long decodedW = ceilDiv(encoded.getWidth(), subsampling);
+        // The strip, one row of it as ARGB, and a few float rows of the filter
+        return getStripRows(encoded, subsampling) * decodedW * encoded.getBytesPerPixel()
+                + decodedW * 4 + decodedW * 4 * 4 * 3;
+    }
+
+    /**
+     * Decodes and downscales the image strip by strip.
+     *
+     * @param encoded The source image
+     * @param subsampling The subsampling factor to decode with in both
+     * directions, 1 to decode every pixel
+     * @param dstW The output width, at most the decoded width
+     * @param dstH The output height, at most the decoded height
+     * @return The downscaled image
+     * @throws IOException If the image can't be decoded
+     */
+    public static DecodedImage resize(EncodedImage encoded, int subsampling, int dstW, int dstH)
+            throws IOException {
+        int srcW = encoded.getWidth();
+        int srcH = encoded.getHeight();
+        int decodedW = ceilDiv(srcW, subsampling);
+        int decodedH = ceilDiv(srcH, subsampling);
+        Downscaler downscaler = new Downscaler(decodedW, decodedH, dstW, dstH);
+
+        if (!encoded.canSeekToRegions()) {
+            if (encoded.decodeRows(subsampling, downscaler)) {
+                return new DecodedImage(downscaler.finish(), srcW, srcH, subsampling, true);
+            }
+            ImagePool.release(downscaler.out);
+            return resizeWhole(encoded, subsampling, dstW, dstH);
+        }
+
+        int stripRows = getStripRows(encoded, subsampling);
+        BufferedImage strip = null;
+        for (int y = 0; y < decodedH; y += stripRows) {
+            int rows = Math.min(stripRows, decodedH - y);
+            // Strips start on a multiple of the subsampling factor so the
+            // sampling grid is the same as for a single full decode
+            Rectangle region = new Rectangle(0, y * subsampling, srcW,
+                    Math.min(srcH - y * subsampling, rows * subsampling));
+            // Every strip is decoded into the first one, which is at least as
+            // tall as any other
+            strip = encoded.decodeRegion(region, subsampling, strip);
+            for (int r = 0; r < rows; r++) {
+                downscaler.accept(strip, r, y + r);
+            }
+        }
+        ImagePool.release(strip);
+        return new DecodedImage(downscaler.finish(), srcW, srcH, subsampling, true);
+    }
+
+    /**
+     * Decodes the whole image at once and downscales it, subsampling it as
+     * much as the output width allows so it takes no more memory than
+     * streaming it would have.
+     *
+     * @param encoded The source image
+     * @param subsampling The subsampling factor it was to be streamed with
+     * @param dstW The output width
+     * @param dstH The output height
+     * @return The downscaled image
+     * @throws IOException If the image can't be decoded, or can't be decoded
+     * in that memory
+     */
+    private static DecodedImage resizeWhole(EncodedImage encoded, int subsampling, int dstW, int dstH)
+            throws IOException {
+        long bytes = getWorkingBytes(encoded, subsampling);
+        int factor = subsampling;
+        while (encoded.getDecodedBytes(factor) > bytes && ceilDiv(encoded.getWidth(), factor + 1) >= dstW) {
+            factor++;
+        }
+        if (encoded.getDecodedBytes(factor) > bytes) {
+            throw new IOException("Can't stream " + encoded.getSource().getPath() + ", its rows aren't"
+                    + " decoded in order and decoding it whole for a " + dstW + " pixel wide output takes "
+                    + encoded.getDecodedBytes(factor) / (1024 * 1024) + " MB");
+        }
+        BufferedImage img = encoded.decode(factor).getImage();
+        Downscaler downscaler = new Downscaler(img.getWidth(), img.getHeight(), dstW, dstH);
+        for (int y = 0; y < img.getHeight(); y++) {
+            downscaler.accept(img, y, y);
+        }
+        ImagePool.release(img);
+        return new DecodedImage(downscaler.finish(), encoded.getWidth(), encoded.getHeight(), factor, true);
+    }
+
+    /**
+     * Area-averages one row of ARGB pixels into premultiplied float channels.
+     */
+    private static void filterRow(int[] argb, AreaFilter filter, float[] row) {
+        Arrays.fill(row, 0);
+        for (int x = 0; x < argb.length; x++) {
+            int p = argb[x];
+            float a = (p >>> 24) / 255f;
+            float r = ((p >> 16) & 0xff) * a;
+            float g = ((p >> 8) & 0xff) * a;
+            float b = (p & 0xff) * a;
+            int dx = filter.index[x] * 4;
+            float w = filter.weight[x];
+            row[dx] += a * w;
+            row[dx + 1] += r * w;
+            row[dx + 2] += g * w;
+            row[dx + 3] += b * w;
+            if (w < 1 && dx + 4 < row.length) {
+                w = 1 - w;
+                row[dx + 4] += a * w;
+                row[dx + 5] += r * w;
+                row[dx + 6] += g * w;
+                row[dx + 7] += b * w;
+            }
+        }
+    }
+
+    private static void accumulate(float[] acc, float[] row, float weight) {
+        for (int i = 0; i < acc.length; i++) {
+            acc[i] += row[i] * weight;
+        }
+    }
+
+    private static void emitRow(float[] acc, float norm, boolean alpha, int[] outRow,
+            BufferedImage out, int y) {
+        for (int x = 0; x < outRow.length; x++) {
+            float a = acc[x * 4] * norm;
+            int r = 0;
+            int g = 0;
+            int b = 0;
+            if (a > 0) {
+                r = clamp(acc[x * 4 + 1] * norm / a);
+                g = clamp(acc[x * 4 + 2] * norm / a);
+                b = clamp(acc[x * 4 + 3] * norm / a);
+            }
+            int ia = alpha ? clamp(a * 255) : 0xff;
+            outRow[x] = (ia << 24) | (r << 16) | (g << 8) | b;
+        }
+        out.setRGB(0, y, outRow.length, 1, outRow, 0, outRow.length);
+    }
+
+    private static int clamp(float v) {
+        return Math.max(0, Math.min(255, Math.round(v)));
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+    /**
+     * Filters decoded rows, top to bottom, into the output image.
+     */
+    private static class Downscaler implements EncodedImage.RowConsumer {
+
+        private final int dstW;
+        private final int dstH;
+        private final AreaFilter horizontal;
+        private final AreaFilter vertical;
+        private final float norm;
+        private final int[] argb;
+        private final float[] row;
+        private final int[] outRow;
+        private float[] current;
+        private float[] next;
+        private BufferedImage out;
+        private boolean alpha;
+        private int outY;
+
+        Downscaler(int decodedW, int decodedH, int dstW, int dstH) {
+            this.dstW = dstW;
+            this.dstH = dstH;
+            this.horizontal = new AreaFilter(decodedW, dstW);
+            this.vertical = new AreaFilter(decodedH, dstH);
+            this.norm = 1f / (horizontal.scale * vertical.scale);
+            this.argb = new int[decodedW];
+            this.row = new float[dstW * 4];
+            this.outRow = new int[dstW];
+            this.current = new float[dstW * 4];
+            this.next = new float[dstW * 4];
+        }
+
+        @Override
+        public void accept(BufferedImage src, int sy) {
+            accept(src, 0, sy);
+        }
+
+        /**
+         * Filters the next decoded row.
+         *
+         * @param src The image holding the row
+         * @param r The row in that image
+         * @param sy The row in the decoded image
+         */
+        void accept(BufferedImage src, int r, int sy) {
+            if (out == null) {
+                alpha = src.getColorModel().hasAlpha();
+                out = ImagePool.get(dstW, dstH, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            }
+            src.getRGB(0, r, argb.length, 1, argb, 0, argb.length);
+            filterRow(argb, horizontal, row);
+
+            int dy = vertical.index[sy];
+            while (outY < dy) {
+                // Every source row of this output row has been seen
+                emitRow(current, norm, alpha, outRow, out, outY++);
+                float[] swap = current;
+                current = next;
+                next = swap;
+                Arrays.fill(next, 0);
+            }
+            accumulate(current, row, vertical.weight[sy]);
+            if (vertical.weight[sy] < 1 && dy + 1 < dstH) {
+                accumulate(next, row, 1 - vertical.weight[sy]);
+            }
+        }
+
+        @Override
+        public void restart() {
+            outY = 0;
+            Arrays.fill(current, 0);
+            Arrays.fill(next, 0);
+        }
+
+        /**
+         * Emits the output rows still being accumulated, once every decoded
+         * row has been filtered.
+         *
+         * @return The output image
+         */
+        BufferedImage finish() {
+            while (outY < dstH) {
+                emitRow(current, norm, alpha, outRow, out, outY++);
+                current = next;
+                next = new float[dstW * 4];
+            }
+            return out;
+        }
+    }
+
+    /**
+     * The weights of a one dimensional area-averaging reduction. Each source
+     * sample covers 1/scale of an output sample, so it falls either entirely in
+     * one output sample or across the border of two.
+     */
+    private static class AreaFilter {
+
+        private final float scale;
+        /**
+         * The first output sample each source sample contributes to.
+         */
+        private final int[] index;
+        /**
+         * The part of each source sample in its first output sample, the rest
+         * goes to the next one.
+         */
+        private final float[] weight;
+
+        AreaFilter(int srcSize, int dstSize) {
+            scale = ((float) srcSize) / dstSize;
+            index = new int[srcSize];
+            weight = new float[srcSize];
+            for (int i = 0; i < srcSize; i++) {
+                int d = Math.min(dstSize - 1, (int) (i / scale));
+                float border = (d + 1) * scale;
+                index[i] = d;
+                weight[i] = i + 1 <= border || d == dstSize - 1 ? 1 : border - i;
+            }
+        }
+    }
+}
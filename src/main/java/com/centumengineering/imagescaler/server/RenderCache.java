@@ -0,0 +1,111 @@
+package com.centumengineering.imagescaler.server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache of rendered outputs, bounded by the total size
+ * of the encoded images rather than the number of entries. Outputs larger
+ * than the whole cache are never stored.
+ *
+ * @author Phani Gaddipati
+ */
+public class RenderCache {
+
+    private final long capacity;
+    private final LinkedHashMap<String, RenderedOutput> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param capacity The total bytes of encoded images to keep, 0 to disable
+     * caching
+     */
+    public RenderCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Looks up an output, marking it as the most recently used.
+     *
+     * @param key The cache key
+     * @return The output, or null if it isn't cached
+     */
+    public synchronized RenderedOutput get(String key) {
+        RenderedOutput output = entries.get(key);
+        if (output != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return output;
+    }
+
+    /**
+     * Looks up an output without counting the lookup or marking the output
+     * as used.
+     *
+     * @param key The cache key
+     * @return The output, or null if it isn't cached
+     */
+    public synchronized RenderedOutput peek(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Adds an output, evicting the least recently used outputs until it fits.
+     *
+     * @param key The cache key
+     * @param output The output
+     */
+    public synchronized void put(String key, RenderedOutput output) {
+        long bytes = output.getBytes().length;
+        if (bytes > capacity) {
+            return;
+        }
+        RenderedOutput old = entries.put(key, output);
+        if (old != null) {
+            size -= old.getBytes().length;
+        }
+        size += bytes;
+        Iterator<Map.Entry<String, RenderedOutput>> it = entries.entrySet().iterator();
+        while (size > capacity && it.hasNext()) {
+            Map.Entry<String, RenderedOutput> eldest = it.next();
+            size -= eldest.getValue().getBytes().length;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The total bytes of the cached outputs
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getEntries() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+}
@@ -0,0 +1,79 @@
+package com.centumengineering.imagescaler.server;
+
+import com.centumengineering.imagescaler.utils.RemoteImage;
+
+/**
+ * An encoded image rendered by the server, as kept in the cache.
+ *
+ * @author Phani Gaddipati
+ */
+public class RenderedOutput {
+
+    private final byte[] bytes;
+    private final String format;
+    private final int width;
+    private final int height;
+    private final RemoteImage source;
+
+    public RenderedOutput(byte[] bytes, String format, int width, int height) {
+        this(bytes, format, width, height, null);
+    }
+
+    /**
+     * @param bytes The encoded image
+     * @param format The format name
+     * @param width The width
+     * @param height The height
+     * @param source The validators of the url the output was rendered from,
+     * or null for a local source
+     */
+    public RenderedOutput(byte[] bytes, String format, int width, int height, RemoteImage source) {
+        this.bytes = bytes;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.source = source;
+    }
+
+    /**
+     * @return The encoded image. This is shared, and must not be modified.
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return The validators of the url the output was rendered from, or null
+     * for a local source
+     */
+    public RemoteImage getSource() {
+        return source;
+    }
+
+    /**
+     * @return The MIME type of the encoded image
+     */
+    public String getContentType() {
+        switch (format) {
+            case "jpg":
+            case "jpeg":
+                return "image/jpeg";
+            case "wbmp":
+                return "image/vnd.wap.wbmp";
+            default:
+                return "image/" + format;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.centumengineering.imagescaler.server;
+
+import com.centumengineering.imagescaler.metrics.RunMetrics;
+import com.centumengineering.imagescaler.scaling.EncodedOutput;
+import com.centumengineering.imagescaler.scaling.EncoderSettings;
+import com.centumengineering.imagescaler.scaling.ImageSource;
+import com.centumengineering.imagescaler.scaling.MemorySink;
+import com.centumengineering.imagescaler.scaling.OutputProfile;
+import com.centumengineering.imagescaler.scaling.ScaleExecutor;
+import com.centumengineering.imagescaler.scaling.ScaleOptions;
+import com.centumengineering.imagescaler.scaling.ScaleResult;
+import com.centumengineering.imagescaler.scaling.ScaleTask;
+import com.centumengineering.imagescaler.utils.NetworkUtils;
+import com.centumengineering.imagescaler.utils.RemoteImage;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves resize requests over HTTP, keeping the JVM, the image codecs and
+ * recently rendered outputs warm between requests. The server only listens
+ * on the loopback interface.
+ *
+ * A request looks like
+ * {@code GET /resize?src=photos/a.jpg&width=300&format=png}, where src is
+ * either a path relative to the source root or an http(s) url. An optional
+ * height scales the image to fit in a WIDTHxHEIGHT box, and the optional
+ * quality, progressive and compression parameters are passed to the encoder
+ * as in {@link EncoderSettings}. {@code GET /stats}
+ * returns the cache and render counters as JSON.
+ *
+ * Concurrent requests for the same output share a single render. Outputs
+ * of a url are revalidated with a conditional GET before they are served
+ * from the cache, and rendered again if the image changed.
+ *
+ * @author Phani Gaddipati
+ */
+public class ResizeServer implements AutoCloseable {
+
+    /**
+     * The largest width or height that may be requested.
+     */
+    public static final int MAX_DIMENSION = 16384;
+
+    private final HttpServer server;
+    private final ScaleExecutor httpWorkers;
+    private final ScaleExecutor renderers;
+    private final ScaleOptions scaleOptions;
+    private final File root;
+    private final int timeoutMillis;
+    private final RenderCache cache;
+    private final RunMetrics metrics;
+    private final Map<String, CompletableFuture<RenderedOutput>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong shared = new AtomicLong();
+
+    /**
+     * Creates a new server. It doesn't accept requests until started.
+     *
+     * @param port The port to listen on, 0 for any free port
+     * @param root The directory local sources are resolved in. Sources outside
+     * of it are rejected.
+     * @param scaleOptions The options every render uses
+     * @param threads The number of threads rendering at once
+     * @param queueDepth The number of renders that may wait for a free thread
+     * @param cacheBytes The total bytes of rendered outputs to cache
+     * @param timeoutMillis The connect and read timeout of url sources, 0 for
+     * no timeout
+     * @param metrics The metrics to record renders in
+     * @throws IOException If the port can't be bound
+     */
+    public ResizeServer(int port, File root, ScaleOptions scaleOptions, int threads, int queueDepth,
+            long cacheBytes, int timeoutMillis, RunMetrics metrics) throws IOException {
+        this.root = root.getCanonicalFile();
+        this.scaleOptions = scaleOptions;
+        this.timeoutMillis = timeoutMillis;
+        this.cache = new RenderCache(cacheBytes);
+        this.metrics = metrics;
+        this.renderers = new ScaleExecutor(threads, queueDepth);
+        // Requests waiting on a shared render hold a connection but no
+        // renderer, so allow more of them than there are renderers
+        this.httpWorkers = new ScaleExecutor(2 * threads + queueDepth, queueDepth, "http-worker");
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(httpWorkers);
+        server.createContext("/resize", this::handleResize);
+        server.createContext("/stats", this::handleStats);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * @return The port the server is listening on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public RenderCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        httpWorkers.close();
+        renderers.close();
+    }
+
+    private void handleResize(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendText(exchange, 405, "Only GET is supported");
+                return;
+            }
+            requests.incrementAndGet();
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            String src = params.get("src");
+            if (src == null || src.isEmpty()) {
+                throw new IllegalArgumentException("src is required");
+            }
+            OutputProfile profile = parseProfile(params);
+            File local = NetworkUtils.isURL(src) ? null : resolve(src);
+            String key = (local != null
+                    ? local.getPath() + ":" + local.length() + ":" + local.lastModified() : src)
+                    + "|" + profile.getSignature();
+
+            String cacheStatus = "HIT";
+            RenderedOutput output = cache.get(key);
+            RemoteImage download = null;
+            if (output != null && local == null) {
+                download = NetworkUtils.downloadIfChanged(src, timeoutMillis, output.getSource());
+                if (!isCurrent(output, download)) {
+                    output = null;
+                }
+            }
+            if (output == null) {
+                CompletableFuture<RenderedOutput> render = new CompletableFuture<>();
+                CompletableFuture<RenderedOutput> existing = inFlight.putIfAbsent(key, render);
+                if (existing != null) {
+                    cacheStatus = "SHARED";
+                    shared.incrementAndGet();
+                    output = existing.get();
+                } else {
+                    try {
+                        // Another request may have finished rendering it
+                        // since the lookup
+                        output = cache.peek(key);
+                        if (output == null || !isCurrent(output, download)) {
+                            cacheStatus = "MISS";
+                            output = render(src, local, download, profile);
+                            cache.put(key, output);
+                        }
+                        render.complete(output);
+                    } catch (IOException | RuntimeException ex) {
+                        render.completeExceptionally(ex);
+                        throw ex;
+                    } finally {
+                        inFlight.remove(key, render);
+                    }
+                }
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", output.getContentType());
+            exchange.getResponseHeaders().set("X-Cache", cacheStatus);
+            exchange.sendResponseHeaders(200, output.getBytes().length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(output.getBytes());
+            }
+        } catch (IllegalArgumentException ex) {
+            sendText(exchange, 400, ex.getMessage());
+        } catch (FileNotFoundException ex) {
+            sendText(exchange, 404, ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            sendText(exchange, 503, "Interrupted");
+        } catch (ExecutionException ex) {
+            sendText(exchange, 500, "Failed to render. " + ex.getCause().getMessage());
+        } catch (IOException | RuntimeException ex) {
+            sendText(exchange, 500, "Failed to render. " + ex.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        try {
+            String json = "{\"requests\": " + requests.get()
+                    + ", \"cacheHits\": " + cache.getHits()
+                    + ", \"cacheMisses\": " + cache.getMisses()
+                    + ", \"sharedRenders\": " + shared.get()
+                    + ", \"rendered\": " + metrics.getSucceeded()
+                    + ", \"failed\": " + metrics.getFailed()
+                    + ", \"cacheEntries\": " + cache.getEntries()
+                    + ", \"cacheBytes\": " + cache.getSize()
+                    + ", \"cacheCapacityBytes\": " + cache.getCapacity()
+                    + ", \"cacheEvictions\": " + cache.getEvictions()
+                    + ", \"renderP50Millis\": " + metrics.getTotal().getPercentileNanos(50) / 1000000
+                    + ", \"renderP99Millis\": " + metrics.getTotal().getPercentileNanos(99) / 1000000
+                    + "}\n";
+            byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(bytes);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Checks whether a cached output is still current after revalidating its
+     * source.
+     *
+     * @param output The cached output
+     * @param download The revalidated url source, or null if the source is
+     * local or wasn't revalidated
+     * @return Whether the output was rendered from the same version of the
+     * source
+     */
+    private static boolean isCurrent(RenderedOutput output, RemoteImage download) {
+        return download == null || !download.isModified()
+                || (output.getSource() != null && download.getVersion().equals(output.getSource().getVersion()));
+    }
+
+    /**
+     * Renders a single output with a ScaleTask on the render threads. A url
+     * is downloaded into memory, unless it already was, and decoded from
+     * there.
+     */
+    private RenderedOutput render(String src, File local, RemoteImage download, OutputProfile profile)
+            throws IOException, InterruptedException, ExecutionException {
+        RemoteImage remote = null;
+        ImageSource source;
+        if (local != null) {
+            source = ImageSource.of(local);
+        } else {
+            remote = download != null && download.isModified() ? download
+                    : NetworkUtils.downloadIfChanged(src, timeoutMillis, null);
+            source = ImageSource.of(ByteBuffer.wrap(remote.getBytes()), src, NetworkUtils.getFileName(src));
+        }
+        MemorySink sink = new MemorySink();
+        ScaleTask task = new ScaleTask(source, Collections.singletonList(profile), scaleOptions, sink,
+                renderers.getSubtaskExecutor());
+        ScaleResult result;
+        try {
+            result = CompletableFuture.supplyAsync(task::run, renderers).get();
+        } catch (ExecutionException ex) {
+            metrics.recordFailure();
+            throw ex;
+        }
+        metrics.record(result);
+        EncodedOutput output = sink.get(profile);
+        return new RenderedOutput(output.toByteArray(), output.getFormat(), output.getWidth(), output.getHeight(),
+                remote != null ? remote.getValidators() : null);
+    }
+
+    /**
+     * Resolves a local source, making sure it is inside the source root.
+     */
+    private File resolve(String src) throws IOException {
+        File file = new File(root, src).getCanonicalFile();
+        if (!file.toPath().startsWith(root.toPath())) {
+            throw new IllegalArgumentException("src must be inside " + root.getPath());
+        }
+        if (!file.isFile()) {
+            throw new FileNotFoundException("No such file " + src);
+        }
+        return file;
+    }
+
+    private static OutputProfile parseProfile(Map<String, String> params) {
+        int width = parseDimension(params.get("width"), "width");
+        int height = params.containsKey("height") ? parseDimension(params.get("height"), "height") : 0;
+        String format = params.get("format");
+        EncoderSettings encoder = new EncoderSettings();
+        for (String key : new String[]{"quality", "progressive", "compression"}) {
+            if (params.containsKey(key)) {
+                encoder.parse(key, params.get(key));
+            }
+        }
+        return new OutputProfile("server", width, height, null, format, encoder);
+    }
+
+    private static int parseDimension(String value, String name) {
+        int parsed = -1;
+        try {
+            parsed = Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+        }
+        if (parsed < 1 || parsed > MAX_DIMENSION) {
+            throw new IllegalArgumentException(name + " must be an integer between 1 and " + MAX_DIMENSION);
+        }
+        return parsed;
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(key, "UTF-8").toLowerCase(Locale.ROOT),
+                    URLDecoder.decode(value, "UTF-8"));
+        }
+        return params;
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(bytes);
+        }
+    }
+}
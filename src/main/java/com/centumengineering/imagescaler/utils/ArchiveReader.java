@@ -0,0 +1,277 @@
+package com.centumengineering.imagescaler.utils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Reads the files in a ZIP or TAR archive straight into memory, without
+ * unpacking them to disk. ZIP archives are read through their central
+ * directory, so single entries can also be read by name. TAR archives,
+ * optionally gzipped, are read front to back.
+ *
+ * @author Phani Gaddipati
+ */
+public class ArchiveReader implements AutoCloseable {
+
+    private static final int BLOCK_SIZE = 512;
+
+    private final File file;
+    private final ZipFile zip;
+
+    /**
+     * Opens the given archive.
+     *
+     * @param file A .zip, .tar, .tar.gz or .tgz file
+     * @throws IOException If the archive can't be opened
+     */
+    public ArchiveReader(File file) throws IOException {
+        this.file = file;
+        this.zip = isZip(file.getName()) ? new ZipFile(file) : null;
+    }
+
+    /**
+     * Checks whether the given file is an archive this reader supports, by
+     * its extension.
+     *
+     * @param file The file
+     * @return Whether the file is an archive
+     */
+    public static boolean isArchive(File file) {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        return isZip(name) || name.endsWith(".tar") || name.endsWith(".tar.gz") || name.endsWith(".tgz");
+    }
+
+    /**
+     * Checks whether single entries of the given archive can be read by name,
+     * by its extension.
+     *
+     * @param file The archive
+     * @return Whether the archive is a ZIP file
+     */
+    public static boolean isRandomAccess(File file) {
+        return isZip(file.getName());
+    }
+
+    private static boolean isZip(String name) {
+        name = name.toLowerCase(Locale.ROOT);
+        return name.endsWith(".zip") || name.endsWith(".jar");
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return Whether single entries can be read by name
+     */
+    public boolean isRandomAccess() {
+        return zip != null;
+    }
+
+    /**
+     * Passes the names of every file in the archive to the sink, without
+     * reading their contents.
+     *
+     * @param sink The consumer of the entry names
+     * @throws IOException If the archive can't be read
+     */
+    public void listEntries(Consumer<String> sink) throws IOException {
+        forEach(name -> {
+            sink.accept(name);
+            return false;
+        }, (name, bytes) -> {
+        });
+    }
+
+    /**
+     * Reads every file in the archive that is accepted, passing each to the
+     * sink once it is read.
+     *
+     * @param accept Tests each entry name, only accepted entries are read
+     * @param sink The consumer of the entry names and contents
+     * @throws IOException If the archive can't be read
+     */
+    public void forEach(Predicate<String> accept, BiConsumer<String, byte[]> sink) throws IOException {
+        if (zip != null) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && accept.test(entry.getName())) {
+                    sink.accept(entry.getName(), readZipEntry(entry));
+                }
+            }
+            return;
+        }
+        try (InputStream in = openTar()) {
+            readTar(new DataInputStream(in), accept, sink);
+        }
+    }
+
+    /**
+     * Reads a single file by name. Only supported by random access
+     * archives.
+     *
+     * @param name The entry name
+     * @return The contents, or null if the archive has no such file
+     * @throws IOException If the entry can't be read
+     */
+    public byte[] read(String name) throws IOException {
+        if (zip == null) {
+            throw new UnsupportedOperationException("TAR entries can't be read by name");
+        }
+        ZipEntry entry = zip.getEntry(name);
+        return entry == null || entry.isDirectory() ? null : readZipEntry(entry);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (zip != null) {
+            zip.close();
+        }
+    }
+
+    private byte[] readZipEntry(ZipEntry entry) throws IOException {
+        if (entry.getSize() > Integer.MAX_VALUE) {
+            throw new IOException(entry.getName() + " is too large");
+        }
+        try (InputStream in = zip.getInputStream(entry)) {
+            return entry.getSize() >= 0 ? IOUtils.toByteArray(in, entry.getSize()) : IOUtils.toByteArray(in);
+        }
+    }
+
+    private InputStream openTar() throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".gz") || name.endsWith(".tgz")) {
+            try {
+                return new GZIPInputStream(in, 64 * 1024);
+            } catch (IOException ex) {
+                in.close();
+                throw ex;
+            }
+        }
+        return in;
+    }
+
+    /**
+     * Reads the entries of a ustar, GNU or POSIX tar stream. Long names are
+     * taken from GNU long name entries and the path of PAX headers.
+     */
+    private static void readTar(DataInputStream in, Predicate<String> accept, BiConsumer<String, byte[]> sink)
+            throws IOException {
+        byte[] header = new byte[BLOCK_SIZE];
+        String longName = null;
+        while (true) {
+            try {
+                in.readFully(header);
+            } catch (EOFException ex) {
+                return;
+            }
+            if (isZeroBlock(header)) {
+                // The end of archive marker
+                return;
+            }
+            long size = parseSize(header);
+            char type = (char) header[156];
+            String name = longName != null ? longName : getHeaderName(header);
+            longName = null;
+            long padding = (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+            if (type == 'L' || type == 'x') {
+                String text = readString(in, size);
+                longName = type == 'L' ? trimNull(text) : getPaxPath(text);
+            } else if ((type == '0' || type == '\0' || type == '7') && accept.test(name)) {
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException(name + " is too large");
+                }
+                byte[] bytes = new byte[(int) size];
+                in.readFully(bytes);
+                sink.accept(name, bytes);
+            } else {
+                IOUtils.skipFully(in, size);
+            }
+            IOUtils.skipFully(in, padding);
+        }
+    }
+
+    private static String getHeaderName(byte[] header) {
+        String name = readField(header, 0, 100);
+        boolean ustar = header[257] == 'u' && header[258] == 's' && header[259] == 't'
+                && header[260] == 'a' && header[261] == 'r' && header[262] == 0;
+        String prefix = ustar ? readField(header, 345, 155) : "";
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    private static long parseSize(byte[] header) throws IOException {
+        if ((header[124] & 0x80) != 0) {
+            // GNU base 256 for sizes of 8 GB and over
+            long size = 0;
+            for (int i = 125; i < 136; i++) {
+                size = (size << 8) | (header[i] & 0xff);
+            }
+            return size;
+        }
+        String octal = readField(header, 124, 12).trim();
+        try {
+            return octal.isEmpty() ? 0 : Long.parseLong(octal, 8);
+        } catch (NumberFormatException ex) {
+            throw new IOException("Not a TAR archive");
+        }
+    }
+
+    private static String getPaxPath(String records) {
+        // Records are "<length> <key>=<value>\n"
+        for (String record : records.split("\n")) {
+            int space = record.indexOf(' ');
+            if (space > 0 && record.startsWith("path=", space + 1)) {
+                return record.substring(space + 6);
+            }
+        }
+        return null;
+    }
+
+    private static String readString(DataInputStream in, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Not a TAR archive");
+        }
+        byte[] bytes = new byte[(int) size];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String readField(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static String trimNull(String text) {
+        int end = text.indexOf('\0');
+        return end < 0 ? text : text.substring(0, end);
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
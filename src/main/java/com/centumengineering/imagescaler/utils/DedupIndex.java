@@ -0,0 +1,265 @@
+package com.centumengineering.imagescaler.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Maps the content hash of each scaled source to the source its outputs were
+ * produced for, so identical sources can reuse them.
+ *
+ * The index is kept in memory, and can also be persisted so sources are
+ * deduplicated across runs. Like the {@link ProcessingManifest}, the file is
+ * an append-only journal of checksummed lines, where a line cut short by a
+ * crash is ignored and a later line for the same hash replaces an earlier
+ * one. It is compacted to one line per hash when opened.
+ *
+ * Scaling a source again overwrites the outputs of its name, so an entry is
+ * dropped as soon as its name is scaled from other content, and identical
+ * sources never get the outputs of content that has since changed. Before a
+ * name is scaled again, a line without a hash drops its entry, so a crash
+ * halfway through the outputs can't leave an entry pointing at them.
+ *
+ * @author Phani Gaddipati
+ */
+public class DedupIndex implements AutoCloseable {
+
+    private static final String SEPARATOR = "\t";
+
+    private final File file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, String> hashByName = new ConcurrentHashMap<>();
+    private final FileOutputStream journalStream;
+    private final Writer journal;
+
+    /**
+     * Creates an index that is only kept in memory.
+     */
+    public DedupIndex() {
+        this.file = null;
+        this.journalStream = null;
+        this.journal = null;
+    }
+
+    /**
+     * Opens the index at the given path, creating it if it doesn't exist.
+     *
+     * @param file The index file
+     * @throws IOException If the index can't be read or written
+     */
+    public DedupIndex(File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            load();
+        }
+        compact();
+        journalStream = new FileOutputStream(file, true);
+        journal = new BufferedWriter(new OutputStreamWriter(journalStream, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return The number of distinct sources in the index
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @param hash The content hash of a source
+     * @return The source scaled with that hash, or null if there is none
+     */
+    public Entry get(String hash) {
+        return entries.get(hash);
+    }
+
+    /**
+     * Records that a source was scaled, replacing the entry its name had for
+     * other content. If the index is persisted, the entry is written to the
+     * journal before this returns, so it survives a crash of the process,
+     * though not necessarily a power loss.
+     *
+     * @param hash The content hash of the source
+     * @param settings A description of the settings the outputs were produced
+     * with
+     * @param name The name of the source, which its output names are based on
+     * @param cpuNanos The CPU time it took to produce the outputs
+     * @throws IOException If the index can't be written
+     */
+    public void put(String hash, String settings, String name, long cpuNanos) throws IOException {
+        record(new Entry(hash, settings, name, cpuNanos));
+    }
+
+    /**
+     * Drops the entry of a name that is about to be scaled again, since its
+     * outputs will no longer match the content the entry was hashed from.
+     *
+     * @param name The name of the source
+     * @throws IOException If the index can't be written
+     */
+    public void invalidate(String name) throws IOException {
+        if (hashByName.containsKey(name)) {
+            record(new Entry("", "", name, 0));
+        }
+    }
+
+    private synchronized void record(Entry entry) throws IOException {
+        apply(entry);
+        if (journal != null) {
+            journal.write(entry.toLine());
+            journal.write('\n');
+            journal.flush();
+        }
+    }
+
+    /**
+     * Adds an entry, dropping the entry its name had for other content. An
+     * entry without a hash only drops the old one.
+     */
+    private void apply(Entry entry) {
+        String previous = entry.hash.isEmpty() ? hashByName.remove(entry.name)
+                : hashByName.put(entry.name, entry.hash);
+        if (previous != null && !previous.equals(entry.hash)) {
+            Entry old = entries.get(previous);
+            // The hash may since have been scaled under another name
+            if (old != null && old.name.equals(entry.name)) {
+                entries.remove(previous);
+            }
+        }
+        if (!entry.hash.isEmpty()) {
+            entries.put(entry.hash, entry);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.flush();
+            journalStream.getFD().sync();
+            journal.close();
+        }
+    }
+
+    private void load() throws IOException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Entry entry = Entry.parse(line);
+                if (entry != null) {
+                    apply(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the index with one line per hash, replacing the old file only
+     * once the new one is fully on disk.
+     */
+    private void compact() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        File tmp = new File(parent, file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            for (Entry entry : entries.values()) {
+                writer.write(entry.toLine());
+                writer.write('\n');
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String checksum(String content) {
+        CRC32 crc = new CRC32();
+        crc.update(content.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * A scaled source.
+     */
+    public static class Entry {
+
+        private static final int FIELDS = 5;
+
+        private final String hash;
+        private final String settings;
+        private final String name;
+        private final long cpuNanos;
+
+        Entry(String hash, String settings, String name, long cpuNanos) {
+            this.hash = hash;
+            this.settings = settings;
+            this.name = name;
+            this.cpuNanos = cpuNanos;
+        }
+
+        /**
+         * @return The settings the outputs were produced with
+         */
+        public String getSettings() {
+            return settings;
+        }
+
+        /**
+         * @return The name of the source, which its output names are based on
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The CPU time it took to produce the outputs
+         */
+        public long getCpuNanos() {
+            return cpuNanos;
+        }
+
+        String toLine() {
+            String content = hash + SEPARATOR + settings + SEPARATOR + name + SEPARATOR + cpuNanos;
+            return content + SEPARATOR + checksum(content);
+        }
+
+        /**
+         * Parses an index line.
+         *
+         * @param line The line
+         * @return The entry, or null if the line is incomplete or corrupt
+         */
+        static Entry parse(String line) {
+            int checksumStart = line.lastIndexOf(SEPARATOR);
+            if (checksumStart < 0) {
+                return null;
+            }
+            String content = line.substring(0, checksumStart);
+            if (!checksum(content).equals(line.substring(checksumStart + 1))) {
+                return null;
+            }
+            String[] fields = line.split(SEPARATOR, -1);
+            if (fields.length != FIELDS) {
+                return null;
+            }
+            try {
+                return new Entry(fields[0], fields[1], fields[2], Long.parseLong(fields[3]));
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.centumengineering.imagescaler.utils;
+
+import com.centumengineering.imagescaler.scaling.ImageSource;
+import com.centumengineering.imagescaler.scaling.OutputProfile;
+import com.centumengineering.imagescaler.scaling.OutputSink;
+import com.centumengineering.imagescaler.scaling.ScaleResult;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Scales each distinct source only once. Every source is hashed before it is
+ * decoded, and a source identical to one already scaled with the same
+ * settings gets the outputs of the original through its OutputSink, as hard
+ * links, copies or pack aliases, instead of being scaled again.
+ *
+ * A duplicate of a source that is still being scaled waits for it on its own
+ * worker. The original is always already running by then, since it registers
+ * itself from its worker, so this can't deadlock.
+ *
+ * @author Phani Gaddipati
+ */
+public class Deduplicator {
+
+    /**
+     * How duplicates get the outputs of the original.
+     */
+    public enum Mode {
+        /**
+         * Hard link the output files, falling back to copies where the file
+         * system can't.
+         */
+        LINK,
+        /**
+         * Copy the output files.
+         */
+        COPY
+    }
+
+    private final DedupIndex index;
+    private final OutputSink sink;
+    private final List<OutputProfile> profiles;
+    private final String settings;
+    private final boolean link;
+    private final ConcurrentHashMap<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    /**
+     * @param index The index of the sources already scaled
+     * @param sink The sink the outputs are written to
+     * @param profiles The outputs produced for each source
+     * @param settings A description of the settings the outputs are produced
+     * with, so sources scaled with other settings aren't reused
+     * @param mode How duplicates get the outputs of the original
+     */
+    public Deduplicator(DedupIndex index, OutputSink sink, List<OutputProfile> profiles, String settings,
+            Mode mode) {
+        this.index = index;
+        this.sink = sink;
+        this.profiles = profiles;
+        this.settings = settings;
+        this.link = mode == Mode.LINK;
+    }
+
+    /**
+     * Produces the outputs of the source, either by reusing those of an
+     * identical source or by scaling it. Runs on the calling thread.
+     *
+     * @param source The source image
+     * @param task Scales the source
+     * @return The result of the task, or a result marking the source as a
+     * duplicate
+     */
+    public ScaleResult run(ImageSource source, Supplier<ScaleResult> task) {
+        long startTime = System.currentTimeMillis();
+        String hash;
+        try (InputStream in = source.openInputStream()) {
+            hash = HashUtils.hashStream(in);
+        } catch (IOException ex) {
+            // Complete exceptionally
+            throw new UncheckedIOException(ex);
+        }
+        while (true) {
+            DedupIndex.Entry original = index.get(hash);
+            if (original != null && original.getSettings().equals(settings)) {
+                if (reuse(source, original.getName())) {
+                    return new ScaleResult(startTime, System.currentTimeMillis(), source,
+                            original.getName(), original.getCpuNanos());
+                }
+                // The outputs of the original are gone, scale it again
+            }
+            CompletableFuture<Boolean> scaled = new CompletableFuture<>();
+            CompletableFuture<Boolean> running = inFlight.putIfAbsent(hash, scaled);
+            if (running == null) {
+                return scaleOriginal(source, hash, task, scaled);
+            }
+            if (!running.join()) {
+                // The original failed, so this copy is likely to fail as well,
+                // but it gets its own attempt and error
+                return task.get();
+            }
+        }
+    }
+
+    private ScaleResult scaleOriginal(ImageSource source, String hash, Supplier<ScaleResult> task,
+            CompletableFuture<Boolean> scaled) {
+        boolean succeeded = false;
+        try {
+            // The outputs of this name are about to be overwritten
+            index.invalidate(source.getName());
+            long cpuStart = getCpuNanos();
+            ScaleResult result = task.get();
+            index.put(hash, settings, source.getName(), getCpuNanos() - cpuStart);
+            succeeded = true;
+            return result;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            inFlight.remove(hash, scaled);
+            scaled.complete(succeeded);
+        }
+    }
+
+    /**
+     * Stores every output of the source as the output of the original.
+     *
+     * @return Whether every output of the original was found
+     */
+    private boolean reuse(ImageSource source, String originalName) {
+        try {
+            for (OutputProfile profile : profiles) {
+                if (sink.reuse(source, profile, originalName, link) == null) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Gets the CPU time of the current thread, or the wall time if the JVM
+     * can't measure it.
+     */
+    private long getCpuNanos() {
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+}
@@ -0,0 +1,332 @@
+package com.centumengineering.imagescaler.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * A persistent cache of downloaded files, keyed by the full url.
+ *
+ * Each url is stored under the hash of the url, with the ETag and
+ * Last-Modified headers of the response next to it. When a cached url is
+ * requested again, it is revalidated with a conditional GET, so an unchanged
+ * file costs a 304 response and no transfer, while a changed file is fetched
+ * again. Responses are always read to the end and their streams closed
+ * without disconnecting, so the JVM keeps the connections alive and reuses
+ * them for later requests to the same host.
+ *
+ * The cache is bounded by size and by age. Both are enforced when the cache
+ * is opened and closed, evicting the files used least recently first, so it
+ * must only be closed once nothing reads its files anymore. The last use of a
+ * file is the modification time of its metadata, leaving the file's own
+ * modification time as the time its content last changed.
+ *
+ * Requests don't hold any lock while they talk to the server. Only reading
+ * the metadata and moving a new download and its metadata in place are
+ * locked, per url, so a reader never sees a file with another version's
+ * metadata.
+ *
+ * The cache may be shared by any number of threads, but only by one process
+ * at a time.
+ *
+ * @author Phani Gaddipati
+ */
+public class DownloadCache implements AutoCloseable {
+
+    public static final String DEFAULT_DIR = "net";
+
+    private static final String META_EXTENSION = ".properties";
+    private static final String TEMP_PREFIX = "download-";
+    private static final int LOCK_STRIPES = 64;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File dir;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+    private final int timeoutMillis;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final LongAdder revalidated = new LongAdder();
+    private final LongAdder downloaded = new LongAdder();
+    private final LongAdder bytesDownloaded = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * Opens the cache in the given directory, creating it if it doesn't exist,
+     * and evicts whatever exceeds the bounds.
+     *
+     * @param dir The cache directory
+     * @param maxBytes The total size of the cached files to keep, 0 for no
+     * limit
+     * @param maxAgeMillis How long to keep a file that isn't used, 0 for no
+     * limit
+     * @param timeoutMillis The connect and read timeout of each request, 0 for
+     * no timeout
+     */
+    public DownloadCache(File dir, long maxBytes, long maxAgeMillis, int timeoutMillis) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        this.timeoutMillis = timeoutMillis;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        dir.mkdirs();
+        evict();
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * Gets a local copy of the url, downloading it if it isn't cached and
+     * revalidating it if it is.
+     *
+     * @param path The url
+     * @return The cached file, which keeps the extension of the url so the
+     * format can be recognized
+     * @throws IOException If the url is invalid or can't be downloaded
+     */
+    public File get(String path) throws IOException {
+        URL url = new URL(path);
+        String key = HashUtils.hashBytes(path.getBytes(StandardCharsets.UTF_8));
+        String extension = FilenameUtils.getExtension(url.getPath());
+        // Fan out over subdirectories to keep each one small
+        File keyDir = new File(dir, key.substring(0, 2));
+        File data = new File(keyDir, extension.isEmpty() ? key : key + "." + extension);
+        File meta = new File(keyDir, key + META_EXTENSION);
+
+        Object lock = locks[(key.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+        Properties cached;
+        synchronized (lock) {
+            cached = readMeta(meta, data);
+        }
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        if (cached != null) {
+            String etag = cached.getProperty("etag");
+            long lastModified = Long.parseLong(cached.getProperty("lastModified", "0"));
+            if (etag != null) {
+                connection.setRequestProperty("If-None-Match", etag);
+            }
+            if (lastModified > 0) {
+                connection.setIfModifiedSince(lastModified);
+            }
+        }
+        if (cached != null && connection instanceof HttpURLConnection
+                && ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            NetworkUtils.drain(connection.getInputStream());
+            synchronized (lock) {
+                // Only the metadata marks the use, the file is unchanged
+                meta.setLastModified(System.currentTimeMillis());
+            }
+            revalidated.increment();
+            return data;
+        }
+        NetworkUtils.checkResponse(connection, path);
+        keyDir.mkdirs();
+        File tmp = download(connection, keyDir);
+        try {
+            Properties updated = new Properties();
+            updated.setProperty("url", path);
+            updated.setProperty("length", Long.toString(tmp.length()));
+            String etag = connection.getHeaderField("ETag");
+            if (etag != null) {
+                updated.setProperty("etag", etag);
+            }
+            updated.setProperty("lastModified", Long.toString(connection.getLastModified()));
+            synchronized (lock) {
+                Files.move(tmp.toPath(), data.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                writeMeta(meta, updated);
+            }
+        } finally {
+            tmp.delete();
+        }
+        downloaded.increment();
+        return data;
+    }
+
+    /**
+     * @return The number of requests answered from the cache after a
+     * revalidation
+     */
+    public long getRevalidated() {
+        return revalidated.sum();
+    }
+
+    /**
+     * @return The number of files downloaded in full
+     */
+    public long getDownloaded() {
+        return downloaded.sum();
+    }
+
+    /**
+     * @return The bytes downloaded in full
+     */
+    public long getBytesDownloaded() {
+        return bytesDownloaded.sum();
+    }
+
+    /**
+     * @return The number of files evicted
+     */
+    public long getEvicted() {
+        return evicted.sum();
+    }
+
+    /**
+     * Evicts whatever exceeds the bounds and prints a summary of the run.
+     */
+    @Override
+    public void close() {
+        evict();
+        System.out.println(String.format(Locale.ROOT,
+                "Download cache: %d revalidated, %d downloaded (%.1f MB), %d evicted",
+                getRevalidated(), getDownloaded(), getBytesDownloaded() / (1024.0 * 1024.0), getEvicted()));
+    }
+
+    /**
+     * Reads the metadata of a cached url.
+     *
+     * @return The metadata, or null if the url isn't cached or its file
+     * doesn't match the metadata, e.g. after a crash
+     */
+    private static File getMetaFile(File data) {
+        return new File(data.getParentFile(), FilenameUtils.getBaseName(data.getName()) + META_EXTENSION);
+    }
+
+    /**
+     * @return When the cached file was last used, the modification time of
+     * its metadata, or of the file itself if the metadata is missing
+     */
+    private static long getLastUse(File data) {
+        long metaModified = getMetaFile(data).lastModified();
+        return metaModified > 0 ? metaModified : data.lastModified();
+    }
+
+    private static Properties readMeta(File meta, File data) {
+        if (!meta.isFile() || !data.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader in = new InputStreamReader(new FileInputStream(meta), StandardCharsets.UTF_8)) {
+            properties.load(in);
+            long length = Long.parseLong(properties.getProperty("length", "-1"));
+            return length == data.length() ? properties : null;
+        } catch (IOException | NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private static void writeMeta(File meta, Properties properties) throws IOException {
+        File tmp = File.createTempFile(TEMP_PREFIX, null, meta.getParentFile());
+        try {
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+                properties.store(out, null);
+            }
+            Files.move(tmp.toPath(), meta.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Reads the response into a temporary file, to be moved over the cached
+     * file once complete, so a failed download leaves the old copy in place.
+     *
+     * @return The temporary file
+     */
+    private File download(URLConnection connection, File keyDir) throws IOException {
+        File tmp = File.createTempFile(TEMP_PREFIX, null, keyDir);
+        boolean complete = false;
+        try {
+            try (InputStream in = connection.getInputStream();
+                    OutputStream out = new FileOutputStream(tmp)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    bytesDownloaded.add(read);
+                }
+            }
+            complete = true;
+            return tmp;
+        } finally {
+            if (!complete) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes the files not used within the maximum age, then the files used
+     * least recently until the cache fits in the maximum size.
+     */
+    private synchronized void evict() {
+        File[] keyDirs = dir.listFiles(File::isDirectory);
+        if (keyDirs == null || (maxBytes <= 0 && maxAgeMillis <= 0)) {
+            return;
+        }
+        List<File> files = new ArrayList<>();
+        long total = 0;
+        for (File keyDir : keyDirs) {
+            File[] children = keyDir.listFiles();
+            if (children == null) {
+                continue;
+            }
+            for (File child : children) {
+                String name = child.getName();
+                if (name.startsWith(TEMP_PREFIX)) {
+                    // Left behind by a crash
+                    child.delete();
+                } else if (!name.endsWith(META_EXTENSION)) {
+                    files.add(child);
+                    total += child.length();
+                }
+            }
+        }
+        Map<File, Long> lastUse = new HashMap<>();
+        for (File file : files) {
+            lastUse.put(file, getLastUse(file));
+        }
+        files.sort(Comparator.comparingLong(lastUse::get));
+        long cutoff = maxAgeMillis > 0 ? System.currentTimeMillis() - maxAgeMillis : Long.MIN_VALUE;
+        for (File file : files) {
+            if (lastUse.get(file) >= cutoff && (maxBytes <= 0 || total <= maxBytes)) {
+                break;
+            }
+            long length = file.length();
+            getMetaFile(file).delete();
+            if (file.delete()) {
+                total -= length;
+                evicted.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.centumengineering.imagescaler.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Basic utilities for fingerprinting file contents.
+ *
+ * @author Phani Gaddipati
+ */
+public class HashUtils {
+
+    private static final String ALGORITHM = "SHA-1";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private HashUtils() {
+    }
+
+    /**
+     * Hashes the contents of the given file.
+     *
+     * @param file The file to hash
+     * @return The hex encoded hash
+     * @throws IOException If the file can't be read
+     */
+    public static String hashFile(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return hashStream(in);
+        }
+    }
+
+    /**
+     * Hashes everything remaining in the given stream.
+     *
+     * @param in The stream to hash, which is left open
+     * @return The hex encoded hash
+     * @throws IOException If the stream can't be read
+     */
+    public static String hashStream(InputStream in) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Hashes the given bytes.
+     *
+     * @param bytes The bytes to hash
+     * @return The hex encoded hash
+     */
+    public static String hashBytes(byte[] bytes) {
+        return toHex(newDigest().digest(bytes));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            // Every JVM is required to provide SHA-1
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
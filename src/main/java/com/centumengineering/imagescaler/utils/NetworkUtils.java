@@ -1,13 +1,21 @@
 package com.centumengineering.imagescaler.utils;
 
-import java.io.File;
+import com.centumengineering.imagescaler.scaling.ImageSource;
+import com.centumengineering.imagescaler.scaling.ScaleExecutor;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.LinkedList;
-import java.util.List;
-import org.apache.commons.io.FileUtils;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 
 /**
  * Basic utilities for dealing with online files.
@@ -15,43 +23,239 @@ import org.apache.commons.io.FilenameUtils;
  * @author Phani Gaddipati
  */
 public class NetworkUtils {
-    
-    private static final String DOWNLOAD_DIR = "net";
-
-    /**
-     * Attempts to download all of the urls passed into the net directory.
-     * The successfully downloaded urls are added to the return set of
-     * downloaded files
-     *
-     * @param urls
-     * @return An array of local files that the images were downloaded to
-     */
-    public static File[] downloadFilesByURLs(String[] urls) {
-        System.out.println("Attempting to download " + urls.length + " files");
-        List<File> newPaths = new LinkedList<>();
-        File downloadDir = new File(DOWNLOAD_DIR);
-        downloadDir.mkdirs();
-        
-        for (String path : urls) {
-            try {
-                URL url = new URL(path);
-                File downloadedFile = new File(downloadDir, FilenameUtils.getName(url.getPath()));
-                if (downloadedFile.exists()) {
-                    System.out.println(downloadedFile.getAbsolutePath() + " already exists. Skipping.");
-                } else {
-                    FileUtils.copyURLToFile(url, downloadedFile);                    
-                    System.out.println("Downloaded " + downloadedFile.getAbsolutePath());
-                }
-                newPaths.add(downloadedFile);
-            } catch (MalformedURLException ex) {
-                System.out.println("Invalid URL, ignoring \"" + path + "\"");
-            } catch (IOException ex) {
-                System.out.println("Failed to download a file, ignoring \"" + path + "\"");
-            } catch (Exception ex) {
-                System.out.println("Unexpected error. Failed to download a file, ignoring \"" + path + "\"");
+
+    private static final String MAX_CONNECTIONS_PROPERTY = "http.maxConnections";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Downloads all of the urls passed into the cache using a pool of
+     * concurrent connections. Each file is passed to the consumer as soon as it
+     * has been downloaded, on the downloading thread, so scaling can overlap
+     * with the remaining downloads. If the consumer blocks, the downloaders
+     * stop taking new urls until it is ready. This method blocks until every
+     * url has been handled.
+     *
+     * @param urls The urls to download, which may be read lazily
+     * @param cache The cache to download into
+     * @param connections The number of concurrent downloads
+     * @param onDownloaded Called with each successfully downloaded file, named
+     * after the last element of its url
+     * @throws InterruptedException
+     */
+    public static void downloadFilesByURLs(Stream<String> urls, DownloadCache cache, int connections,
+            Consumer<ImageSource> onDownloaded) throws InterruptedException {
+        downloadConcurrently(urls, connections,
+                path -> ImageSource.of(cache.get(path), path, getFileName(path)), onDownloaded);
+    }
+
+    /**
+     * Downloads all of the urls passed into memory using a pool of concurrent
+     * connections, without writing them to disk. Otherwise the same as
+     * {@link #downloadFilesByURLs(Stream, DownloadCache, int, Consumer)}.
+     *
+     * @param urls The urls to download, which may be read lazily
+     * @param connections The number of concurrent downloads
+     * @param timeoutMillis The connect and read timeout of each request, 0 for
+     * no timeout
+     * @param onDownloaded Called with each successfully downloaded image,
+     * named after the last element of its url
+     * @throws InterruptedException
+     */
+    public static void downloadFilesToMemory(Stream<String> urls, int connections, int timeoutMillis,
+            Consumer<ImageSource> onDownloaded) throws InterruptedException {
+        downloadConcurrently(urls, connections, path -> ImageSource.of(
+                ByteBuffer.wrap(downloadToMemory(path, timeoutMillis)), path, getFileName(path)), onDownloaded);
+    }
+
+    private static void downloadConcurrently(Stream<String> urls, int connections, Download download,
+            Consumer<ImageSource> onDownloaded) throws InterruptedException {
+        System.out.println("Downloading files over " + connections + " connections");
+        // Keep a connection per downloader alive for each host, rather than
+        // the default of 5. Only read before the first connection is made.
+        if (System.getProperty(MAX_CONNECTIONS_PROPERTY) == null) {
+            System.setProperty(MAX_CONNECTIONS_PROPERTY, Integer.toString(connections));
+        }
+
+        try (ScaleExecutor downloaders = new ScaleExecutor(connections, connections, "download-worker")) {
+            Iterator<String> it = urls.iterator();
+            while (it.hasNext()) {
+                final String path = it.next();
+                downloaders.execute(() -> {
+                    ImageSource downloaded = downloadFile(path, download);
+                    if (downloaded != null) {
+                        onDownloaded.accept(downloaded);
+                    }
+                });
+            }
+            downloaders.awaitIdle();
+        } catch (RejectedExecutionException ex) {
+            throw new InterruptedException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Checks whether the given path is an http or https url rather than a
+     * local path.
+     *
+     * @param path The path
+     * @return Whether the path is a url
+     */
+    public static boolean isURL(String path) {
+        String lower = path.toLowerCase(Locale.ROOT);
+        return lower.startsWith("http://") || lower.startsWith("https://");
+    }
+
+    /**
+     * Downloads a single url into memory. The response is read straight into
+     * an array of its Content-Length when the server sends one, and the
+     * connection is kept alive to be reused for the next request to the same
+     * host.
+     *
+     * @param path The url to download
+     * @param timeoutMillis The connect and read timeout, 0 for no timeout
+     * @return The downloaded bytes
+     * @throws IOException If the url is invalid or can't be downloaded
+     */
+    public static byte[] downloadToMemory(String path, int timeoutMillis) throws IOException {
+        URLConnection connection = new URL(path).openConnection();
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        checkResponse(connection, path);
+        return readBody(connection, path);
+    }
+
+    /**
+     * Downloads a single url into memory unless it is unchanged since an
+     * earlier download, which is checked with a conditional GET carrying the
+     * validators of that download. Servers that send no validators are
+     * answered with the whole image every time.
+     *
+     * @param path The url to download
+     * @param timeoutMillis The connect and read timeout, 0 for no timeout
+     * @param previous An earlier download of the url, or null
+     * @return The image, without bytes if the server answered 304 Not
+     * Modified
+     * @throws IOException If the url is invalid or can't be downloaded
+     */
+    public static RemoteImage downloadIfChanged(String path, int timeoutMillis, RemoteImage previous)
+            throws IOException {
+        URLConnection connection = new URL(path).openConnection();
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        if (previous != null) {
+            if (previous.getEtag() != null) {
+                connection.setRequestProperty("If-None-Match", previous.getEtag());
+            }
+            if (previous.getLastModified() > 0) {
+                connection.setIfModifiedSince(previous.getLastModified());
+            }
+        }
+        if (previous != null && connection instanceof HttpURLConnection
+                && ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            drain(connection.getInputStream());
+            return new RemoteImage(null, previous.getEtag(), previous.getLastModified());
+        }
+        checkResponse(connection, path);
+        byte[] bytes = readBody(connection, path);
+        return new RemoteImage(bytes, connection.getHeaderField("ETag"), connection.getLastModified());
+    }
+
+    /**
+     * Reads a response into an array of its Content-Length when the server
+     * sends one, reaching the end so the connection can be reused.
+     */
+    private static byte[] readBody(URLConnection connection, String path) throws IOException {
+        long length = connection.getContentLengthLong();
+        try (InputStream in = connection.getInputStream()) {
+            if (length < 0 || length > Integer.MAX_VALUE) {
+                return IOUtils.toByteArray(in);
+            }
+            byte[] bytes = new byte[(int) length];
+            IOUtils.readFully(in, bytes);
+            // Reach the end of the response so the connection can be reused
+            if (in.read() != -1) {
+                throw new IOException("Response of " + path + " is longer than its Content-Length");
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Fails if an http response isn't a 200, after draining it so the
+     * connection can be reused.
+     *
+     * @param connection The connection
+     * @param path The url, for the message
+     * @throws IOException If the request failed
+     */
+    static void checkResponse(URLConnection connection, String path) throws IOException {
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection http = (HttpURLConnection) connection;
+            int status = http.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                drain(http.getErrorStream());
+                throw new IOException("Server returned " + status + " for " + path);
             }
         }
-        return newPaths.toArray(new File[newPaths.size()]);
     }
 
+    /**
+     * Reads a response body to the end and closes it, which hands the
+     * connection back to the JVM to be reused.
+     *
+     * @param in The response body, or null if there is none
+     * @throws IOException If the body can't be read
+     */
+    static void drain(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        try (InputStream body = in) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (body.read(buffer) != -1) {
+                // Discard
+            }
+        }
+    }
+
+    /**
+     * Gets the file name at the end of a url, without any query, which the
+     * output names are based on.
+     *
+     * @param path The url
+     * @return The file name
+     * @throws MalformedURLException If the url is invalid
+     */
+    public static String getFileName(String path) throws MalformedURLException {
+        return FilenameUtils.getName(new URL(path).getPath());
+    }
+
+    /**
+     * Downloads a single url, reporting failures.
+     *
+     * @param path The url to download
+     * @param download Downloads the url
+     * @return The downloaded image, or null if it couldn't be downloaded
+     */
+    private static ImageSource downloadFile(String path, Download download) {
+        try {
+            return download.fetch(path);
+        } catch (MalformedURLException ex) {
+            System.out.println("Invalid URL, ignoring \"" + path + "\"");
+        } catch (IOException ex) {
+            System.out.println("Failed to download a file, ignoring \"" + path + "\". " + ex.getMessage());
+        } catch (Exception ex) {
+            System.out.println("Unexpected error. Failed to download a file, ignoring \"" + path + "\"");
+        }
+        return null;
+    }
+
+    /**
+     * Downloads a url to a file or into memory.
+     */
+    @FunctionalInterface
+    private interface Download {
+
+        ImageSource fetch(String path) throws IOException;
+    }
 }
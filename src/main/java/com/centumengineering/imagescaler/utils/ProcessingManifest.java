@@ -0,0 +1,299 @@
+package com.centumengineering.imagescaler.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent record of the files that have already been scaled, used to
+ * skip unchanged files on later runs.
+ *
+ * The manifest is an append-only journal with one line per processed file.
+ * Each line ends with a checksum, so a line cut short by a crash is ignored
+ * when loading and the file is simply processed again. A later line for the
+ * same source replaces an earlier one. When opened, the journal is compacted
+ * to one line per source by writing a new file and atomically moving it over
+ * the old one.
+ *
+ * @author Phani Gaddipati
+ */
+public class ProcessingManifest implements AutoCloseable {
+
+    public static final String DEFAULT_FILE_NAME = ".imagescaler-manifest";
+
+    private static final String SEPARATOR = "\t";
+    private static final String OUTPUT_SEPARATOR = File.pathSeparator;
+    private static final String NO_HASH = "-";
+
+    private final File file;
+    private final boolean hashContents;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * The hashes of touched sources found changed, which are about to be
+     * processed, so they aren't hashed again for their snapshot.
+     */
+    private final Map<String, Snapshot> changed = new ConcurrentHashMap<>();
+    private final FileOutputStream journalStream;
+    private final Writer journal;
+
+    /**
+     * Opens the manifest at the given path, creating it if it doesn't exist.
+     *
+     * @param file The manifest file
+     * @param hashContents Whether to record a content hash of each source, so
+     * sources whose modification time changed but whose contents didn't are
+     * still skipped
+     * @throws IOException If the manifest can't be read or written
+     */
+    public ProcessingManifest(File file, boolean hashContents) throws IOException {
+        this.file = file;
+        this.hashContents = hashContents;
+        if (file.exists()) {
+            load();
+        }
+        compact();
+        journalStream = new FileOutputStream(file, true);
+        journal = new BufferedWriter(new OutputStreamWriter(journalStream, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return The number of sources recorded in the manifest
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Checks whether the given source was already processed with the same
+     * settings, is unchanged since, and all of its outputs still exist.
+     *
+     * @param source The source file
+     * @param settings A description of the settings the outputs are produced
+     * with, such as the output widths
+     * @param outputs The output files the source produces
+     * @return Whether the source can be skipped
+     */
+    public boolean isUpToDate(File source, String settings, File... outputs) {
+        Entry entry = entries.get(source.getAbsolutePath());
+        if (entry == null || !entry.settings.equals(settings)
+                || !Arrays.equals(entry.outputs, outputPaths(outputs))) {
+            return false;
+        }
+        for (File output : outputs) {
+            if (!output.exists()) {
+                return false;
+            }
+        }
+        long size = source.length();
+        long modified = source.lastModified();
+        if (entry.size == size && entry.modified == modified) {
+            return true;
+        }
+        if (hashContents && entry.size == size && !NO_HASH.equals(entry.hash)) {
+            // Touched but possibly unchanged, compare the contents
+            try {
+                String hash = HashUtils.hashFile(source);
+                if (hash.equals(entry.hash)) {
+                    append(new Entry(entry.path, size, modified, hash, settings, entry.outputs));
+                    return true;
+                }
+                changed.put(entry.path, new Snapshot(entry.path, size, modified, hash));
+            } catch (IOException ex) {
+                // Fall through and process it again
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Captures the state of a source before it is processed, to record once
+     * it has been. If the source changes while it is processed, the recorded
+     * state is the one its outputs were produced from, so the change is
+     * picked up by the next run.
+     *
+     * @param source The source file
+     * @return The size, modification time and, if hashing contents, hash of
+     * the source
+     * @throws IOException If the source can't be hashed
+     */
+    public Snapshot snapshot(File source) throws IOException {
+        String path = source.getAbsolutePath();
+        long size = source.length();
+        long modified = source.lastModified();
+        if (!hashContents) {
+            return new Snapshot(path, size, modified, NO_HASH);
+        }
+        Snapshot hashed = changed.remove(path);
+        if (hashed != null && hashed.size == size && hashed.modified == modified) {
+            return hashed;
+        }
+        return new Snapshot(path, size, modified, HashUtils.hashFile(source));
+    }
+
+    /**
+     * Records that a source was processed. The entry is written to the
+     * journal before this returns, so it survives a crash of the process,
+     * though only closing the manifest syncs it to disk against a power loss.
+     *
+     * @param source The state of the source before it was processed, from
+     * {@link #snapshot(File)}
+     * @param settings A description of the settings the outputs were produced
+     * with
+     * @param outputs The output files produced
+     * @throws IOException If the manifest can't be written
+     */
+    public void record(Snapshot source, String settings, File... outputs) throws IOException {
+        append(new Entry(source.path, source.size, source.modified, source.hash, settings,
+                outputPaths(outputs)));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        journal.flush();
+        journalStream.getFD().sync();
+        journal.close();
+    }
+
+    private synchronized void append(Entry entry) throws IOException {
+        entries.put(entry.path, entry);
+        journal.write(entry.toLine());
+        journal.write('\n');
+        journal.flush();
+    }
+
+    private void load() throws IOException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Entry entry = Entry.parse(line);
+                if (entry != null) {
+                    entries.put(entry.path, entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the manifest with one line per source, replacing the old file
+     * only once the new one is fully on disk.
+     */
+    private void compact() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        File tmp = new File(parent, file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            for (Entry entry : entries.values()) {
+                writer.write(entry.toLine());
+                writer.write('\n');
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String[] outputPaths(File[] outputs) {
+        String[] paths = new String[outputs.length];
+        for (int i = 0; i < outputs.length; i++) {
+            paths[i] = outputs[i].getAbsolutePath();
+        }
+        return paths;
+    }
+
+    private static String checksum(String content) {
+        CRC32 crc = new CRC32();
+        crc.update(content.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * The state of a source before it was processed.
+     */
+    public static class Snapshot {
+
+        private final String path;
+        private final long size;
+        private final long modified;
+        private final String hash;
+
+        Snapshot(String path, long size, long modified, String hash) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * A single manifest line.
+     */
+    private static class Entry {
+
+        private static final int FIELDS = 7;
+
+        private final String path;
+        private final long size;
+        private final long modified;
+        private final String hash;
+        private final String settings;
+        private final String[] outputs;
+
+        Entry(String path, long size, long modified, String hash, String settings, String[] outputs) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+            this.settings = settings;
+            this.outputs = outputs;
+        }
+
+        String toLine() {
+            String content = path + SEPARATOR + size + SEPARATOR + modified + SEPARATOR + hash
+                    + SEPARATOR + settings + SEPARATOR + String.join(OUTPUT_SEPARATOR, outputs);
+            return content + SEPARATOR + checksum(content);
+        }
+
+        /**
+         * Parses a manifest line.
+         *
+         * @param line The line
+         * @return The entry, or null if the line is incomplete or corrupt
+         */
+        static Entry parse(String line) {
+            int checksumStart = line.lastIndexOf(SEPARATOR);
+            if (checksumStart < 0) {
+                return null;
+            }
+            String content = line.substring(0, checksumStart);
+            if (!checksum(content).equals(line.substring(checksumStart + 1))) {
+                return null;
+            }
+            String[] fields = line.split(SEPARATOR, -1);
+            if (fields.length != FIELDS) {
+                return null;
+            }
+            try {
+                return new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                        fields[3], fields[4], fields[5].split(OUTPUT_SEPARATOR, -1));
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.centumengineering.imagescaler.utils;
+
+/**
+ * An image downloaded into memory, with the validators of the response so
+ * it can later be revalidated with a conditional GET.
+ *
+ * @author Phani Gaddipati
+ */
+public class RemoteImage {
+
+    private final byte[] bytes;
+    private final String etag;
+    private final long lastModified;
+    private final String version;
+
+    /**
+     * @param bytes The downloaded bytes, or null if the server answered that
+     * the image is unchanged
+     * @param etag The ETag of the response, or null
+     * @param lastModified The Last-Modified time of the response, 0 if unknown
+     */
+    RemoteImage(byte[] bytes, String etag, long lastModified) {
+        this(bytes, etag, lastModified, etag != null ? "etag:" + etag
+                : lastModified > 0 ? "modified:" + lastModified
+                : bytes != null ? "sha256:" + HashUtils.hashBytes(bytes) : null);
+    }
+
+    private RemoteImage(byte[] bytes, String etag, long lastModified, String version) {
+        this.bytes = bytes;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.version = version;
+    }
+
+    /**
+     * @return The downloaded bytes, or null if the image is unchanged
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return Whether the image was downloaded, rather than found unchanged
+     */
+    public boolean isModified() {
+        return bytes != null;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return What identifies this version of the image: its ETag, its
+     * modification time, or a hash of its bytes when the server sends
+     * neither. Null if the image is unchanged.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The same image without its bytes, to keep only what is needed
+     * to revalidate it
+     */
+    public RemoteImage getValidators() {
+        return new RemoteImage(null, etag, lastModified, version);
+    }
+}
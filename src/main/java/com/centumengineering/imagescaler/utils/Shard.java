@@ -0,0 +1,76 @@
+package com.centumengineering.imagescaler.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * One of N static partitions of a job's inputs. Every input is assigned to
+ * exactly one shard by a hash of its key, a path relative to the input
+ * directory or a line of the input file, so processes enumerating the same
+ * inputs on different machines agree on the split without talking to each
+ * other.
+ *
+ * @author Phani Gaddipati
+ */
+public class Shard {
+
+    private final int index;
+    private final int count;
+
+    /**
+     * @param index The index of this shard, from 0 to count - 1
+     * @param count The total number of shards
+     */
+    public Shard(int index, int count) {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Shard must be i/N with 0 <= i < N");
+        }
+        this.index = index;
+        this.count = count;
+    }
+
+    /**
+     * Parses a shard given as "i/N", e.g. "0/4" for the first of 4 shards.
+     *
+     * @param spec The shard specification
+     * @return The shard
+     * @throws IllegalArgumentException If the specification is invalid
+     */
+    public static Shard parse(String spec) {
+        int slash = spec.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("Shard must be i/N with 0 <= i < N");
+        }
+        try {
+            return new Shard(Integer.parseInt(spec.substring(0, slash).trim()),
+                    Integer.parseInt(spec.substring(slash + 1).trim()));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Shard must be i/N with 0 <= i < N");
+        }
+    }
+
+    /**
+     * Checks whether the input with the given key belongs to this shard.
+     *
+     * @param key The input's key
+     * @return Whether this shard processes the input
+     */
+    public boolean contains(String key) {
+        CRC32 crc = new CRC32();
+        crc.update(key.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue() % count == index;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+}
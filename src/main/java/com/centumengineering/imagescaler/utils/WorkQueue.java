@@ -0,0 +1,236 @@
+package com.centumengineering.imagescaler.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * A list of inputs shared by several worker processes through a file, from
+ * which each worker claims batches as it becomes free, so faster workers
+ * simply end up processing more. Every access holds an exclusive lock on the
+ * file, so the workers can be separate processes on one machine or share the
+ * file over a file system with working locks.
+ *
+ * The file starts with a fixed length header holding the byte offset of the
+ * first unclaimed input, followed by one input key per line. The first
+ * worker to open an empty file fills it with the inputs, and claiming a batch
+ * reads the lines after the offset and moves it past them. While the file is
+ * being filled its offset is 0, and it is only set once every input is on
+ * disk, so a queue left incomplete by a worker that died while filling it is
+ * never claimed from, and is filled again by the next worker. A claimed batch
+ * isn't returned if its worker dies, so a failed job is finished by running
+ * it again with --incremental.
+ *
+ * A queue must only be used from one thread of a process at a time.
+ *
+ * @author Phani Gaddipati
+ */
+public class WorkQueue implements AutoCloseable {
+
+    private static final String MAGIC = "imagescaler-queue ";
+    /**
+     * The offset in the header while the queue is being filled.
+     */
+    private static final long FILLING = 0;
+    private static final int CURSOR_DIGITS = 19;
+    private static final int HEADER_LENGTH = MAGIC.length() + CURSOR_DIGITS + 1;
+    private static final int READ_SIZE = 64 * 1024;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final boolean created;
+
+    private WorkQueue(File file, RandomAccessFile raf, boolean created) {
+        this.file = file;
+        this.raf = raf;
+        this.channel = raf.getChannel();
+        this.created = created;
+    }
+
+    /**
+     * Opens the queue at the given path. If the file is missing, empty or was
+     * left incomplete, it is filled with the keys from the source while
+     * holding the lock, so other workers wait for the complete list.
+     *
+     * @param file The queue file
+     * @param source Produces every input key of the job
+     * @return The opened queue
+     * @throws IOException If the file can't be read or written, or isn't a
+     * queue
+     * @throws InterruptedException If interrupted while enumerating the keys
+     */
+    public static WorkQueue open(File file, KeySource source) throws IOException, InterruptedException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        boolean created = false;
+        try {
+            FileLock lock = raf.getChannel().lock();
+            try {
+                if (raf.length() == 0 || readCursor(raf.getChannel()) == FILLING) {
+                    // Nothing can have been claimed from an incomplete queue
+                    raf.setLength(0);
+                    fill(raf.getChannel(), source);
+                    created = true;
+                }
+            } finally {
+                lock.release();
+            }
+        } catch (IOException | RuntimeException | InterruptedException ex) {
+            raf.close();
+            throw ex;
+        }
+        return new WorkQueue(file, raf, created);
+    }
+
+    /**
+     * @return Whether this process filled the queue when opening it
+     */
+    public boolean isCreated() {
+        return created;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Claims the next inputs of the queue.
+     *
+     * @param max The most inputs to claim
+     * @return The claimed input keys, empty once the queue is exhausted
+     * @throws IOException If the queue can't be read or written, or is
+     * incomplete
+     */
+    public List<String> claim(int max) throws IOException {
+        List<String> batch = new ArrayList<>();
+        FileLock lock = channel.lock();
+        try {
+            long cursor = readCursor(channel);
+            if (cursor == FILLING) {
+                throw new IOException("The work queue " + file + " is incomplete");
+            }
+            long position = cursor;
+            ByteBuffer buffer = ByteBuffer.allocate(READ_SIZE);
+            byte[] line = new byte[256];
+            int lineLength = 0;
+            while (batch.size() < max) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                buffer.flip();
+                while (buffer.hasRemaining() && batch.size() < max) {
+                    byte b = buffer.get();
+                    position++;
+                    if (b == '\n') {
+                        if (lineLength > 0) {
+                            batch.add(new String(line, 0, lineLength, StandardCharsets.UTF_8));
+                        }
+                        lineLength = 0;
+                    } else {
+                        if (lineLength == line.length) {
+                            byte[] grown = new byte[line.length * 2];
+                            System.arraycopy(line, 0, grown, 0, lineLength);
+                            line = grown;
+                        }
+                        line[lineLength++] = b;
+                    }
+                }
+            }
+            // An unterminated last line is only claimed once complete
+            position -= lineLength;
+            if (position != cursor) {
+                writeCursor(channel, position);
+            }
+        } finally {
+            lock.release();
+        }
+        return batch;
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    private static void fill(FileChannel channel, KeySource source) throws IOException, InterruptedException {
+        writeCursor(channel, FILLING);
+        channel.position(HEADER_LENGTH);
+        // Not closed, which would close the channel
+        Writer out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel),
+                StandardCharsets.UTF_8));
+        try {
+            source.produce(key -> {
+                try {
+                    out.write(key);
+                    out.write('\n');
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        out.flush();
+        // The keys must be on disk before the offset marks them complete
+        channel.force(false);
+        writeCursor(channel, HEADER_LENGTH);
+        channel.force(false);
+    }
+
+    private static long readCursor(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        int read;
+        do {
+            read = channel.read(header, header.position());
+        } while (read > 0 && header.hasRemaining());
+        String text = new String(header.array(), 0, header.position(), StandardCharsets.US_ASCII);
+        if (header.hasRemaining() || !text.startsWith(MAGIC)) {
+            throw new IOException("Not a work queue");
+        }
+        try {
+            return Long.parseLong(text.substring(MAGIC.length(), MAGIC.length() + CURSOR_DIGITS));
+        } catch (NumberFormatException ex) {
+            throw new IOException("Not a work queue");
+        }
+    }
+
+    private static void writeCursor(FileChannel channel, long cursor) throws IOException {
+        String header = MAGIC + String.format(Locale.ROOT, "%0" + CURSOR_DIGITS + "d", cursor) + "\n";
+        ByteBuffer buffer = ByteBuffer.wrap(header.getBytes(StandardCharsets.US_ASCII));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position());
+        }
+    }
+
+    /**
+     * Produces the keys of every input of a job.
+     */
+    @FunctionalInterface
+    public interface KeySource {
+
+        /**
+         * Passes every input key to the consumer.
+         *
+         * @param keys The consumer of the keys
+         * @throws InterruptedException
+         */
+        void produce(Consumer<String> keys) throws InterruptedException;
+    }
+}
@@ -0,0 +1,134 @@
+package com.centumengineering.imagescaler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Whole runs over url inputs served by a stub server on localhost.
+ *
+ * @author Phani Gaddipati
+ */
+public class ImageScalerTest {
+
+    private static final int IMAGES = 6;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private HttpServer server;
+    private String base;
+    private final Map<String, byte[]> images = new ConcurrentHashMap<>();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Before
+    public void startServer() throws IOException {
+        Random random = new Random(42);
+        for (int i = 0; i < IMAGES; i++) {
+            images.put("/img" + i + ".png", noise(random, 300 + 40 * i, 300));
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::serve);
+        server.start();
+        base = "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+                + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        byte[] body = images.get(exchange.getRequestURI().getPath());
+        if (body == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Encodes random pixels, which don't compress, so each image takes a
+     * predictable share of a small download cache.
+     */
+    private static byte[] noise(Random random, int width, int height) throws IOException {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", out);
+        return out.toByteArray();
+    }
+
+    private File writeUrls() throws IOException {
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < IMAGES; i++) {
+            urls.add(base + "/img" + i + ".png");
+        }
+        File list = tmp.newFile("urls.txt");
+        Files.write(list.toPath(), urls, StandardCharsets.UTF_8);
+        return list;
+    }
+
+    @Test
+    public void ordersDownloadsThatOutliveTheCacheBounds() throws Exception {
+        File list = writeUrls();
+        File thumbs = new File(tmp.getRoot(), "thumbs");
+        File full = new File(tmp.getRoot(), "full");
+        File cache = new File(tmp.getRoot(), "net");
+        // Every download is held by the order window, and together they
+        // exceed the 1 MB cache, which must not evict them before they are
+        // scaled
+        new ImageScaler().run(new String[]{
+            "--in-file", list.getPath(), "--online", "--connections", "4",
+            "--net-cache", cache.getPath(), "--net-cache-size", "1",
+            "--order", "size", "--thumb-out", thumbs.getPath(), "--full-out", full.getPath(),
+            "--quiet"});
+
+        assertEquals(IMAGES, requests.get());
+        String[] expected = new String[IMAGES];
+        for (int i = 0; i < IMAGES; i++) {
+            expected[i] = "img" + i + ".png";
+        }
+        assertArrayEquals(expected, sorted(thumbs.list()));
+        assertArrayEquals(expected, sorted(full.list()));
+    }
+
+    private static String[] sorted(String[] names) {
+        Arrays.sort(names);
+        return names;
+    }
+}
@@ -0,0 +1,146 @@
+package com.centumengineering.imagescaler.pack;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Writing a pack, recovering it after a crash tore its index, and reading
+ * it back both ways.
+ *
+ * @author Phani Gaddipati
+ */
+public class PackTest {
+
+    /**
+     * Small enough that every output starts a new segment.
+     */
+    private static final long SEGMENT_SIZE = 16;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] array(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    @Test
+    public void reopensATornIndexAndAppends() throws Exception {
+        File dir = tmp.newFolder("pack");
+        File index = PackWriter.getIndexFile(dir);
+        long firstRecord;
+        try (PackWriter writer = new PackWriter(dir, SEGMENT_SIZE)) {
+            writer.append("a.jpg", "jpg", 4, 3, bytes("aaaaaaaaaa"));
+            writer.flush();
+            firstRecord = index.length();
+            writer.append("b.jpg", "jpg", 4, 3, bytes("bbbbbbbbbb"));
+        }
+        // A crash cut the record of b.jpg short
+        truncate(index, index.length() - 3);
+
+        try (PackWriter writer = new PackWriter(dir, SEGMENT_SIZE)) {
+            assertTrue(writer.contains("a.jpg"));
+            assertFalse(writer.contains("b.jpg"));
+            assertEquals(firstRecord, index.length());
+            writer.append("c.png", "png", 2, 2, bytes("cccccccc"));
+            PackEntry alias = writer.alias("d.jpg", "a.jpg");
+            assertEquals(0, alias.getSegment());
+            assertEquals(0, alias.getOffset());
+            assertNull(writer.alias("e.jpg", "b.jpg"));
+        }
+
+        try (PackReader reader = new PackReader(dir)) {
+            assertEquals(3, reader.size());
+            assertNull(reader.read("b.jpg"));
+            assertNull(reader.map("b.jpg"));
+            assertArrayEquals(bytes("aaaaaaaaaa"), reader.read("a.jpg"));
+            assertArrayEquals(bytes("aaaaaaaaaa"), reader.read("d.jpg"));
+            assertArrayEquals(bytes("cccccccc"), reader.read("c.png"));
+            assertArrayEquals(bytes("aaaaaaaaaa"), array(reader.map("d.jpg")));
+            assertArrayEquals(bytes("cccccccc"), array(reader.map("c.png")));
+            assertEquals("png", reader.get("c.png").getFormat());
+            assertEquals(2, reader.get("c.png").getWidth());
+        }
+    }
+
+    @Test
+    public void laterEntriesReplaceEarlierOnes() throws Exception {
+        File dir = tmp.newFolder("pack");
+        try (PackWriter writer = new PackWriter(dir)) {
+            writer.append("a.jpg", "jpg", 1, 1, bytes("old"));
+            writer.append("a.jpg", "jpg", 1, 1, bytes("new"));
+        }
+        try (PackReader reader = new PackReader(dir)) {
+            assertEquals(1, reader.size());
+            assertArrayEquals(bytes("new"), reader.read("a.jpg"));
+            assertArrayEquals(bytes("new"), array(reader.map("a.jpg")));
+        }
+    }
+
+    @Test
+    public void mapsOnlyTheBytesOfTheEntry() throws Exception {
+        File dir = tmp.newFolder("pack");
+        try (PackWriter writer = new PackWriter(dir)) {
+            writer.append("a.jpg", "jpg", 1, 1, bytes("first"));
+            writer.append("b.jpg", "jpg", 1, 1, bytes("second"));
+            writer.append("c.jpg", "jpg", 1, 1, bytes("third"));
+        }
+        try (PackReader reader = new PackReader(dir)) {
+            ByteBuffer b = reader.map("b.jpg");
+            assertEquals(0, b.position());
+            assertEquals(6, b.remaining());
+            assertEquals(6, b.capacity());
+            assertTrue(b.isReadOnly());
+            assertArrayEquals(bytes("second"), array(b));
+        }
+    }
+
+    @Test
+    public void truncatedSegmentsFailToRead() throws Exception {
+        File dir = tmp.newFolder("pack");
+        try (PackWriter writer = new PackWriter(dir)) {
+            writer.append("a.jpg", "jpg", 1, 1, bytes("first"));
+            writer.append("b.jpg", "jpg", 1, 1, bytes("second"));
+        }
+        truncate(PackWriter.getSegmentFile(dir, 0), 8);
+        try (PackReader reader = new PackReader(dir)) {
+            assertArrayEquals(bytes("first"), array(reader.map("a.jpg")));
+            try {
+                reader.map("b.jpg");
+                fail("Mapped past the end of the segment");
+            } catch (IOException ex) {
+                // Expected
+            }
+            try {
+                reader.read("b.jpg");
+                fail("Read past the end of the segment");
+            } catch (IOException ex) {
+                // Expected
+            }
+        }
+    }
+}
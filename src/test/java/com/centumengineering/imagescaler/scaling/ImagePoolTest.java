@@ -0,0 +1,83 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CountDownLatch;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Pooling across threads: the capacity is shared by every thread, and the
+ * images of threads that exit are dropped.
+ *
+ * @author Phani Gaddipati
+ */
+public class ImagePoolTest {
+
+    private static final int SIZE = 100;
+    /**
+     * The bytes of a SIZE x SIZE int image.
+     */
+    private static final long IMAGE_BYTES = 4L * SIZE * SIZE;
+
+    @Before
+    public void enable() {
+        // Room for two images but not three
+        ImagePool.setCapacity(5 * IMAGE_BYTES / 2);
+    }
+
+    @After
+    public void disable() {
+        ImagePool.clear();
+        ImagePool.setCapacity(0);
+    }
+
+    private static BufferedImage image(int width) {
+        return new BufferedImage(width, SIZE, BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Test
+    public void exitedThreadsGiveBackTheirBytes() throws Exception {
+        Thread worker = new Thread(() -> ImagePool.release(image(SIZE)));
+        worker.start();
+        worker.join();
+        assertEquals(0, ImagePool.getPooledBytes());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedImageOfAnyThread() throws Exception {
+        CountDownLatch released = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread idle = new Thread(() -> {
+            ImagePool.release(image(SIZE - 1));
+            released.countDown();
+            try {
+                done.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        idle.start();
+        try {
+            released.await();
+            BufferedImage a = image(SIZE);
+            BufferedImage b = image(SIZE + 1);
+            ImagePool.release(a);
+            ImagePool.release(b);
+
+            // The idle thread's image was the least recently used
+            assertEquals(IMAGE_BYTES + 4L * (SIZE + 1) * SIZE, ImagePool.getPooledBytes());
+            assertSame(a, ImagePool.get(SIZE, SIZE, BufferedImage.TYPE_INT_RGB));
+            assertSame(b, ImagePool.get(SIZE + 1, SIZE, BufferedImage.TYPE_INT_RGB));
+            assertNotSame(a, ImagePool.get(SIZE, SIZE, BufferedImage.TYPE_INT_RGB));
+        } finally {
+            done.countDown();
+            idle.join();
+        }
+        assertEquals(0, ImagePool.getPooledBytes());
+    }
+}
@@ -0,0 +1,79 @@
+package com.centumengineering.imagescaler.scaling;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Ordering sources, including when they are added from several threads.
+ *
+ * @author Phani Gaddipati
+ */
+public class LargestFirstQueueTest {
+
+    private static ImageSource source(String path, int length) {
+        return ImageSource.of(ByteBuffer.allocate(length), path, path);
+    }
+
+    @Test
+    public void passesOnTheLargestHeldFirst() {
+        List<String> order = new ArrayList<>();
+        LargestFirstQueue queue = new LargestFirstQueue(LargestFirstQueue.Estimate.SIZE, 2,
+                s -> order.add(s.getPath()));
+        queue.add(source("a", 1));
+        queue.add(source("b", 3));
+        queue.add(source("c", 2));
+        queue.add(source("d", 5));
+        queue.flush();
+        assertEquals(Arrays.asList("b", "d", "c", "a"), order);
+    }
+
+    @Test
+    public void concurrentAddsPassOnEverySourceOnce() throws Exception {
+        int threads = 8;
+        int perThread = 500;
+        Set<String> passed = ConcurrentHashMap.newKeySet();
+        AtomicInteger count = new AtomicInteger();
+        LargestFirstQueue queue = new LargestFirstQueue(LargestFirstQueue.Estimate.SIZE, 50, s -> {
+            passed.add(s.getPath());
+            count.incrementAndGet();
+        });
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> adders = new ArrayList<>();
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < threads; t++) {
+            int first = t * perThread;
+            Thread adder = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = first; i < first + perThread; i++) {
+                        queue.add(source("s" + i, i % 97));
+                    }
+                } catch (Throwable ex) {
+                    failures.add(ex);
+                }
+            });
+            adder.start();
+            adders.add(adder);
+        }
+        start.countDown();
+        for (Thread adder : adders) {
+            adder.join();
+        }
+        queue.flush();
+
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(threads * perThread, count.get());
+        assertEquals(threads * perThread, passed.size());
+    }
+}
@@ -0,0 +1,265 @@
+package com.centumengineering.imagescaler.server;
+
+import com.centumengineering.imagescaler.metrics.RunMetrics;
+import com.centumengineering.imagescaler.scaling.ScaleOptions;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Requests against a server on a free localhost port, with url sources
+ * served by a stub server.
+ *
+ * @author Phani Gaddipati
+ */
+public class ResizeServerTest {
+
+    private static final long LARGE_CACHE = 64L * 1024L * 1024L;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File root;
+    private ResizeServer server;
+    private HttpServer origin;
+    private volatile byte[] originImage;
+    private volatile String originEtag;
+    private volatile CountDownLatch originGate;
+    private final CountDownLatch originRequested = new CountDownLatch(1);
+    private final AtomicInteger originDownloads = new AtomicInteger();
+    private final AtomicInteger originRevalidations = new AtomicInteger();
+
+    @Before
+    public void createSources() throws IOException {
+        root = tmp.newFolder("root");
+        for (String name : new String[]{"a", "b", "c", "d"}) {
+            ImageIO.write(image(Color.BLUE), "png", new File(root, name + ".png"));
+        }
+        originImage = encode(image(Color.RED));
+        originEtag = "\"red\"";
+        origin = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        origin.createContext("/", this::serveOrigin);
+        origin.start();
+    }
+
+    @After
+    public void stop() {
+        if (server != null) {
+            server.close();
+        }
+        origin.stop(0);
+    }
+
+    private void serveOrigin(HttpExchange exchange) throws IOException {
+        originRequested.countDown();
+        try {
+            CountDownLatch gate = originGate;
+            if (gate != null) {
+                gate.await(10, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        String etag = originEtag;
+        exchange.getResponseHeaders().set("ETag", etag);
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            originRevalidations.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        originDownloads.incrementAndGet();
+        byte[] bytes = originImage;
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static BufferedImage image(Color color) {
+        BufferedImage img = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(color);
+        g.fillRect(0, 0, img.getWidth(), img.getHeight());
+        g.setColor(Color.WHITE);
+        g.fillOval(100, 50, 200, 200);
+        g.dispose();
+        return img;
+    }
+
+    private static byte[] encode(BufferedImage img) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", out);
+        return out.toByteArray();
+    }
+
+    private void start(long cacheBytes) throws IOException {
+        if (server != null) {
+            server.close();
+        }
+        server = new ResizeServer(0, root, new ScaleOptions(), 2, 4, cacheBytes, 5000, new RunMetrics());
+        server.start();
+    }
+
+    private String originUrl() {
+        return "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+                + origin.getAddress().getPort() + "/images/photo.png";
+    }
+
+    private Response get(String query) throws IOException {
+        URL url = new URL("http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+                + server.getPort() + query);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        int status = connection.getResponseCode();
+        InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        try (InputStream in = body) {
+            return new Response(status, connection.getHeaderField("X-Cache"),
+                    in != null ? IOUtils.toByteArray(in) : new byte[0]);
+        }
+    }
+
+    private Response resize(String src, int width) throws IOException {
+        return get("/resize?src=" + URLEncoder.encode(src, "UTF-8") + "&width=" + width + "&format=png");
+    }
+
+    @Test
+    public void missThenHit() throws Exception {
+        start(LARGE_CACHE);
+        Response first = resize("a.png", 100);
+        assertEquals(200, first.status);
+        assertEquals("MISS", first.cache);
+        BufferedImage img = ImageIO.read(new ByteArrayInputStream(first.body));
+        assertEquals(100, img.getWidth());
+        assertEquals(75, img.getHeight());
+
+        Response second = resize("a.png", 100);
+        assertEquals("HIT", second.cache);
+        assertArrayEquals(first.body, second.body);
+        assertEquals("MISS", resize("a.png", 120).cache);
+    }
+
+    @Test
+    public void concurrentRequestsShareARender() throws Exception {
+        start(LARGE_CACHE);
+        originGate = new CountDownLatch(1);
+        CompletableFuture<Response> first = CompletableFuture.supplyAsync(() -> uncheckedResize(originUrl()));
+        // The first request is rendering once it reaches the origin
+        assertTrue(originRequested.await(10, TimeUnit.SECONDS));
+        CompletableFuture<Response> second = CompletableFuture.supplyAsync(() -> uncheckedResize(originUrl()));
+        awaitStat("\"sharedRenders\": 1,");
+        originGate.countDown();
+
+        assertEquals("MISS", first.get(10, TimeUnit.SECONDS).cache);
+        assertEquals("SHARED", second.get(10, TimeUnit.SECONDS).cache);
+        assertArrayEquals(first.get().body, second.get().body);
+        assertEquals(1, originDownloads.get());
+    }
+
+    @Test
+    public void changedUrlsAreRenderedAgain() throws Exception {
+        start(LARGE_CACHE);
+        Response red = resize(originUrl(), 100);
+        assertEquals("MISS", red.cache);
+        assertEquals("HIT", resize(originUrl(), 100).cache);
+        assertEquals(1, originRevalidations.get());
+        assertEquals(1, originDownloads.get());
+
+        originImage = encode(image(Color.GREEN));
+        originEtag = "\"green\"";
+        Response green = resize(originUrl(), 100);
+        assertEquals("MISS", green.cache);
+        assertFalse(Arrays.equals(red.body, green.body));
+        assertEquals("HIT", resize(originUrl(), 100).cache);
+        assertEquals(2, originDownloads.get());
+    }
+
+    @Test
+    public void badRequests() throws Exception {
+        start(LARGE_CACHE);
+        assertEquals(400, get("/resize?width=100").status);
+        assertEquals(400, get("/resize?src=a.png").status);
+        assertEquals(400, get("/resize?src=a.png&width=0").status);
+        assertEquals(400, get("/resize?src=a.png&width=abc").status);
+        assertEquals(400, get("/resize?src=a.png&width=" + (ResizeServer.MAX_DIMENSION + 1)).status);
+        assertEquals(400, get("/resize?src=..%2F..%2Fetc%2Fpasswd&width=100").status);
+        assertEquals(404, get("/resize?src=missing.png&width=100").status);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        start(LARGE_CACHE);
+        int size = resize("a.png", 100).body.length;
+        // Room for two of the identical outputs but not three
+        start(2L * size + size / 2);
+        assertEquals("MISS", resize("a.png", 100).cache);
+        assertEquals("MISS", resize("b.png", 100).cache);
+        assertEquals("HIT", resize("a.png", 100).cache);
+        assertEquals("MISS", resize("c.png", 100).cache);
+
+        // b was the least recently used
+        assertEquals(1, server.getCache().getEvictions());
+        assertEquals("HIT", resize("a.png", 100).cache);
+        assertEquals("HIT", resize("c.png", 100).cache);
+        assertEquals("MISS", resize("b.png", 100).cache);
+        assertTrue(server.getCache().getSize() <= server.getCache().getCapacity());
+    }
+
+    private Response uncheckedResize(String src) {
+        try {
+            return resize(src, 100);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private void awaitStat(String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!new String(get("/stats").body, "UTF-8").contains(expected)) {
+            assertTrue("Timed out waiting for " + expected, System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static class Response {
+
+        private final int status;
+        private final String cache;
+        private final byte[] body;
+
+        Response(int status, String cache, byte[] body) {
+            this.status = status;
+            this.cache = cache;
+            this.body = body;
+        }
+    }
+}
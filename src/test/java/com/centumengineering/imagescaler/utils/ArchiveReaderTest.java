@@ -0,0 +1,234 @@
+package com.centumengineering.imagescaler.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Listing and reading small archives generated by the test. The TAR headers
+ * are written by hand to cover the GNU and POSIX extensions.
+ *
+ * @author Phani Gaddipati
+ */
+public class ArchiveReaderTest {
+
+    private static final int BLOCK_SIZE = 512;
+
+    /**
+     * Longer than the 100 bytes of the name field.
+     */
+    private static final String LONG_NAME = repeat("long/", 30) + "gnu.jpg";
+    private static final String PAX_NAME = repeat("pax/", 30) + "posix.png";
+    /**
+     * The files written by {@link #writeTar(OutputStream)}, in order.
+     */
+    private static final List<String> TAR_NAMES = Arrays.asList("plain.jpg", "some/dir/prefixed.jpg",
+            LONG_NAME, PAX_NAME, "huge.jpg");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static String repeat(String text, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a TAR header block.
+     *
+     * @param name The name field, cut to its 100 bytes
+     * @param prefix The ustar prefix field
+     * @param type The entry type
+     * @param size The entry size
+     * @param base256 Whether to write the size in GNU base 256
+     */
+    private static void header(OutputStream out, String name, String prefix, char type, long size,
+            boolean base256) throws IOException {
+        byte[] header = new byte[BLOCK_SIZE];
+        put(header, 0, 100, name);
+        put(header, 100, 8, "0000644");
+        put(header, 108, 8, "0000000");
+        put(header, 116, 8, "0000000");
+        if (base256) {
+            header[124] = (byte) 0x80;
+            for (int i = 135; i > 124; i--, size >>>= 8) {
+                header[i] = (byte) size;
+            }
+        } else {
+            put(header, 124, 12, String.format(Locale.ROOT, "%011o", size));
+        }
+        put(header, 136, 12, "00000000000");
+        header[156] = (byte) type;
+        put(header, 257, 6, "ustar");
+        put(header, 263, 2, "00");
+        put(header, 345, 155, prefix);
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        int checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        put(header, 148, 8, String.format(Locale.ROOT, "%06o", checksum));
+        out.write(header);
+    }
+
+    private static void put(byte[] header, int offset, int length, String value) {
+        byte[] bytes = bytes(value);
+        System.arraycopy(bytes, 0, header, offset, Math.min(length, bytes.length));
+    }
+
+    /**
+     * Writes the contents of an entry, padded to a whole block.
+     */
+    private static void body(OutputStream out, byte[] bytes) throws IOException {
+        out.write(bytes);
+        out.write(new byte[(BLOCK_SIZE - bytes.length % BLOCK_SIZE) % BLOCK_SIZE]);
+    }
+
+    private static void file(OutputStream out, String name, String prefix, byte[] bytes, boolean base256)
+            throws IOException {
+        header(out, name, prefix, '0', bytes.length, base256);
+        body(out, bytes);
+    }
+
+    /**
+     * A PAX record, whose length counts its own digits.
+     */
+    private static String paxRecord(String key, String value) {
+        String record = " " + key + "=" + value + "\n";
+        int length = record.length() + 1;
+        while (Integer.toString(length).length() + record.length() != length) {
+            length++;
+        }
+        return length + record;
+    }
+
+    /**
+     * Writes a TAR with a plain entry, one named by its ustar prefix, a
+     * directory, a GNU long name, a PAX path and a size in base 256.
+     */
+    private static void writeTar(OutputStream out) throws IOException {
+        file(out, "plain.jpg", "", bytes("plain"), false);
+        file(out, "prefixed.jpg", "some/dir", bytes("prefixed"), false);
+        header(out, "some/dir/", "", '5', 0, false);
+
+        byte[] longName = bytes(LONG_NAME + "\0");
+        header(out, "././@LongLink", "", 'L', longName.length, false);
+        body(out, longName);
+        file(out, LONG_NAME.substring(0, 100), "", bytes("gnu"), false);
+
+        byte[] pax = bytes(paxRecord("mtime", "1500000000") + paxRecord("path", PAX_NAME));
+        header(out, "PaxHeader/posix.png", "", 'x', pax.length, false);
+        body(out, pax);
+        file(out, "posix.png", "", bytes("posix"), false);
+
+        file(out, "huge.jpg", "", bytes("base 256"), true);
+        // The end of archive marker
+        out.write(new byte[2 * BLOCK_SIZE]);
+    }
+
+    private static List<String> list(File archive) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (ArchiveReader reader = new ArchiveReader(archive)) {
+            reader.listEntries(names::add);
+        }
+        return names;
+    }
+
+    private static Map<String, String> readAll(File archive) throws IOException {
+        Map<String, String> contents = new LinkedHashMap<>();
+        try (ArchiveReader reader = new ArchiveReader(archive)) {
+            reader.forEach(name -> true,
+                    (name, bytes) -> contents.put(name, new String(bytes, StandardCharsets.UTF_8)));
+        }
+        return contents;
+    }
+
+    @Test
+    public void listsTarEntries() throws Exception {
+        File tar = tmp.newFile("images.tar");
+        try (OutputStream out = new FileOutputStream(tar)) {
+            writeTar(out);
+        }
+        assertEquals(TAR_NAMES, list(tar));
+
+        Map<String, String> contents = readAll(tar);
+        assertEquals(TAR_NAMES, new ArrayList<>(contents.keySet()));
+        assertEquals("prefixed", contents.get("some/dir/prefixed.jpg"));
+        assertEquals("gnu", contents.get(LONG_NAME));
+        assertEquals("posix", contents.get(PAX_NAME));
+        assertEquals("base 256", contents.get("huge.jpg"));
+    }
+
+    @Test
+    public void readsGzippedTarEntries() throws Exception {
+        File tgz = tmp.newFile("images.tgz");
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(tgz))) {
+            writeTar(out);
+        }
+        assertEquals(TAR_NAMES, list(tgz));
+        assertEquals("plain", readAll(tgz).get("plain.jpg"));
+    }
+
+    @Test
+    public void skipsEntriesThatArentAccepted() throws Exception {
+        File tar = tmp.newFile("images.tar");
+        try (OutputStream out = new FileOutputStream(tar)) {
+            writeTar(out);
+        }
+        Map<String, String> contents = new LinkedHashMap<>();
+        try (ArchiveReader reader = new ArchiveReader(tar)) {
+            reader.forEach(name -> name.endsWith(".png"),
+                    (name, bytes) -> contents.put(name, new String(bytes, StandardCharsets.UTF_8)));
+        }
+        assertEquals(1, contents.size());
+        assertEquals("posix", contents.get(PAX_NAME));
+    }
+
+    @Test
+    public void listsAndReadsZipEntries() throws Exception {
+        File zip = tmp.newFile("images.zip");
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(buffer)) {
+            out.putNextEntry(new ZipEntry("a.jpg"));
+            out.write(bytes("a"));
+            out.putNextEntry(new ZipEntry("dir/"));
+            out.putNextEntry(new ZipEntry("dir/b.png"));
+            out.write(bytes("b"));
+        }
+        Files.write(zip.toPath(), buffer.toByteArray());
+
+        assertEquals(Arrays.asList("a.jpg", "dir/b.png"), list(zip));
+        try (ArchiveReader reader = new ArchiveReader(zip)) {
+            assertArrayEquals(bytes("b"), reader.read("dir/b.png"));
+            assertNull(reader.read("dir/"));
+            assertNull(reader.read("c.jpg"));
+        }
+    }
+}
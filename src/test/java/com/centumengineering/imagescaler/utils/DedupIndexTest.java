@@ -0,0 +1,71 @@
+package com.centumengineering.imagescaler.utils;
+
+import java.io.File;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Entries of sources whose content changed between runs.
+ *
+ * @author Phani Gaddipati
+ */
+public class DedupIndexTest {
+
+    private static final String SETTINGS = "settings";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void changedSourcesDropTheirOldContent() throws Exception {
+        File file = new File(tmp.getRoot(), "dedup.index");
+        try (DedupIndex index = new DedupIndex(file)) {
+            index.put("x", SETTINGS, "a.jpg", 1);
+        }
+        try (DedupIndex index = new DedupIndex(file)) {
+            assertEquals("a.jpg", index.get("x").getName());
+            // a.jpg changed to y and is scaled again
+            index.invalidate("a.jpg");
+            index.put("y", SETTINGS, "a.jpg", 1);
+            assertNull(index.get("x"));
+        }
+        try (DedupIndex index = new DedupIndex(file)) {
+            assertNull(index.get("x"));
+            assertEquals("a.jpg", index.get("y").getName());
+            assertEquals(1, index.size());
+        }
+    }
+
+    @Test
+    public void interruptedRescalesDropTheEntry() throws Exception {
+        File file = new File(tmp.getRoot(), "dedup.index");
+        try (DedupIndex index = new DedupIndex(file)) {
+            index.put("x", SETTINGS, "a.jpg", 1);
+            // The process dies while overwriting the outputs of a.jpg
+            index.invalidate("a.jpg");
+        }
+        try (DedupIndex index = new DedupIndex(file)) {
+            assertNull(index.get("x"));
+        }
+    }
+
+    @Test
+    public void contentScaledUnderAnotherNameIsKept() throws Exception {
+        File file = new File(tmp.getRoot(), "dedup.index");
+        try (DedupIndex index = new DedupIndex(file)) {
+            index.put("x", SETTINGS, "a.jpg", 1);
+            index.put("x", SETTINGS, "b.jpg", 1);
+            index.invalidate("a.jpg");
+            index.put("y", SETTINGS, "a.jpg", 1);
+            assertEquals("b.jpg", index.get("x").getName());
+        }
+        try (DedupIndex index = new DedupIndex(file)) {
+            assertEquals("b.jpg", index.get("x").getName());
+            assertEquals("a.jpg", index.get("y").getName());
+        }
+    }
+}
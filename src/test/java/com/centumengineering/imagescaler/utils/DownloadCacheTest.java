@@ -0,0 +1,251 @@
+package com.centumengineering.imagescaler.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FilenameUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Revalidation and eviction against a stub server on localhost.
+ *
+ * @author Phani Gaddipati
+ */
+public class DownloadCacheTest {
+
+    /**
+     * A Last-Modified time on a whole second, as HTTP dates have no
+     * milliseconds.
+     */
+    private static final long MODIFIED = 1500000000000L;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private HttpServer server;
+    private String base;
+    private final Map<String, Resource> resources = new ConcurrentHashMap<>();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private volatile String lastIfNoneMatch;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::serve);
+        server.start();
+        base = "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+                + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    /**
+     * Answers with the resource at the path, honoring If-None-Match for
+     * resources with an ETag and If-Modified-Since for the others.
+     */
+    private void serve(HttpExchange exchange) throws IOException {
+        Resource resource = resources.get(exchange.getRequestURI().getPath());
+        if (resource == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+        lastIfNoneMatch = ifNoneMatch;
+        boolean unchanged;
+        if (resource.etag != null) {
+            exchange.getResponseHeaders().set("ETag", resource.etag);
+            unchanged = resource.etag.equals(ifNoneMatch);
+        } else {
+            exchange.getResponseHeaders().set("Last-Modified", httpDate(resource.lastModified));
+            unchanged = httpDate(resource.lastModified).equals(ifModifiedSince);
+        }
+        if (unchanged) {
+            notModified.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(200, resource.body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(resource.body);
+        }
+    }
+
+    private static String httpDate(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(millis));
+    }
+
+    private String serve(String path, String body, String etag, long lastModified) {
+        resources.put(path, new Resource(body.getBytes(StandardCharsets.UTF_8), etag, lastModified));
+        return base + path;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void revalidatesWithTheEtag() throws Exception {
+        String url = serve("/a.jpg", "a", "\"a1\"", 0);
+        try (DownloadCache cache = new DownloadCache(tmp.newFolder("net"), 0, 0, 0)) {
+            File first = cache.get(url);
+            long modified = first.lastModified();
+            File second = cache.get(url);
+            assertEquals(first, second);
+            assertEquals("a", read(second));
+            assertEquals("\"a1\"", lastIfNoneMatch);
+            assertEquals(1, notModified.get());
+            assertEquals(1, cache.getDownloaded());
+            assertEquals(1, cache.getRevalidated());
+            // A revalidation doesn't touch the file, which the manifest keys on
+            assertEquals(modified, second.lastModified());
+        }
+    }
+
+    @Test
+    public void revalidatesWithTheModificationTime() throws Exception {
+        String url = serve("/b.jpg", "b", null, MODIFIED);
+        try (DownloadCache cache = new DownloadCache(tmp.newFolder("net"), 0, 0, 0)) {
+            cache.get(url);
+            assertEquals("b", read(cache.get(url)));
+            assertNull(lastIfNoneMatch);
+            assertEquals(1, notModified.get());
+            assertEquals(1, cache.getDownloaded());
+            assertEquals(1, cache.getRevalidated());
+        }
+    }
+
+    @Test
+    public void downloadsChangedFilesAgain() throws Exception {
+        String url = serve("/c.jpg", "old", "\"c1\"", 0);
+        try (DownloadCache cache = new DownloadCache(tmp.newFolder("net"), 0, 0, 0)) {
+            assertEquals("old", read(cache.get(url)));
+            serve("/c.jpg", "new content", "\"c2\"", 0);
+            assertEquals("new content", read(cache.get(url)));
+            assertEquals(2, cache.getDownloaded());
+            assertEquals(0, cache.getRevalidated());
+            assertEquals("new content", read(cache.get(url)));
+            assertEquals(1, cache.getRevalidated());
+        }
+    }
+
+    @Test
+    public void downloadsAgainWhenTheFileDoesntMatchItsMetadata() throws Exception {
+        String url = serve("/d.jpg", "complete", "\"d1\"", 0);
+        try (DownloadCache cache = new DownloadCache(tmp.newFolder("net"), 0, 0, 0)) {
+            File data = cache.get(url);
+            // A crash left a file of another length than its metadata says
+            try (RandomAccessFile raf = new RandomAccessFile(data, "rw")) {
+                raf.setLength(3);
+            }
+            assertEquals("complete", read(cache.get(url)));
+            // The damaged copy wasn't revalidated
+            assertNull(lastIfNoneMatch);
+            assertEquals(2, cache.getDownloaded());
+            assertEquals(0, cache.getRevalidated());
+        }
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedOverTheSize() throws Exception {
+        File dir = tmp.newFolder("net");
+        String a = serve("/a.jpg", "aaaa", "\"a\"", 0);
+        String b = serve("/b.jpg", "bbbb", "\"b\"", 0);
+        String c = serve("/c.jpg", "cccc", "\"c\"", 0);
+        File fileA;
+        File fileB;
+        File fileC;
+        try (DownloadCache cache = new DownloadCache(dir, 10, 0, 0)) {
+            fileA = cache.get(a);
+            fileB = cache.get(b);
+            fileC = cache.get(c);
+            age(fileA, 3);
+            age(fileB, 2);
+            age(fileC, 1);
+            // Using a makes b the least recently used
+            cache.get(a);
+        }
+        assertTrue(fileA.isFile());
+        assertFalse(fileB.isFile());
+        assertTrue(fileC.isFile());
+    }
+
+    @Test
+    public void evictsFilesUnusedForTheAge() throws Exception {
+        File dir = tmp.newFolder("net");
+        String a = serve("/a.jpg", "a", "\"a\"", 0);
+        String b = serve("/b.jpg", "b", "\"b\"", 0);
+        File fileA;
+        File fileB;
+        try (DownloadCache cache = new DownloadCache(dir, 0, 0, 0)) {
+            fileA = cache.get(a);
+            fileB = cache.get(b);
+        }
+        age(fileA, 3);
+        try (DownloadCache cache = new DownloadCache(dir, 0, TimeUnit.DAYS.toMillis(2), 0)) {
+            assertEquals(1, cache.getEvicted());
+            assertFalse(fileA.isFile());
+            assertTrue(fileB.isFile());
+            assertArrayEquals("a".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(cache.get(a).toPath()));
+        }
+    }
+
+    /**
+     * Moves the last use of a cached file, and its metadata, the given
+     * number of days back.
+     */
+    private static void age(File data, int days) {
+        long time = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days);
+        String key = FilenameUtils.getBaseName(data.getName());
+        for (File sibling : data.getParentFile().listFiles()) {
+            if (FilenameUtils.getBaseName(sibling.getName()).equals(key)) {
+                sibling.setLastModified(time);
+            }
+        }
+    }
+
+    private static class Resource {
+
+        private final byte[] body;
+        private final String etag;
+        private final long lastModified;
+
+        Resource(byte[] body, String etag, long lastModified) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+}
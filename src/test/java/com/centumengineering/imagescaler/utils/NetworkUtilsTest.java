@@ -0,0 +1,140 @@
+package com.centumengineering.imagescaler.utils;
+
+import com.centumengineering.imagescaler.scaling.ImageSource;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Downloads from a stub server on localhost.
+ *
+ * @author Phani Gaddipati
+ */
+public class NetworkUtilsTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final int TIMEOUT_MILLIS = 1000;
+
+    private HttpServer server;
+    private String base;
+    private final AtomicBoolean truncate = new AtomicBoolean();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::serve);
+        server.start();
+        base = "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+                + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    /**
+     * Answers with the path as the body, or stalls after half of it while
+     * truncating.
+     */
+    private void serve(HttpExchange exchange) throws IOException {
+        byte[] body = exchange.getRequestURI().getPath().getBytes(StandardCharsets.UTF_8);
+        if (exchange.getRequestURI().getPath().contains("missing")) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body, 0, truncate.get() ? body.length / 2 : body.length);
+        } catch (IOException ex) {
+            // Closed short of the Content-Length
+        }
+    }
+
+    private Map<String, ImageSource> download(DownloadCache cache, String... paths) throws InterruptedException {
+        Map<String, ImageSource> downloaded = new ConcurrentHashMap<>();
+        NetworkUtils.downloadFilesByURLs(Stream.of(paths), cache, 4,
+                source -> downloaded.put(source.getPath(), source));
+        return downloaded;
+    }
+
+    @Test
+    public void urlsWithTheSameFileNameDontCollide() throws Exception {
+        String[] urls = new String[8];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = base + "/dir" + i + "/photo.jpg";
+        }
+        try (DownloadCache cache = new DownloadCache(tmp.newFolder("net"), 0, 0, 0)) {
+            Map<String, ImageSource> downloaded = download(cache, urls);
+            assertEquals(urls.length, downloaded.size());
+            for (int i = 0; i < urls.length; i++) {
+                ImageSource source = downloaded.get(urls[i]);
+                assertEquals("photo.jpg", source.getName());
+                assertArrayEquals(("/dir" + i + "/photo.jpg").getBytes(StandardCharsets.UTF_8),
+                        Files.readAllBytes(source.getFile().toPath()));
+            }
+            assertNotEquals(downloaded.get(urls[0]).getFile(), downloaded.get(urls[1]).getFile());
+        }
+    }
+
+    @Test
+    public void failedDownloadsLeaveNothingBehind() throws Exception {
+        File dir = tmp.newFolder("net");
+        String url = base + "/a/photo.jpg";
+        try (DownloadCache cache = new DownloadCache(dir, 0, 0, TIMEOUT_MILLIS)) {
+            truncate.set(true);
+            assertTrue(download(cache, url, base + "/missing.jpg").isEmpty());
+            assertEquals(0, cache.getDownloaded());
+            assertEquals(0, listFiles(dir).length);
+
+            // The next run downloads the file rather than skipping it
+            truncate.set(false);
+            Map<String, ImageSource> downloaded = download(cache, url);
+            assertArrayEquals("/a/photo.jpg".getBytes(StandardCharsets.UTF_8),
+                    Files.readAllBytes(downloaded.get(url).getFile().toPath()));
+            assertEquals(1, cache.getDownloaded());
+        }
+    }
+
+    @Test
+    public void downloadsIntoMemory() throws Exception {
+        Map<String, ImageSource> downloaded = new ConcurrentHashMap<>();
+        NetworkUtils.downloadFilesToMemory(Stream.of(base + "/b/photo.jpg", base + "/missing.jpg"), 2, 0,
+                source -> downloaded.put(source.getPath(), source));
+        assertEquals(1, downloaded.size());
+        ImageSource source = downloaded.get(base + "/b/photo.jpg");
+        assertNull(source.getFile());
+        assertEquals("photo.jpg", source.getName());
+    }
+
+    private static File[] listFiles(File dir) {
+        return Arrays.stream(dir.listFiles())
+                .flatMap(child -> child.isDirectory() ? Arrays.stream(listFiles(child)) : Stream.of(child))
+                .toArray(File[]::new);
+    }
+}
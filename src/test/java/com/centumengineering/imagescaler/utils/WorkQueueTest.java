@@ -0,0 +1,138 @@
+package com.centumengineering.imagescaler.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Claims from queues shared by worker processes, and queues left incomplete.
+ *
+ * @author Phani Gaddipati
+ */
+public class WorkQueueTest {
+
+    private static final int KEYS = 5000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static WorkQueue.KeySource keys(int count) {
+        return consumer -> {
+            for (int i = 0; i < count; i++) {
+                consumer.accept("key-" + i);
+            }
+        };
+    }
+
+    private static List<String> claimAll(WorkQueue queue, int batchSize) throws IOException {
+        List<String> claimed = new ArrayList<>();
+        List<String> batch;
+        while (!(batch = queue.claim(batchSize)).isEmpty()) {
+            claimed.addAll(batch);
+        }
+        return claimed;
+    }
+
+    /**
+     * A worker process: opens the queue and prints every key it claims.
+     *
+     * @param args The queue file and the batch size
+     */
+    public static void main(String[] args) throws Exception {
+        try (WorkQueue queue = WorkQueue.open(new File(args[0]), keys(KEYS))) {
+            for (String key : claimAll(queue, Integer.parseInt(args[1]))) {
+                System.out.println(key);
+            }
+        }
+    }
+
+    @Test
+    public void workerProcessesClaimEveryKeyOnce() throws Exception {
+        File queue = new File(tmp.getRoot(), "job.queue");
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<Process> workers = new ArrayList<>();
+        List<File> outputs = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            File output = tmp.newFile("worker" + i + ".txt");
+            outputs.add(output);
+            workers.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    WorkQueueTest.class.getName(), queue.getPath(), "3")
+                    .redirectOutput(output)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start());
+        }
+        for (Process worker : workers) {
+            if (!worker.waitFor(60, TimeUnit.SECONDS)) {
+                worker.destroyForcibly();
+                fail("A worker didn't finish");
+            }
+            assertEquals(0, worker.exitValue());
+        }
+
+        Set<String> claimed = new HashSet<>();
+        int total = 0;
+        for (File output : outputs) {
+            for (String key : Files.readAllLines(output.toPath(), StandardCharsets.UTF_8)) {
+                assertTrue("Claimed twice: " + key, claimed.add(key));
+                total++;
+            }
+        }
+        assertEquals(KEYS, total);
+        for (int i = 0; i < KEYS; i++) {
+            assertTrue(claimed.contains("key-" + i));
+        }
+    }
+
+    @Test
+    public void incompleteQueuesAreFilledAgain() throws Exception {
+        File file = new File(tmp.getRoot(), "job.queue");
+        try {
+            WorkQueue.open(file, consumer -> {
+                for (int i = 0; i < 100; i++) {
+                    consumer.accept("key-" + i);
+                }
+                throw new IllegalStateException("The worker died");
+            });
+            fail("The source failed");
+        } catch (IllegalStateException ex) {
+            // Expected
+        }
+        assertTrue(file.length() > 0);
+
+        try (WorkQueue queue = WorkQueue.open(file, keys(KEYS))) {
+            assertTrue(queue.isCreated());
+            List<String> claimed = claimAll(queue, 64);
+            assertEquals(KEYS, claimed.size());
+            assertEquals(KEYS, new HashSet<>(claimed).size());
+        }
+        try (WorkQueue queue = WorkQueue.open(file, keys(KEYS))) {
+            assertFalse(queue.isCreated());
+            assertTrue(queue.claim(64).isEmpty());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedHeadersAreRejected() throws Exception {
+        File file = new File(tmp.getRoot(), "job.queue");
+        WorkQueue.open(file, keys(10)).close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(10);
+        }
+        WorkQueue.open(file, keys(10)).close();
+    }
+}